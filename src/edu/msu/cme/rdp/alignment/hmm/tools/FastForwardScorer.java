@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.alignment.hmm.tools;
+
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.alignment.hmm.XSC;
+import edu.msu.cme.rdp.alignment.hmm.scoring.HMMScorer;
+import edu.msu.cme.rdp.readseq.SequenceType;
+import java.util.Arrays;
+
+import static edu.msu.cme.rdp.alignment.hmm.TSC.*;
+import static edu.msu.cme.rdp.alignment.hmm.XSTATES.*;
+
+/**
+ * Forward scorer for rescoring whole contigs, same interface as the
+ * HMMScorers (consume, getScore, getMaxScore) but working from a Profile
+ * compiled once per model:
+ *
+ * - scores are floats in log space, summed with a lookup table
+ * - emissions are precomputed as one row per residue, so the inner loop
+ * reads the transition and emission scores straight out of flat arrays
+ * instead of calling in to the model for every cell
+ * - only the previous and current rows of the matrix are kept
+ *
+ * Same model layout as Viterbi (no I state at node M, exit from M_M and D_M,
+ * emitting N/C/J loops).  The model's length configuration is used as is.
+ *
+ * A Profile can be shared between threads, a scorer can't.
+ *
+ * Reported scores still come from ForwardScorer, FastForwardScorerTest
+ * checks the two agree before this replaces it anywhere.
+ *
+ * @author fishjord
+ */
+public class FastForwardScorer {
+
+    /**
+     * A model's scores laid out for the forward recursion, all arrays are
+     * indexed by the node being entered
+     */
+    public static class Profile {
+
+        private static final String PROT_RESIDUES = "acdefghiklmnpqrstvwy";
+        private static final String NUCL_RESIDUES = "acgtu";
+        private final ProfileHMM hmm;
+        private final int M;
+        //Transitions in to node k from node k - 1
+        private final float[] bm, mm, im, dm;
+        //Transitions from node k - 1 to D_k
+        private final float[] md, dd;
+        //Transitions from node k to I_k
+        private final float[] mi, ii;
+        //Match and insert emission rows by residue, null if not precomputed
+        private final float[][] matchRows = new float[128][];
+        private final float[][] insertRows = new float[128][];
+        private final float nLoop, nMove, jLoop, jMove, cLoop, cMove, eLoop, eMove;
+
+        public Profile(ProfileHMM hmm) {
+            this.hmm = hmm;
+            this.M = hmm.M();
+
+            bm = new float[M + 1];
+            mm = new float[M + 1];
+            im = new float[M + 1];
+            dm = new float[M + 1];
+            md = new float[M + 1];
+            dd = new float[M + 1];
+            mi = new float[M + 1];
+            ii = new float[M + 1];
+
+            Arrays.fill(mm, NEG_INF);
+            Arrays.fill(im, NEG_INF);
+            Arrays.fill(dm, NEG_INF);
+            Arrays.fill(md, NEG_INF);
+            Arrays.fill(dd, NEG_INF);
+            Arrays.fill(mi, NEG_INF);
+            Arrays.fill(ii, NEG_INF);
+
+            for (int k = 1; k <= M; k++) {
+                bm[k] = (float) hmm.tsc(k - 1, BM);
+                if (k > 1) {
+                    mm[k] = (float) hmm.tsc(k - 1, MM);
+                    im[k] = (float) hmm.tsc(k - 1, IM);
+                    dm[k] = (float) hmm.tsc(k - 1, DM);
+                    md[k] = (float) hmm.tsc(k - 1, MD);
+                    dd[k] = (float) hmm.tsc(k - 1, DD);
+                }
+                if (k < M) {
+                    mi[k] = (float) hmm.tsc(k, MI);
+                    ii[k] = (float) hmm.tsc(k, II);
+                }
+            }
+
+            nLoop = (float) hmm.xsc(N, XSC.LOOP);
+            nMove = (float) hmm.xsc(N, XSC.MOVE);
+            jLoop = (float) hmm.xsc(J, XSC.LOOP);
+            jMove = (float) hmm.xsc(J, XSC.MOVE);
+            cLoop = (float) hmm.xsc(C, XSC.LOOP);
+            cMove = (float) hmm.xsc(C, XSC.MOVE);
+            eLoop = (float) hmm.xsc(E, XSC.LOOP);
+            eMove = (float) hmm.xsc(E, XSC.MOVE);
+
+            String residues = (hmm.getAlphabet() == SequenceType.Protein) ? PROT_RESIDUES : NUCL_RESIDUES;
+            for (char c : residues.toCharArray()) {
+                matchRows[c] = computeMatchRow(c);
+                insertRows[c] = computeInsertRow(c);
+                matchRows[Character.toUpperCase(c)] = matchRows[c];
+                insertRows[Character.toUpperCase(c)] = insertRows[c];
+            }
+        }
+
+        private float[] computeMatchRow(char c) {
+            float[] ret = new float[M + 1];
+            ret[0] = NEG_INF;
+            for (int k = 1; k <= M; k++) {
+                ret[k] = (float) hmm.msc(k, c);
+            }
+            return ret;
+        }
+
+        private float[] computeInsertRow(char c) {
+            float[] ret = new float[M + 1];
+            ret[0] = ret[M] = NEG_INF;
+            for (int k = 1; k < M; k++) {
+                ret[k] = (float) hmm.isc(k, c);
+            }
+            return ret;
+        }
+
+        public ProfileHMM getHmm() {
+            return hmm;
+        }
+    }
+    private static final float NEG_INF = Float.NEGATIVE_INFINITY;
+    /*
+     * log(1 + exp(-d)) for d in [0, LOGSUM_MAX) in steps of 1 / LOGSUM_SCALE,
+     * past LOGSUM_MAX the smaller term doesn't change the float sum
+     */
+    private static final int LOGSUM_SCALE = 1000;
+    private static final float LOGSUM_MAX = 16;
+    private static final float[] logsumTable = new float[(int) (LOGSUM_MAX * LOGSUM_SCALE) + 1];
+
+    static {
+        for (int index = 0; index < logsumTable.length; index++) {
+            logsumTable[index] = (float) Math.log1p(Math.exp(-(double) index / LOGSUM_SCALE));
+        }
+    }
+    private final Profile profile;
+    private final int M;
+    private float[] mPrev, iPrev, dPrev, mCurr, iCurr, dCurr;
+    private float n, b, j, c;
+    private int length;
+    private double maxScore;
+    private int maxScoreLength;
+    //Rows for residues the profile didn't precompute, local to this scorer
+    private final float[][] extraMatchRows = new float[128][], extraInsertRows = new float[128][];
+
+    public FastForwardScorer(Profile profile) {
+        this.profile = profile;
+        this.M = profile.M;
+
+        mPrev = new float[M + 1];
+        iPrev = new float[M + 1];
+        dPrev = new float[M + 1];
+        mCurr = new float[M + 1];
+        iCurr = new float[M + 1];
+        dCurr = new float[M + 1];
+
+        reset();
+    }
+
+    private static float logsum(float a, float b) {
+        float max = (a > b) ? a : b;
+        float min = (a > b) ? b : a;
+        if (min == NEG_INF || max - min >= LOGSUM_MAX) {
+            return max;
+        }
+        return max + logsumTable[(int) ((max - min) * LOGSUM_SCALE + .5f)];
+    }
+
+    /**
+     * Starts over with an empty sequence
+     */
+    public final void reset() {
+        Arrays.fill(mPrev, NEG_INF);
+        Arrays.fill(iPrev, NEG_INF);
+        Arrays.fill(dPrev, NEG_INF);
+        Arrays.fill(mCurr, NEG_INF);
+        Arrays.fill(iCurr, NEG_INF);
+        Arrays.fill(dCurr, NEG_INF);
+
+        n = 0;
+        b = profile.nMove;
+        j = c = NEG_INF;
+        length = 0;
+        maxScore = Double.NEGATIVE_INFINITY;
+        maxScoreLength = 0;
+    }
+
+    private float[] matchRow(char r) {
+        if (r >= 128) {
+            return profile.computeMatchRow(r);
+        } else if (profile.matchRows[r] != null) {
+            return profile.matchRows[r];
+        }
+
+        if (extraMatchRows[r] == null) {
+            extraMatchRows[r] = profile.computeMatchRow(r);
+        }
+        return extraMatchRows[r];
+    }
+
+    private float[] insertRow(char r) {
+        if (r >= 128) {
+            return profile.computeInsertRow(r);
+        } else if (profile.insertRows[r] != null) {
+            return profile.insertRows[r];
+        }
+
+        if (extraInsertRows[r] == null) {
+            extraInsertRows[r] = profile.computeInsertRow(r);
+        }
+        return extraInsertRows[r];
+    }
+
+    public void consume(char r) {
+        final float[] msc = matchRow(r);
+        final float[] isc = insertRow(r);
+        final float[] bm = profile.bm, mm = profile.mm, im = profile.im, dm = profile.dm;
+        final float[] md = profile.md, dd = profile.dd, mi = profile.mi, ii = profile.ii;
+        final float[] mp = mPrev, ip = iPrev, dp = dPrev, mc = mCurr, ic = iCurr, dc = dCurr;
+        final float bPrev = b;
+
+        //Index 0 of every row stays -inf, so node 1 needs no special case
+        for (int k = 1; k <= M; k++) {
+            float sc = logsum(bPrev + bm[k], mp[k - 1] + mm[k]);
+            sc = logsum(sc, logsum(ip[k - 1] + im[k], dp[k - 1] + dm[k]));
+            mc[k] = sc + msc[k];
+
+            ic[k] = logsum(mp[k] + mi[k], ip[k] + ii[k]) + isc[k];
+
+            dc[k] = logsum(mc[k - 1] + md[k], dc[k - 1] + dd[k]);
+        }
+
+        float e = logsum(mc[M], dc[M]);
+
+        n = n + profile.nLoop;
+        j = logsum(j + profile.jLoop, e + profile.eLoop);
+        c = logsum(c + profile.cLoop, e + profile.eMove);
+        b = logsum(n + profile.nMove, j + profile.jMove);
+
+        mPrev = mc;
+        mCurr = mp;
+        iPrev = ic;
+        iCurr = ip;
+        dPrev = dc;
+        dCurr = dp;
+
+        length++;
+
+        double score = getScore();
+        if (score > maxScore) {
+            maxScore = score;
+            maxScoreLength = length;
+        }
+    }
+
+    /**
+     * @return forward score, in bits, of everything consumed since the last
+     * reset
+     */
+    public double getScore() {
+        return ((c + profile.cMove) - HMMScorer.getNull1(length)) / HMMScorer.ln2;
+    }
+
+    /**
+     * @return best score over every prefix consumed so far
+     */
+    public double getMaxScore() {
+        return maxScore;
+    }
+
+    public int getMaxScoreLength() {
+        return maxScoreLength;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public int getQueryLength() {
+        return length;
+    }
+
+    /**
+     * @return the forward score of seq in bits
+     */
+    public double scoreSequence(String seq) {
+        reset();
+        for (int index = 0; index < seq.length(); index++) {
+            consume(seq.charAt(index));
+        }
+        return getScore();
+    }
+}
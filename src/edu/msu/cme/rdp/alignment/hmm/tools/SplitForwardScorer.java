@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.alignment.hmm.tools;
+
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.alignment.hmm.XSC;
+import edu.msu.cme.rdp.alignment.hmm.scoring.HMMScorer;
+
+import static edu.msu.cme.rdp.alignment.hmm.TSC.*;
+import static edu.msu.cme.rdp.alignment.hmm.XSTATES.*;
+
+import static java.lang.StrictMath.exp;
+import static java.lang.StrictMath.log1p;
+
+/**
+ * Forward scores of sequences made by joining a prefix to a suffix, where
+ * many prefixes are joined to many suffixes (ie merging left and right
+ * contigs).
+ *
+ * The forward matrix is computed over each prefix and the backward matrix
+ * over each suffix, once each.  The score of prefix + suffix is the sum,
+ * over the states that could have emitted the last prefix residue, of
+ * forward * backward at the boundary, so scoring every pair of L prefixes
+ * and R suffixes costs L + R scans plus L * R O(M) joins instead of L * R
+ * full scans.
+ *
+ * Same model layout as Viterbi (no I state at node M, exit from M_M and D_M,
+ * emitting N/C/J loops), only rolling rows are kept.  The model's length
+ * configuration is used as is.
+ *
+ * @author fishjord
+ */
+public class SplitForwardScorer {
+
+    /**
+     * Forward values for a prefix, for the states that emitted its last
+     * residue (N/J/C only count if they emitted it by looping)
+     */
+    public static class Prefix {
+
+        private final double[] m;
+        private final double[] i;
+        private double n, j, c;
+        private final int length;
+
+        private Prefix(int M, int length) {
+            m = new double[M + 1];
+            i = new double[M + 1];
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+    }
+
+    /**
+     * Backward values for a suffix, the probability of emitting the suffix
+     * and ending from each state at the boundary
+     */
+    public static class Suffix {
+
+        private final double[] m;
+        private final double[] i;
+        private double n, j, c;
+        private final int length;
+
+        private Suffix(int M, int length) {
+            m = new double[M + 1];
+            i = new double[M + 1];
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+    }
+    private final ProfileHMM hmm;
+    private final int M;
+
+    public SplitForwardScorer(ProfileHMM hmm) {
+        this.hmm = hmm;
+        this.M = hmm.M();
+    }
+
+    private static double logsum(double a, double b) {
+        if (a == Double.NEGATIVE_INFINITY) {
+            return b;
+        } else if (b == Double.NEGATIVE_INFINITY) {
+            return a;
+        } else if (a > b) {
+            return a + log1p(exp(b - a));
+        } else {
+            return b + log1p(exp(a - b));
+        }
+    }
+
+    private static void fill(double[] a) {
+        for (int k = 0; k < a.length; k++) {
+            a[k] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Runs the forward algorithm over seq
+     *
+     * @param full if non-null full[0] is set to the forward score (nats) of
+     * seq by itself
+     */
+    private Prefix forward(char[] seq, double[] full) {
+        double[] mPrev = new double[M + 1], iPrev = new double[M + 1], dPrev = new double[M + 1];
+        double[] mCurr = new double[M + 1], iCurr = new double[M + 1], dCurr = new double[M + 1];
+        double[] tmp;
+        fill(mPrev);
+        fill(iPrev);
+        fill(dPrev);
+        fill(mCurr);
+        fill(iCurr);
+        fill(dCurr);
+
+        double n = 0;
+        double b = hmm.xsc(N, XSC.MOVE);
+        double j = Double.NEGATIVE_INFINITY, c = Double.NEGATIVE_INFINITY, e;
+        double nLoop = Double.NEGATIVE_INFINITY, jLoop = Double.NEGATIVE_INFINITY, cLoop = Double.NEGATIVE_INFINITY;
+
+        for (int x = 0; x < seq.length; x++) {
+            char xi = seq[x];
+
+            for (int k = 1; k <= M; k++) {
+                double sc = b + hmm.tsc(k - 1, BM);
+                if (k > 1) {
+                    sc = logsum(sc, mPrev[k - 1] + hmm.tsc(k - 1, MM));
+                    sc = logsum(sc, iPrev[k - 1] + hmm.tsc(k - 1, IM));
+                    sc = logsum(sc, dPrev[k - 1] + hmm.tsc(k - 1, DM));
+                }
+                mCurr[k] = sc + hmm.msc(k, xi);
+
+                if (k < M) {
+                    iCurr[k] = logsum(mPrev[k] + hmm.tsc(k, MI), iPrev[k] + hmm.tsc(k, II)) + hmm.isc(k, xi);
+                }
+
+                if (k > 1) {
+                    dCurr[k] = logsum(mCurr[k - 1] + hmm.tsc(k - 1, MD), dCurr[k - 1] + hmm.tsc(k - 1, DD));
+                }
+            }
+
+            e = logsum(mCurr[M], dCurr[M]);
+
+            nLoop = n + hmm.xsc(N, XSC.LOOP);
+            jLoop = j + hmm.xsc(J, XSC.LOOP);
+            cLoop = c + hmm.xsc(C, XSC.LOOP);
+
+            n = nLoop;
+            j = logsum(jLoop, e + hmm.xsc(E, XSC.LOOP));
+            c = logsum(cLoop, e + hmm.xsc(E, XSC.MOVE));
+            b = logsum(n + hmm.xsc(N, XSC.MOVE), j + hmm.xsc(J, XSC.MOVE));
+
+            tmp = mPrev;
+            mPrev = mCurr;
+            mCurr = tmp;
+            tmp = iPrev;
+            iPrev = iCurr;
+            iCurr = tmp;
+            tmp = dPrev;
+            dPrev = dCurr;
+            dCurr = tmp;
+        }
+
+        if (full != null) {
+            full[0] = c + hmm.xsc(C, XSC.MOVE);
+        }
+
+        Prefix ret = new Prefix(M, seq.length);
+        System.arraycopy(mPrev, 0, ret.m, 0, M + 1);
+        System.arraycopy(iPrev, 0, ret.i, 0, M + 1);
+        if (seq.length == 0) {
+            //Nothing emitted yet, every path starts in N
+            fill(ret.m);
+            fill(ret.i);
+            ret.n = 0;
+            ret.j = ret.c = Double.NEGATIVE_INFINITY;
+        } else {
+            ret.n = nLoop;
+            ret.j = jLoop;
+            ret.c = cLoop;
+        }
+
+        return ret;
+    }
+
+    public Prefix prefix(char[] seq) {
+        return forward(seq, null);
+    }
+
+    public Suffix suffix(char[] seq) {
+        double[] mNext = new double[M + 1], iNext = new double[M + 1];
+        double[] mCurr = new double[M + 1], iCurr = new double[M + 1], dCurr = new double[M + 1];
+        double[] emitM = new double[M + 1];
+        double[] tmp;
+        fill(mNext);
+        fill(iNext);
+        fill(mCurr);
+        fill(iCurr);
+        fill(dCurr);
+
+        //Values at the end of the sequence, only C can end
+        double cNext = hmm.xsc(C, XSC.MOVE);
+        double jNext = Double.NEGATIVE_INFINITY, nNext = Double.NEGATIVE_INFINITY;
+        double c = cNext, j = jNext, n = nNext, e, b;
+
+        //Silent states at the end
+        e = c + hmm.xsc(E, XSC.MOVE);
+        mNext[M] = e;
+        dCurr[M] = e;
+        for (int k = M - 1; k >= 1; k--) {
+            dCurr[k] = dCurr[k + 1] + hmm.tsc(k, DD);
+            mNext[k] = dCurr[k + 1] + hmm.tsc(k, MD);
+        }
+
+        for (int x = seq.length - 1; x >= 0; x--) {
+            char next = seq[x];
+            /*
+             * mNext/iNext/cNext... hold the backward values after
+             * emitting seq[x], compute the values before emitting it
+             */
+            for (int k = 1; k <= M; k++) {
+                emitM[k] = hmm.msc(k, next) + mNext[k];
+            }
+
+            c = cNext + hmm.xsc(C, XSC.LOOP);
+            b = Double.NEGATIVE_INFINITY;
+            for (int k = 1; k <= M; k++) {
+                b = logsum(b, hmm.tsc(k - 1, BM) + emitM[k]);
+            }
+            j = logsum(jNext + hmm.xsc(J, XSC.LOOP), hmm.xsc(J, XSC.MOVE) + b);
+            n = logsum(nNext + hmm.xsc(N, XSC.LOOP), hmm.xsc(N, XSC.MOVE) + b);
+            e = logsum(hmm.xsc(E, XSC.MOVE) + c, hmm.xsc(E, XSC.LOOP) + j);
+
+            mCurr[M] = e;
+            dCurr[M] = e;
+            for (int k = M - 1; k >= 1; k--) {
+                dCurr[k] = logsum(hmm.tsc(k, DM) + emitM[k + 1], hmm.tsc(k, DD) + dCurr[k + 1]);
+                double sc = logsum(hmm.tsc(k, MM) + emitM[k + 1], hmm.tsc(k, MD) + dCurr[k + 1]);
+                mCurr[k] = logsum(sc, hmm.tsc(k, MI) + hmm.isc(k, next) + iNext[k]);
+                iCurr[k] = logsum(hmm.tsc(k, IM) + emitM[k + 1], hmm.tsc(k, II) + hmm.isc(k, next) + iNext[k]);
+            }
+
+            tmp = mNext;
+            mNext = mCurr;
+            mCurr = tmp;
+            tmp = iNext;
+            iNext = iCurr;
+            iCurr = tmp;
+            cNext = c;
+            jNext = j;
+            nNext = n;
+        }
+
+        Suffix ret = new Suffix(M, seq.length);
+        System.arraycopy(mNext, 0, ret.m, 0, M + 1);
+        System.arraycopy(iNext, 0, ret.i, 0, M + 1);
+        ret.n = nNext;
+        ret.j = jNext;
+        ret.c = cNext;
+
+        return ret;
+    }
+
+    /**
+     * @return the forward score (nats) of prefix + suffix
+     */
+    public double score(Prefix prefix, Suffix suffix) {
+        double ret = logsum(prefix.n + suffix.n, prefix.j + suffix.j);
+        ret = logsum(ret, prefix.c + suffix.c);
+        for (int k = 1; k <= M; k++) {
+            ret = logsum(ret, prefix.m[k] + suffix.m[k]);
+            ret = logsum(ret, prefix.i[k] + suffix.i[k]);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return the forward score of prefix + suffix in bits over the null
+     * model
+     */
+    public double bits(Prefix prefix, Suffix suffix) {
+        int length = prefix.length + suffix.length;
+        return (score(prefix, suffix) - HMMScorer.getNull1(length)) / HMMScorer.ln2;
+    }
+
+    /**
+     * @return the forward score (nats) of seq, computed directly
+     */
+    public double score(char[] seq) {
+        double[] ret = new double[1];
+        forward(seq, ret);
+        return ret[0];
+    }
+}
@@ -69,7 +69,7 @@ public class Graph implements Serializable {
                 return false;
             }
 
-            if (this.kmer != other.kmer) {
+            if (!this.kmer.equals(other.kmer)) {
                 return false;
             }
             return true;
@@ -190,9 +190,9 @@ public class Graph implements Serializable {
         GraphNode gn;
 
         if (combined) {
-            gn = new GraphNode(node.kmer, node.stateNo, node.state);
+            gn = new GraphNode(node.getKmer(), node.stateNo, node.state);
         } else {
-            gn = new GraphNode(node.kmer);
+            gn = new GraphNode(node.getKmer());
         }
 
         if (nodes.containsKey(gn)) {
@@ -23,19 +23,17 @@ import edu.msu.cme.rdp.graph.filter.BloomFilter;
 import edu.msu.cme.rdp.graph.search.AStarNode;
 import edu.msu.cme.rdp.graph.search.HMMGraphSearch;
 import edu.msu.cme.rdp.graph.search.HMMGraphSearch.HackTerminateException;
-import edu.msu.cme.rdp.graph.search.SearchResult;
 import edu.msu.cme.rdp.graph.search.SearchTarget;
 import edu.msu.cme.rdp.readseq.SequenceType;
-import edu.msu.cme.rdp.readseq.writers.FastaWriter;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -54,7 +52,22 @@ import java.util.concurrent.TimeoutException;
  */
 public class GraphSearch {
 
-    private static class TimeLimitedSearchThread implements Callable<List<AStarNode>> {
+    /**
+     * Goal nodes from each direction, SearchGraphWriter needs to know which
+     * side of the seed a path is on
+     */
+    private static class SearchGraphResult {
+
+        private final List<AStarNode> left;
+        private final List<AStarNode> right;
+
+        SearchGraphResult(List<AStarNode> left, List<AStarNode> right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static class TimeLimitedSearchThread implements Callable<SearchGraphResult> {
 
         private HMMGraphSearch searchMethod;
         private SearchTarget target;
@@ -64,21 +77,21 @@ public class GraphSearch {
             this.target = target;
         }
 
-        public List<AStarNode> call() throws Exception {
+        public SearchGraphResult call() throws Exception {
             try {
-                return searchMethod.searchGraph(target);
+                return new SearchGraphResult(searchMethod.searchGraph(target, false), searchMethod.searchGraph(target, true));
             } catch (HackTerminateException e) {
                 return null;
             }
         }
     }
 
-    private static class TimeStamppedFutureTask extends FutureTask<List<AStarNode>> {
+    private static class TimeStamppedFutureTask extends FutureTask<SearchGraphResult> {
 
         private long startedAt = -1;
         private String startingWord;
 
-        public TimeStamppedFutureTask(Runnable runnable, List<AStarNode> result) {
+        public TimeStamppedFutureTask(Runnable runnable, SearchGraphResult result) {
             super(runnable, result);
         }
 
@@ -129,7 +142,7 @@ public class GraphSearch {
         File revHMMFile = new File(args[4]);
         File kmersFile = new File(args[5]);
 
-        File graphOutStem = new File(kmersFile.getName() + "_graph_");
+        File graphOutFile = new File(kmersFile.getName() + "_graph.gfa");
 
         HMMGraphSearch search = new HMMGraphSearch(k);
 
@@ -165,7 +178,7 @@ public class GraphSearch {
         System.err.println("*  Reverse hmm file:        " + revHMMFile);
         System.err.println("*  Searching prot?:         " + isProt);
         System.err.println("*  # paths:                 " + k);
-        System.err.println("*  Graph out stem:          " + graphOutStem);
+        System.err.println("*  Graph out file:          " + graphOutFile);
 
 
         ExecutorService executor = Executors.newFixedThreadPool(threads);
@@ -225,12 +238,13 @@ public class GraphSearch {
                     continue;
                 }
 
-                TimeStamppedFutureTask future = new TimeStamppedFutureTask(new TimeLimitedSearchThread(search, new SearchTarget(startingWord, 0, startingState, forHMM, revHMM, bloom)));
+                TimeStamppedFutureTask future = new TimeStamppedFutureTask(new TimeLimitedSearchThread(search, new SearchTarget(lexemes[0], "-", "-", startingWord, 0, startingState, forHMM, revHMM, bloom)));
                 executor.execute(future);
                 tasks.add(future);
             }
 
-            Graph graph = new Graph(false, bloom.getKmerSize());
+            PrintStream graphOut = new PrintStream(new BufferedOutputStream(new FileOutputStream(graphOutFile)));
+            SearchGraphWriter graph = new SearchGraphWriter(graphOut, bloom.getKmerSize(), isProt, forHMM.M());
             int searches = 0;
             for (TimeStamppedFutureTask future : tasks) {
                 try {
@@ -247,12 +261,14 @@ public class GraphSearch {
                         throw new TimeoutException();
                     }
 
-                    List<AStarNode> searchResults = future.get(delta, TimeUnit.MILLISECONDS);
+                    SearchGraphResult searchResults = future.get(delta, TimeUnit.MILLISECONDS);
+                    if (searchResults == null) {
+                        throw new TimeoutException();
+                    }
 
                     System.out.println("Search " + ++searches + " / " + tasks.size() + " done");
-                    for (AStarNode result : searchResults) {
-                        graph.extend(result);
-                    }
+                    graph.writePaths(searchResults.left, false);
+                    graph.writePaths(searchResults.right, true);
                 } catch (TimeoutException e) {
                     System.out.println("Search " + ++searches + " / " + tasks.size() + " canceled");
                     future.cancel(true);
@@ -262,12 +278,8 @@ public class GraphSearch {
                 }
             }
 
-            System.out.println("Graph searching done, writing graph");
-            graph.writeDot(graphOutStem);
-
-	    ObjectOutputStream ps = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(kmersFile.getName() + "_graph.ser")));
-	    ps.writeObject(graph);
-	    ps.close();
+            graphOut.close();
+            System.out.println("Graph searching done, wrote " + graph.getNodeCount() + " nodes and " + graph.getLinkCount() + " links to " + graphOutFile);
 
             executor.shutdown();
             System.err.println("Awaiting thread temination");
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph;
+
+import edu.msu.cme.rdp.graph.search.AStarNode;
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import edu.msu.cme.rdp.graph.search.PackedKmerSet;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Writes the paths found by HMMGraphSearch.searchGraph as GFA 1 as they come
+ * in, instead of building a Graph first.
+ *
+ * A node is a kmer in an hmm state (state and state number), same as a
+ * combined Graph.  Each distinct node is written once as a segment, named by
+ * the order it was first seen, with the kmer as its sequence and tags for
+ * the hmm state (ST), state number (SN) and the score of the first path to
+ * reach it (SC).  Each distinct discoveredFrom edge is written once as a
+ * link.  An emission moves the kmer one codon (or one base for nucleotide
+ * models) so links overlap by k - 3 (or k - 1), a delete doesn't move the
+ * kmer at all so its links have no overlap given.
+ *
+ * Both directions are written in the forward strand's terms so the two
+ * halves of a seed's search share the seed node.  Left paths come from the
+ * reverse hmm with their kmers stored backwards, so their kmers are
+ * reversed back, their links point from the node found later (further
+ * left) to the one it was found from, and their state numbers are mapped
+ * to the forward hmm state of the kmer's last residue, which is how the
+ * right search numbers its nodes.
+ *
+ * Only the nodes (packed, with their state) and the written links (as pairs
+ * of node numbers) are kept, both in primitive arrays.
+ *
+ * @author fishjord
+ */
+public class SearchGraphWriter {
+
+    private static final float MAX_LOAD = .5f;
+    private final PrintStream out;
+    private final int step;
+    //Model length and residues per kmer, to map left state numbers
+    private final int modelLength;
+    private final int kmerResidues;
+    private final PackedKmer kmer;
+    //Table slot -> node id, -1 for an empty slot
+    private int[] slots;
+    private int mask;
+    //Node id -> packed kmer and state number << 8 | state
+    private long[] his;
+    private long[] los;
+    private int[] states;
+    private int size = 0;
+    private final PackedKmerSet links = new PackedKmerSet();
+
+    /**
+     * @param modelLength number of states (M) in the forward and reverse
+     * hmms
+     */
+    public SearchGraphWriter(PrintStream out, int k, boolean prot, int modelLength) {
+        if (k > PackedKmer.MAX_K) {
+            throw new IllegalArgumentException("k must be <= " + PackedKmer.MAX_K);
+        }
+        this.out = out;
+        this.step = (prot) ? 3 : 1;
+        this.modelLength = modelLength;
+        this.kmerResidues = k / step;
+        this.kmer = new PackedKmer(k);
+
+        allocate(1 << 10);
+        his = new long[512];
+        los = new long[512];
+        states = new int[512];
+
+        out.println("H\tVN:Z:1.0");
+    }
+
+    private void allocate(int cap) {
+        slots = new int[cap];
+        Arrays.fill(slots, -1);
+        mask = cap - 1;
+    }
+
+    private static int hash(long hi, long lo, int state) {
+        int h = PackedKmer.hashCode(hi, lo) ^ (state * 0x9E3779B9);
+        return h ^ (h >>> 16);
+    }
+
+    private int findSlot(long hi, long lo, int state) {
+        int slot = hash(hi, lo, state) & mask;
+        int id;
+        while ((id = slots[slot]) != -1 && (his[id] != hi || los[id] != lo || states[id] != state)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * @return the node's id, writing its segment if it's new
+     */
+    private int addNode(AStarNode node, boolean forward) {
+        long hi = node.kmerHi;
+        long lo = node.kmerLo;
+        int stateNo = node.stateNo;
+        if (!forward) {
+            kmer.setReverse(hi, lo);
+            hi = kmer.getHi();
+            lo = kmer.getLo();
+            stateNo = modelLength - stateNo + kmerResidues;
+        }
+
+        int state = stateNo << 8 | node.state;
+        int slot = findSlot(hi, lo, state);
+        int id = slots[slot];
+        if (id != -1) {
+            return id;
+        }
+
+        id = size++;
+        slots[slot] = id;
+        if (id == his.length) {
+            his = Arrays.copyOf(his, id * 2);
+            los = Arrays.copyOf(los, id * 2);
+            states = Arrays.copyOf(states, id * 2);
+        }
+        his[id] = hi;
+        los[id] = lo;
+        states[id] = state;
+
+        if (size > slots.length * MAX_LOAD) {
+            allocate(slots.length << 1);
+            for (int index = 0; index < size; index++) {
+                slots[findSlot(his[index], los[index], states[index])] = index;
+            }
+        }
+
+        out.println("S\t" + (id + 1) + "\t" + kmer.set(hi, lo) + "\tST:A:" + node.state + "\tSN:i:" + stateNo + "\tSC:f:" + node.realScore);
+        return id;
+    }
+
+    /**
+     * Writes the nodes and links on the path ending at goal that haven't
+     * been written yet
+     *
+     * @param forward true if the path is from the right (forward hmm)
+     * search, false if it's from the left
+     */
+    public synchronized void writePath(AStarNode goal, boolean forward) {
+        AStarNode curr = goal;
+        int currId = addNode(curr, forward);
+
+        while (curr.discoveredFrom != null) {
+            AStarNode prev = curr.discoveredFrom;
+            int prevId = addNode(prev, forward);
+            //Left of the seed the newer node comes first on the forward strand
+            int fromId = (forward) ? prevId : currId;
+            int toId = (forward) ? currId : prevId;
+
+            if (links.add(fromId, toId)) {
+                out.println("L\t" + (fromId + 1) + "\t+\t" + (toId + 1) + "\t+\t" + ((curr.state == 'd') ? "*" : (kmer.length() - step) + "M"));
+            }
+
+            curr = prev;
+            currId = prevId;
+        }
+    }
+
+    public synchronized void writePaths(Iterable<AStarNode> goals, boolean forward) {
+        for (AStarNode goal : goals) {
+            writePath(goal, forward);
+        }
+    }
+
+    /**
+     * @return number of segments written
+     */
+    public synchronized int getNodeCount() {
+        return size;
+    }
+
+    /**
+     * @return number of links written
+     */
+    public synchronized int getLinkCount() {
+        return links.size();
+    }
+}
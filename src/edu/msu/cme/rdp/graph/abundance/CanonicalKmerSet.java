@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.abundance;
+
+/**
+ * A set of canonical kmers that remembers which strands of each kmer were
+ * added, see KmerScanner.
+ *
+ * Built from one thread, after that lookups are safe from any number of
+ * threads.
+ *
+ * @author fishjord
+ */
+public interface CanonicalKmerSet {
+
+    /**
+     * Adds the scanner's current kmer
+     */
+    public void add(KmerScanner scanner);
+
+    /**
+     * @return the strands (KmerScanner.CANONICAL_STRAND | REVERSE_STRAND) of
+     * the scanner's canonical kmer that have been added, 0 if neither
+     */
+    public byte getStrands(KmerScanner scanner);
+
+    /**
+     * Approximate size of the set in bytes
+     */
+    public long getMemoryUsage();
+}
@@ -16,134 +16,171 @@
  */
 package edu.msu.cme.rdp.graph.abundance;
 
-import edu.msu.cme.rdp.kmer.set.KmerSet;
-import edu.msu.cme.rdp.kmer.set.NuclKmerGenerator;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
-import edu.msu.cme.rdp.readseq.utils.IUBUtilities;
-import java.awt.Point;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
+ * Per base coverage of contigs by reads, the number of distinct reads with a
+ * kmer covering each base.
+ *
+ * Coverage is kept as difference arrays (+1 where a covered stretch starts,
+ * -1 one past where it ends) and summed once at output.  The kmer hits from a
+ * read are merged in to disjoint stretches first, so a read never counts
+ * twice for a base.  Workers only record the stretches, the one difference
+ * array per contig is built from all of them after mapping, so memory is
+ * the contig bases plus the stretches rather than a copy of every contig per
+ * worker.
  *
  * @author fishjord
  */
 public class ContigBaseCounting {
 
+    /**
+     * Covered stretches from the reads one worker saw
+     */
+    private class BaseCounts implements ReadMappingEngine.Accumulator {
+
+        //Two entries per stretch, contig index << 32 | start then end (exclusive)
+        private long[] stretches = new long[1024];
+        private int numStretches = 0;
+        //The current read's hits, contig index << 32 | kmer position
+        private long[] hits = new long[64];
+        private final KmerScanner scanner = new KmerScanner(k);
+
+        private void addStretch(int contig, int start, int end) {
+            if (numStretches * 2 == stretches.length) {
+                stretches = Arrays.copyOf(stretches, stretches.length * 2);
+            }
+            stretches[numStretches * 2] = ((long) contig << 32) | start;
+            stretches[numStretches * 2 + 1] = end;
+            numStretches++;
+        }
+
+        public void processRead(int ordinal, Sequence seq) {
+            int numHits = 0;
+
+            scanner.reset(seq.getSeqString());
+            while (scanner.next()) {
+                int id = kmerIndex.find(scanner);
+                if (id == -1) {
+                    continue;
+                }
+
+                for (int hit = kmerIndex.hitStart(id); hit < kmerIndex.hitEnd(id); hit++) {
+                    if (numHits == hits.length) {
+                        hits = Arrays.copyOf(hits, numHits * 2);
+                    }
+                    hits[numHits++] = ((long) kmerIndex.getHitContig(hit) << 32) | kmerIndex.getHitPosition(hit);
+                }
+            }
+
+            if (numHits == 0) {
+                return;
+            }
+
+            Arrays.sort(hits, 0, numHits);
+
+            int contig = (int) (hits[0] >>> 32);
+            int start = (int) hits[0];
+            int end = start + k;
+            for (int index = 1; index < numHits; index++) {
+                int nextContig = (int) (hits[index] >>> 32);
+                int nextStart = (int) hits[index];
+
+                if (nextContig == contig && nextStart <= end) {
+                    end = nextStart + k;
+                } else {
+                    addStretch(contig, start, end);
+                    contig = nextContig;
+                    start = nextStart;
+                    end = start + k;
+                }
+            }
+            addStretch(contig, start, end);
+        }
+    }
     private final int k;
     private final int contigCount;
     private String[] seqids;
-    private final Set<Integer>[][] baseOccurences;
-    private final KmerSet<Set<Point>> kmerSet;  //X = contig index, Y = kmer's position in contig
-    private int processedSeqs = 0;
+    private final ContigKmerIndex kmerIndex;  //Canonical, hits are forward strand positions
+    private int[][] baseOccurences;
 
     public ContigBaseCounting(File contigFile, int k) throws IOException, ClassNotFoundException {
         this.k = k;
 
-        List<Sequence> contigSeqs = SequenceReader.readFully(contigFile);
-        contigCount = contigSeqs.size();
+        kmerIndex = new ContigKmerIndex(SequenceReader.readFully(contigFile), k);
+        contigCount = kmerIndex.getContigCount();
 
-        baseOccurences = new HashSet[contigCount][];
         seqids = new String[contigCount];
-
-        kmerSet = new KmerSet();
-        
-        Sequence seq;
         for (int index = 0; index < contigCount; index++) {
-            seq = contigSeqs.get(index);
-
-            seqids[index] = seq.getSeqName();
-            baseOccurences[index] = new HashSet[seq.getSeqString().length()];
-            for(int i = 0;i < seq.getSeqString().length();i++) {
-                baseOccurences[index][i] = new HashSet();
-            }
-
-            String seqstr = seq.getSeqString();
-
-            addKmers(seqstr, index);
+            seqids[index] = kmerIndex.getSeqid(index);
         }
 
-        kmerSet.printStats();
+        System.err.println("*  Unique contig kmers:     " + kmerIndex.size());
+        System.err.println("*  Kmer index size:         " + kmerIndex.getMemoryUsage() + " bytes");
     }
 
-    private void addKmers(String seqString, int contigIndex) {
-
-        kmerGen = new NuclKmerGenerator(seqString, k);
-
-        kindex = 0;
-        while (kmerGen.hasNext()) {
-            val = kmerGen.next();
-            Set<Point> kmers = kmerSet.get(val);
-            if (kmers == null) {
-                kmers = new HashSet();
-                kmerSet.add(val, kmers);
-            }
-
-            kmers.add(new Point(contigIndex, kindex++));
-        }
-        
-        String reverseComp = IUBUtilities.reverseComplement(seqString);
-
-        kmerGen = new NuclKmerGenerator(reverseComp, k);
-
-        kindex = seqString.length() - k;
-        while (kmerGen.hasNext()) {
-            val = kmerGen.next();
-            Set<Point> kmers = kmerSet.get(val);
-            if (kmers == null) {
-                kmers = new HashSet();
-                kmerSet.add(val, kmers);
+    /**
+     * Each read is only seen by one worker, so the distinct read counts
+     * just add up
+     *
+     * @return number of reads processed
+     */
+    public int mapReads(SequenceReader reader, int threads) throws IOException, InterruptedException {
+        ReadMappingEngine engine = new ReadMappingEngine(threads);
+        List<BaseCounts> accumulators = engine.mapReads(reader, new ReadMappingEngine.AccumulatorFactory<BaseCounts>() {
+
+            public BaseCounts newAccumulator() {
+                return new BaseCounts();
             }
+        }, null);
 
-            kmers.add(new Point(contigIndex, kindex--));
+        //Contig -> depth[i] - depth[i - 1], one extra entry for the ends
+        int[][] depthDiffs = new int[contigCount][];
+        for (int contig = 0; contig < contigCount; contig++) {
+            depthDiffs[contig] = new int[kmerIndex.getContigLength(contig) + 1];
         }
-        
-    }
-    
-    private long val;
-    private Set<Point> refKmerCoords;
-    private NuclKmerGenerator kmerGen;
-    private int seqid, kindex;
 
-    public void processSeq(Sequence seq) {
-        kmerGen = new NuclKmerGenerator(seq.getSeqString(), k);
-
-        while (kmerGen.hasNext()) {
-            val = kmerGen.next();
-
-            refKmerCoords = kmerSet.get(val);
-
-            if (refKmerCoords == null) {
-                continue;
+        for (int index = 0; index < accumulators.size(); index++) {
+            BaseCounts counts = accumulators.get(index);
+            for (int stretch = 0; stretch < counts.numStretches; stretch++) {
+                long start = counts.stretches[stretch * 2];
+                int[] diffs = depthDiffs[(int) (start >>> 32)];
+                diffs[(int) start]++;
+                diffs[(int) counts.stretches[stretch * 2 + 1]]--;
             }
+            accumulators.set(index, null);
+        }
 
-            for (Point p : refKmerCoords) {
-                seqid = p.x;
-                kindex = p.y;
-                
-                for(int index = kindex;index < kindex + k;index++) {
-                    baseOccurences[seqid][index].add(processedSeqs);
-                }
+        baseOccurences = new int[contigCount][];
+        for (int contig = 0; contig < contigCount; contig++) {
+            int[] diffs = depthDiffs[contig];
+            int[] depth = new int[diffs.length - 1];
+            int sum = 0;
+            for (int base = 0; base < depth.length; base++) {
+                sum += diffs[base];
+                depth[base] = sum;
             }
+            baseOccurences[contig] = depth;
+            depthDiffs[contig] = null;
         }
-        
-        processedSeqs++;
+
+        return engine.getProcessed();
     }
 
     public void printResults(PrintStream out) throws IOException {
         for (int index = 0; index < contigCount; index++) {
             out.print(seqids[index]);
-            Set[] occur = baseOccurences[index];
+            int[] occur = baseOccurences[index];
 
             for (int base = 0; base < occur.length; base++) {
-                out.print("\t" + occur[base].size());
+                out.print("\t" + occur[base]);
             }
             out.println();
         }
@@ -159,7 +196,6 @@ public class ContigBaseCounting {
         final File readsFile = new File(args[1]);
         final int k = Integer.valueOf(args[2]);
         final int maxThreads;
-        final int maxTasks = 25000;
 
         if (args.length == 4) {
             maxThreads = Integer.valueOf(args[3]);
@@ -169,7 +205,7 @@ public class ContigBaseCounting {
 
         System.err.println("Starting kmer mapping at " + new Date());
         System.err.println("*  Number of threads:       " + maxThreads);
-        System.err.println("*  Max outstanding tasks:   " + maxTasks);
+        System.err.println("*  Read batch size:         " + ReadMappingEngine.BATCH_SIZE);
         System.err.println("*  Nucleotide contigs file: " + nuclContigs);
         System.err.println("*  Reads file:              " + readsFile);
         System.err.println("*  Kmer length:             " + k);
@@ -180,60 +216,16 @@ public class ContigBaseCounting {
 
         System.out.println();
 
-        final AtomicInteger processed = new AtomicInteger();
-        final AtomicInteger outstandingTasks = new AtomicInteger();
-
-
         SequenceReader reader = new SequenceReader(readsFile);
-        Sequence seq;
-
-        //ExecutorService service = Executors.newFixedThreadPool(maxThreads);
 
         startTime = System.currentTimeMillis();
-        while ((seq = reader.readNextSequence()) != null) {
-            kmerCounter.processSeq(seq);
-            processed.incrementAndGet();
-
-            if ((processed.get()) % 1000000 == 0) {
-                System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
-            }
-
-            /*
-            final Sequence threadSeq = seq;
-            
-            Runnable r = new Runnable() {
-            
-            public void run() {
-            //System.err.println("Processing sequence " + threadSeq.getSeqName() + " in thread " + Thread.currentThread().getName());
-            kmerCounter.processSeq(threadSeq);
-            //System.err.println("Processed count " + processed);
-            //System.err.println("Outstanding count count " + outstandingTasks);
-            processed.incrementAndGet();
-            outstandingTasks.decrementAndGet();
-            }
-            };
-            
-            outstandingTasks.incrementAndGet();
-            service.submit(r);
-            
-            //System.err.println("Submitting " + threadSeq.getSeqName() + ", outstanding tasks= " + outstandingTasks);
-            
-            while (outstandingTasks.get() >= maxTasks);
-            
-            if ((processed.get() + 1) % 1000000 == 0) {
-            System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
-            }*/
-        }
+        int processed = kmerCounter.mapReads(reader, maxThreads);
 
         reader.close();
 
-        //service.shutdown();
-        //service.awaitTermination(1, TimeUnit.DAYS);
-
         System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
 
         kmerCounter.printResults(System.out);
-        //System.err.println("Unique kmers in contigs: " + kmerCounter.trie.uniqueWords());
         System.err.println("Processing complete");
     }
 }
@@ -16,19 +16,13 @@
  */
 package edu.msu.cme.rdp.graph.abundance;
 
-import edu.msu.cme.rdp.kmer.trie.KmerTrie;
-import edu.msu.cme.rdp.kmer.trie.KmerTrie.TrieLeaf;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
 import java.util.Date;
-import edu.msu.cme.rdp.readseq.utils.IUBUtilities;
 
 /**
  *
@@ -36,48 +30,82 @@ import edu.msu.cme.rdp.readseq.utils.IUBUtilities;
  */
 public class ContigKmerCounting {
 
-    private KmerTrie trie;
+    /**
+     * Occurrences of each contig kmer (either strand) in the reads one worker
+     * saw
+     */
+    private class KmerCounts implements ReadMappingEngine.Accumulator {
+
+        private final int[] counts = new int[kmerIndex.size()];
+        private final KmerScanner scanner = new KmerScanner(kmerIndex.getK());
+
+        /**
+         * A read kmer matches its canonical kmer on both strands, so a
+         * palindrome is counted twice just like scanning the read and its
+         * reverse complement separately would
+         */
+        public void processRead(int ordinal, Sequence seq) {
+            scanner.reset(seq.getSeqString());
+
+            while (scanner.next()) {
+                int id = kmerIndex.find(scanner);
+                if (id != -1) {
+                    counts[id] += (scanner.isPalindrome()) ? 2 : 1;
+                }
+            }
+        }
+    }
+    private final ContigKmerIndex kmerIndex;
+    private int[] queryCounts;
 
     public ContigKmerCounting(File contigFile, int k) throws IOException {
-        SequenceReader reader = new SequenceReader(contigFile);
-        trie = KmerTrie.buildTrie(reader, k);
-        reader.close();
+        kmerIndex = new ContigKmerIndex(SequenceReader.readFully(contigFile), k);
     }
 
-    public void processSeq(Sequence seq) {
-        char[] bases = seq.getSeqString().toCharArray();
-        char[] rcbases = IUBUtilities.reverseComplement(seq.getSeqString()).toCharArray();
-        for (int index = 0; index <= bases.length - trie.getWordSize(); index++) {
-            TrieLeaf leaf = trie.contains(bases, index);
+    /**
+     * @return number of reads processed
+     */
+    public int mapReads(SequenceReader reader, int threads) throws IOException, InterruptedException {
+        ReadMappingEngine engine = new ReadMappingEngine(threads);
+        List<KmerCounts> accumulators = engine.mapReads(reader, new ReadMappingEngine.AccumulatorFactory<KmerCounts>() {
 
-            if (leaf != null) {
-                leaf.incQueryCount();
+            public KmerCounts newAccumulator() {
+                return new KmerCounts();
             }
+        }, null);
 
-            leaf = trie.contains(rcbases, index);
-            if (leaf != null) {
-                leaf.incQueryCount();
+        queryCounts = accumulators.get(0).counts;
+        for (int index = 1; index < accumulators.size(); index++) {
+            int[] counts = accumulators.get(index).counts;
+            for (int id = 0; id < counts.length; id++) {
+                queryCounts[id] += counts[id];
             }
         }
+
+        return engine.getProcessed();
     }
 
     public void printResults(File contigFile, PrintStream out) throws IOException {
         SequenceReader reader = new SequenceReader(contigFile);
+        KmerScanner scanner = new KmerScanner(kmerIndex.getK());
+        int k = kmerIndex.getK();
         Sequence seq;
 
         while ((seq = reader.readNextSequence()) != null) {
             out.print(seq.getSeqName());
 
-            char[] bases = seq.getSeqString().toCharArray();
-            for (int index = 0; index <= bases.length - trie.getWordSize(); index++) {
-                TrieLeaf leaf = trie.contains(bases, index);
-
+            String bases = seq.getSeqString();
+            scanner.reset(bases);
+            //The scanner skips kmers with invalid bases, next is the position of the one it's on
+            int next = (scanner.next()) ? scanner.getPosition() : bases.length();
+            for (int pos = 0; pos + k <= bases.length(); pos++) {
                 out.print("\t");
-                if (leaf == null) {
-                    System.err.println("ERROR: " + seq.getSeqName() + " contains a kmer not in the trie..." + new String(Arrays.copyOfRange(bases, index, index + trie.getWordSize())));
+                if (pos < next) {
+                    System.err.println("ERROR: " + seq.getSeqName() + " contains a kmer not in the trie..." + bases.substring(pos, pos + k));
                     out.print(0);
                 } else {
-                    out.print(leaf.getQueryCount());
+                    out.print(queryCounts[kmerIndex.find(scanner)]);
+                    next = (scanner.next()) ? scanner.getPosition() : bases.length();
                 }
             }
             out.println();
@@ -96,7 +124,6 @@ public class ContigKmerCounting {
         final File readsFile = new File(args[1]);
         final int k = Integer.valueOf(args[2]);
         final int maxThreads;
-        final int maxTasks = 1000;
 
         if(args.length == 4){
             maxThreads = Integer.valueOf(args[3]);
@@ -106,7 +133,7 @@ public class ContigKmerCounting {
         
         System.err.println("Starting kmer mapping at " + new Date());
         System.err.println("*  Number of threads:       " + maxThreads);
-        System.err.println("*  Max outstanding tasks:   " + maxTasks);
+        System.err.println("*  Read batch size:         " + ReadMappingEngine.BATCH_SIZE);
         System.err.println("*  Nucleotide contigs file: " + nuclContigs);
         System.err.println("*  Reads file:              " + readsFile);
         System.err.println("*  Kmer length:             " + k);
@@ -114,51 +141,17 @@ public class ContigKmerCounting {
         long startTime = System.currentTimeMillis();
         final ContigKmerCounting kmerCounter = new ContigKmerCounting(nuclContigs, k);
         System.err.println("Kmer trie built in " + (System.currentTimeMillis() - startTime) + " ms");
-        
-        final AtomicInteger processed = new AtomicInteger();
-        final AtomicInteger outstandingTasks = new AtomicInteger();
 
-        
         SequenceReader reader = new SequenceReader(readsFile);
-        Sequence seq;
-        
-        ExecutorService service = Executors.newFixedThreadPool(maxThreads);
 
         startTime = System.currentTimeMillis();
-        while ((seq = reader.readNextSequence()) != null) {
-            final Sequence threadSeq = seq;
-
-            Runnable r = new Runnable() {
-                public void run() {
-                    //System.err.println("Processing sequence " + threadSeq.getSeqName() + " in thread " + Thread.currentThread().getName());
-                    kmerCounter.processSeq(threadSeq);
-                    //System.err.println("Processed count " + processed);
-                    //System.err.println("Outstanding count count " + outstandingTasks);
-                    processed.incrementAndGet();
-                    outstandingTasks.decrementAndGet();
-                }
-            };
-            
-            outstandingTasks.incrementAndGet();
-            service.submit(r);
-            
-            //System.err.println("Submitting " + threadSeq.getSeqName() + ", outstanding tasks= " + outstandingTasks);
-            
-            while(outstandingTasks.get() >= maxTasks);
-            
-            if (processed.get() % 1000000 == 0) {
-                System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
-            }
-        }
+        int processed = kmerCounter.mapReads(reader, maxThreads);
 
         reader.close();
-        
-        service.shutdown();
 
         System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
 
         kmerCounter.printResults(nuclContigs, System.out);
-        //System.err.println("Unique kmers in contigs: " + kmerCounter.trie.uniqueWords());
         System.err.println("Processing complete");
     }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.abundance;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import edu.msu.cme.rdp.readseq.readers.Sequence;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Every kmer in a set of contigs and where it occurs, in primitive arrays.
+ *
+ * Kmers are indexed by their canonical form (see KmerScanner) so a read kmer
+ * from either strand finds the same entry with a single lookup.  Canonical
+ * kmers (packed, see PackedKmer) are numbered 0..size()-1 in an open
+ * addressing table, the occurrences of kmer i are hits hitStart(i) to
+ * hitEnd(i) - 1, each hit being a contig index and the forward strand
+ * position of the kmer's first base in that contig.  Kmers with a non-acgt
+ * base are skipped.
+ *
+ * Immutable once built, lookups are safe from any number of threads.
+ *
+ * @author fishjord
+ */
+public class ContigKmerIndex {
+
+    private static final float MAX_LOAD = .5f;
+    private final int k;
+    private final String[] seqids;
+    private final int[] contigLengths;
+    //Table slot -> kmer id, -1 for an empty slot
+    private int[] slots;
+    private int mask;
+    //Kmer id -> packed kmer
+    private long[] his;
+    private long[] los;
+    private byte[] strands;
+    private int size = 0;
+    //Kmer id -> offset of its first hit, size + 1 entries
+    private int[] hitOffsets;
+    private int[] hitContigs;
+    private int[] hitPositions;
+
+    public ContigKmerIndex(List<Sequence> contigs, int k) {
+        this.k = k;
+        seqids = new String[contigs.size()];
+        contigLengths = new int[contigs.size()];
+
+        allocate(1 << 16);
+        his = new long[1024];
+        los = new long[1024];
+        strands = new byte[1024];
+
+        //First pass numbers the kmers and counts their hits
+        int[] counts = new int[1024];
+        for (int index = 0; index < contigs.size(); index++) {
+            Sequence seq = contigs.get(index);
+            seqids[index] = seq.getSeqName();
+            contigLengths[index] = seq.getSeqString().length();
+
+            counts = addKmers(seq.getSeqString(), index, counts, null);
+        }
+
+        hitOffsets = new int[size + 1];
+        for (int id = 0; id < size; id++) {
+            hitOffsets[id + 1] = hitOffsets[id] + counts[id];
+        }
+        hitContigs = new int[hitOffsets[size]];
+        hitPositions = new int[hitOffsets[size]];
+
+        //Second pass fills in the hits, counts is reused as each kmer's fill cursor
+        System.arraycopy(hitOffsets, 0, counts, 0, size);
+        for (int index = 0; index < contigs.size(); index++) {
+            addKmers(contigs.get(index).getSeqString(), index, null, counts);
+        }
+
+        his = Arrays.copyOf(his, size);
+        los = Arrays.copyOf(los, size);
+        strands = Arrays.copyOf(strands, size);
+    }
+
+    private void allocate(int cap) {
+        slots = new int[cap];
+        Arrays.fill(slots, -1);
+        mask = cap - 1;
+    }
+
+    /**
+     * Walks every kmer in the contig, when counting (counts != null) new
+     * kmers are added to the table, otherwise the hits are written at the
+     * cursors
+     */
+    private int[] addKmers(String seq, int contigIndex, int[] counts, int[] cursors) {
+        KmerScanner scanner = new KmerScanner(k).reset(seq);
+
+        while (scanner.next()) {
+            long hi = scanner.getCanonicalHi();
+            long lo = scanner.getCanonicalLo();
+
+            if (counts != null) {
+                counts = countHit(hi, lo, scanner.getStrand(), counts);
+            } else {
+                addHit(find(hi, lo), contigIndex, scanner.getPosition(), cursors);
+            }
+        }
+
+        return counts;
+    }
+
+    private int[] countHit(long hi, long lo, byte strand, int[] counts) {
+        int slot = findSlot(hi, lo);
+        int id = slots[slot];
+        if (id == -1) {
+            id = size++;
+            slots[slot] = id;
+
+            if (id == his.length) {
+                his = Arrays.copyOf(his, id * 2);
+                los = Arrays.copyOf(los, id * 2);
+                strands = Arrays.copyOf(strands, id * 2);
+            }
+            his[id] = hi;
+            los[id] = lo;
+
+            if (size > slots.length * MAX_LOAD) {
+                rehash();
+            }
+        }
+        strands[id] |= strand;
+
+        if (id >= counts.length) {
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+        counts[id]++;
+
+        return counts;
+    }
+
+    private void addHit(int id, int contigIndex, int pos, int[] cursors) {
+        int hit = cursors[id]++;
+        hitContigs[hit] = contigIndex;
+        hitPositions[hit] = pos;
+    }
+
+    private void rehash() {
+        allocate(slots.length << 1);
+        for (int id = 0; id < size; id++) {
+            slots[findSlot(his[id], los[id])] = id;
+        }
+    }
+
+    private int findSlot(long hi, long lo) {
+        int slot = PackedKmer.hashCode(hi, lo) & mask;
+        int id;
+        while ((id = slots[slot]) != -1 && (his[id] != hi || los[id] != lo)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * @return the kmer's id or -1 if it isn't in any contig
+     */
+    public int find(long hi, long lo) {
+        return slots[findSlot(hi, lo)];
+    }
+
+    /**
+     * @return the id of the scanner's current (canonical) kmer, or -1
+     */
+    public int find(KmerScanner scanner) {
+        return find(scanner.getCanonicalHi(), scanner.getCanonicalLo());
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return number of distinct kmers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the canonical kmer
+     */
+    public PackedKmer getKmer(int id, PackedKmer dest) {
+        return dest.set(his[id], los[id]);
+    }
+
+    /**
+     * @return which strands of the kmer appear in the contigs, see
+     * KmerScanner.CANONICAL_STRAND and REVERSE_STRAND
+     */
+    public byte getStrands(int id) {
+        return strands[id];
+    }
+
+    public int hitStart(int id) {
+        return hitOffsets[id];
+    }
+
+    public int hitEnd(int id) {
+        return hitOffsets[id + 1];
+    }
+
+    public int getHitContig(int hit) {
+        return hitContigs[hit];
+    }
+
+    public int getHitPosition(int hit) {
+        return hitPositions[hit];
+    }
+
+    public int getContigCount() {
+        return seqids.length;
+    }
+
+    public String getSeqid(int contigIndex) {
+        return seqids[contigIndex];
+    }
+
+    public int getContigLength(int contigIndex) {
+        return contigLengths[contigIndex];
+    }
+
+    /**
+     * Approximate size of the index in bytes
+     */
+    public long getMemoryUsage() {
+        return 4L * slots.length + 17L * size + 4L * hitOffsets.length + 8L * hitContigs.length;
+    }
+}
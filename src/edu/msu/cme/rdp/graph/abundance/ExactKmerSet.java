@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.abundance;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import java.util.Arrays;
+
+/**
+ * Open addressing table of canonical kmers in primitive arrays, no per kmer
+ * objects.
+ *
+ * @author fishjord
+ */
+public class ExactKmerSet implements CanonicalKmerSet {
+
+    private static final float MAX_LOAD = .5f;
+    private long[] his;
+    private long[] los;
+    //Strands added, 0 for an empty slot
+    private byte[] strands;
+    private int mask;
+    private int size = 0;
+
+    public ExactKmerSet() {
+        allocate(1 << 16);
+    }
+
+    private void allocate(int cap) {
+        his = new long[cap];
+        los = new long[cap];
+        strands = new byte[cap];
+        mask = cap - 1;
+    }
+
+    private int findSlot(long hi, long lo) {
+        int slot = PackedKmer.hashCode(hi, lo) & mask;
+        while (strands[slot] != 0 && (his[slot] != hi || los[slot] != lo)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    public void add(KmerScanner scanner) {
+        add(scanner.getCanonicalHi(), scanner.getCanonicalLo(), scanner.getStrand());
+    }
+
+    private void add(long hi, long lo, byte strand) {
+        int slot = findSlot(hi, lo);
+        if (strands[slot] == 0) {
+            his[slot] = hi;
+            los[slot] = lo;
+            size++;
+        }
+        strands[slot] |= strand;
+
+        if (size > strands.length * MAX_LOAD) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        long[] oldHis = his;
+        long[] oldLos = los;
+        byte[] oldStrands = strands;
+
+        allocate(oldStrands.length << 1);
+        for (int slot = 0; slot < oldStrands.length; slot++) {
+            if (oldStrands[slot] != 0) {
+                int newSlot = findSlot(oldHis[slot], oldLos[slot]);
+                his[newSlot] = oldHis[slot];
+                los[newSlot] = oldLos[slot];
+                strands[newSlot] = oldStrands[slot];
+            }
+        }
+    }
+
+    public byte getStrands(KmerScanner scanner) {
+        return strands[findSlot(scanner.getCanonicalHi(), scanner.getCanonicalLo())];
+    }
+
+    /**
+     * @return number of distinct canonical kmers
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getMemoryUsage() {
+        return 17L * strands.length;
+    }
+}
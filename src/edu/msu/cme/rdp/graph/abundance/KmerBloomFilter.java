@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.abundance;
+
+/**
+ * Bloom filter over canonical kmers, sized up front for a target false
+ * positive rate.  Each cell is two bits, one per strand, so a lookup hashes
+ * the canonical kmer once and gets back which strands were added.
+ *
+ * Cells are picked by double hashing a 64 bit mix of the packed kmer, lookups
+ * stop at the first cell with no strand left in common.
+ *
+ * @author fishjord
+ */
+public class KmerBloomFilter implements CanonicalKmerSet {
+
+    private final long[] words;
+    private final long cells;
+    private final int hashCount;
+
+    /**
+     * @param expectedKmers upper bound on the number of distinct kmers that
+     * will be added
+     * @param falsePositiveRate wanted chance of a strand being reported for a
+     * kmer that was never added
+     */
+    public KmerBloomFilter(long expectedKmers, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+
+        long n = Math.max(expectedKmers, 1);
+        double ln2 = Math.log(2);
+        cells = Math.max(64, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        hashCount = Math.max(1, (int) Math.round((double) cells / n * ln2));
+
+        long numWords = (cells * 2 + 63) / 64;
+        if (numWords > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter for " + expectedKmers + " kmers at " + falsePositiveRate + " is too large");
+        }
+        words = new long[(int) numWords];
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    public void add(KmerScanner scanner) {
+        long h1 = mix(scanner.getCanonicalHi() ^ mix(scanner.getCanonicalLo()));
+        long h2 = mix(h1 + 0x9e3779b97f4a7c15L) | 1;
+        long strand = scanner.getStrand();
+
+        for (int i = 0; i < hashCount; i++) {
+            long cell = ((h1 + i * h2) >>> 1) % cells;
+            words[(int) (cell >>> 5)] |= strand << ((cell & 31) << 1);
+        }
+    }
+
+    public byte getStrands(KmerScanner scanner) {
+        long h1 = mix(scanner.getCanonicalHi() ^ mix(scanner.getCanonicalLo()));
+        long h2 = mix(h1 + 0x9e3779b97f4a7c15L) | 1;
+        long strands = KmerScanner.CANONICAL_STRAND | KmerScanner.REVERSE_STRAND;
+
+        for (int i = 0; i < hashCount && strands != 0; i++) {
+            long cell = ((h1 + i * h2) >>> 1) % cells;
+            strands &= words[(int) (cell >>> 5)] >>> ((cell & 31) << 1);
+        }
+
+        return (byte) strands;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public long getMemoryUsage() {
+        return 8L * words.length;
+    }
+}
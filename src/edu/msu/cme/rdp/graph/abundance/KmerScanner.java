@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.abundance;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
+
+/**
+ * Walks the kmers (k &lt;= 64) of a sequence, keeping the packed kmer and
+ * its reverse complement up to date with one shift each per base so
+ * neither strand is ever copied.  Kmers with a non-acgt base are skipped.
+ *
+ * The canonical kmer is the smaller of the two strands, a kmer and its
+ * reverse complement have the same canonical kmer.
+ *
+ * Reusable, call reset for each sequence.  Not thread safe.
+ *
+ * @author fishjord
+ */
+public class KmerScanner {
+
+    /**
+     * Which strand of a canonical kmer a kmer is, the canonical kmer itself
+     * or its reverse complement
+     */
+    public static final byte CANONICAL_STRAND = 1, REVERSE_STRAND = 2;
+    private final int k;
+    private final PackedKmer forward;
+    private final PackedKmer reverseComplement;
+    private CharSequence seq;
+    private int index;
+    private int valid;
+
+    public KmerScanner(int k) {
+        this.k = k;
+        forward = new PackedKmer(k);
+        reverseComplement = new PackedKmer(k);
+    }
+
+    public KmerScanner reset(CharSequence seq) {
+        this.seq = seq;
+        index = -1;
+        valid = 0;
+
+        return this;
+    }
+
+    /**
+     * Moves to the next kmer
+     *
+     * @return false if there are no more
+     */
+    public boolean next() {
+        while (++index < seq.length()) {
+            char c = seq.charAt(index);
+            byte b = (c < 128) ? NuclBinMapping.validateLookup[c] : -1;
+            if (b == -1) {
+                valid = 0;
+                continue;
+            }
+
+            forward.shiftLeft(b);
+            reverseComplement.shiftRight((byte) (3 - b));
+            if (++valid >= k) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return position of the current kmer's first base
+     */
+    public int getPosition() {
+        return index - k + 1;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public PackedKmer getForward() {
+        return forward;
+    }
+
+    public PackedKmer getReverseComplement() {
+        return reverseComplement;
+    }
+
+    public boolean isForwardCanonical() {
+        return PackedKmer.compare(forward.getHi(), forward.getLo(), reverseComplement.getHi(), reverseComplement.getLo()) <= 0;
+    }
+
+    /**
+     * @return CANONICAL_STRAND if the forward kmer is the canonical kmer,
+     * otherwise REVERSE_STRAND
+     */
+    public byte getStrand() {
+        return (isForwardCanonical()) ? CANONICAL_STRAND : REVERSE_STRAND;
+    }
+
+    public boolean isPalindrome() {
+        return forward.getHi() == reverseComplement.getHi() && forward.getLo() == reverseComplement.getLo();
+    }
+
+    public long getCanonicalHi() {
+        return (isForwardCanonical()) ? forward.getHi() : reverseComplement.getHi();
+    }
+
+    public long getCanonicalLo() {
+        return (isForwardCanonical()) ? forward.getLo() : reverseComplement.getLo();
+    }
+}
@@ -16,104 +16,160 @@
  */
 package edu.msu.cme.rdp.graph.abundance;
 
-import edu.msu.cme.rdp.kmer.set.KmerSet;
-import edu.msu.cme.rdp.kmer.set.NuclKmerGenerator;
+import edu.msu.cme.rdp.graph.search.PackedKmer;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
-import edu.msu.cme.rdp.readseq.utils.IUBUtilities;
-import java.awt.Point;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
+ * Lists the reads containing each contig kmer.  Reads are numbered in the
+ * order they're read, the output has the read ordinals and the ordinal to
+ * read name mapping is written to a separate file as the reads go by, so no
+ * read names are held in memory.
  *
  * @author fishjord
  */
 public class ReadKmerMapper {
 
-    private final int k;
-    private final KmerSet<Set<String>> kmerSet;
-    private int processedSeqs = 0;
-
-    public ReadKmerMapper(File contigFile, int k) throws IOException {
-        this.k = k;
+    /**
+     * The reads one worker saw containing each kmer
+     */
+    private class KmerReads implements ReadMappingEngine.Accumulator {
 
-        List<Sequence> contigSeqs = SequenceReader.readFully(contigFile);
+        //Kmer id -> ordinals of the reads containing it, in increasing order
+        private final int[][] readOrdinals = new int[kmerIndex.size()][];
+        private final int[] readCounts = new int[kmerIndex.size()];
+        private final KmerScanner scanner = new KmerScanner(k);
 
-        kmerSet = new KmerSet();
+        /**
+         * One canonical lookup per read kmer covers both strands
+         */
+        public void processRead(int ordinal, Sequence seq) {
+            scanner.reset(seq.getSeqString());
 
-        Sequence seq;
-        for (int index = 0; index < contigSeqs.size(); index++) {
-            seq = contigSeqs.get(index);
-            String seqstr = seq.getSeqString();
-            addKmers(seqstr, index);
+            while (scanner.next()) {
+                addRead(kmerIndex.find(scanner), ordinal);
+            }
         }
 
-        kmerSet.printStats();
-    }
-
-    private void addKmers(String seqString, int contigIndex) {
+        private void addRead(int id, int ordinal) {
+            if (id == -1) {
+                return;
+            }
 
-        kmerGen = new NuclKmerGenerator(seqString, k);
+            int count = readCounts[id];
+            int[] reads = readOrdinals[id];
+            if (count > 0 && reads[count - 1] == ordinal) {
+                return; //Reads are added in order, so this is the only place a duplicate can be
+            }
 
-        while (kmerGen.hasNext()) {
-            val = kmerGen.next();
-            Set<String> kmers = kmerSet.get(val);
-            if (kmers == null) {
-                kmers = new HashSet();
-                kmerSet.add(val, kmers);
+            if (reads == null) {
+                reads = readOrdinals[id] = new int[4];
+            } else if (count == reads.length) {
+                reads = readOrdinals[id] = Arrays.copyOf(reads, count * 2);
             }
+            reads[count] = ordinal;
+            readCounts[id]++;
         }
-    }
 
-    private long val;
-    private NuclKmerGenerator kmerGen;
-    private Set<String> readIds;
-
-    private void processRead(Sequence seq) {
-        processRead(seq.getSeqName(), seq.getSeqString());
-        processRead(seq.getSeqName(), IUBUtilities.reverseComplement(seq.getSeqString()));
-        processedSeqs++;
+        /**
+         * Moves the other worker's reads in to this one, every read was only
+         * seen by one worker so there are no duplicates to remove
+         */
+        private void merge(KmerReads other) {
+            for (int id = 0; id < readCounts.length; id++) {
+                int otherCount = other.readCounts[id];
+                if (otherCount == 0) {
+                    continue;
+                }
+
+                int count = readCounts[id];
+                if (count == 0) {
+                    readOrdinals[id] = other.readOrdinals[id];
+                } else {
+                    int[] reads = Arrays.copyOf(readOrdinals[id], count + otherCount);
+                    System.arraycopy(other.readOrdinals[id], 0, reads, count, otherCount);
+                    Arrays.sort(reads);
+                    readOrdinals[id] = reads;
+                }
+                readCounts[id] = count + otherCount;
+                other.readOrdinals[id] = null;
+            }
+        }
     }
+    public static final String READ_ID_FILE = "read_ids.txt";
+    private final int k;
+    private final ContigKmerIndex kmerIndex;
+    private KmerReads results;
 
-    private void processRead(String name, String seqString) {
-
-        kmerGen = new NuclKmerGenerator(seqString, k);
+    public ReadKmerMapper(File contigFile, int k) throws IOException {
+        this.k = k;
 
-        while (kmerGen.hasNext()) {
-            val = kmerGen.next();
+        kmerIndex = new ContigKmerIndex(SequenceReader.readFully(contigFile), k);
 
-            readIds = kmerSet.get(val);
+        System.err.println("*  Unique contig kmers:     " + kmerIndex.size());
+        System.err.println("*  Kmer index size:         " + kmerIndex.getMemoryUsage() + " bytes");
+    }
 
-            if (readIds == null) {
-                continue;
+    /**
+     * Maps every read in the reader, reads are numbered from 0 in the order
+     * they're read
+     *
+     * @param readIdOut if not null gets the read ordinal to seqid mapping
+     */
+    public int mapReads(SequenceReader reader, int threads, PrintStream readIdOut) throws IOException, InterruptedException {
+        ReadMappingEngine engine = new ReadMappingEngine(threads);
+        List<KmerReads> accumulators = engine.mapReads(reader, new ReadMappingEngine.AccumulatorFactory<KmerReads>() {
+
+            public KmerReads newAccumulator() {
+                return new KmerReads();
             }
+        }, readIdOut);
 
-            readIds.add(name);
+        results = accumulators.get(0);
+        for (int index = 1; index < accumulators.size(); index++) {
+            results.merge(accumulators.get(index));
         }
+
+        return engine.getProcessed();
     }
 
+    /**
+     * One line per distinct kmer on the contigs' forward strands, a kmer and
+     * its reverse complement share an index entry so both get the same reads
+     */
     public void printResults(PrintStream out) throws IOException {
-        Set<Long> keys = kmerSet.getKeys();
+        PackedKmer decoded = new PackedKmer(k);
+        KmerScanner scanner = new KmerScanner(k);
 
-        kmerGen = new NuclKmerGenerator("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", k);
+        for (int id = 0; id < kmerIndex.size(); id++) {
+            byte strands = kmerIndex.getStrands(id);
+            scanner.reset(kmerIndex.getKmer(id, decoded).toString()).next();
 
-        //kmer shouldn't be null yet, so we'll use it to decode the longs
-        for(Long key : keys) {
-            out.print(kmerGen.decodeLong(key));
-            for(String readid : kmerSet.get(key)) {
-                out.print(" " + readid);
+            if ((strands & KmerScanner.CANONICAL_STRAND) != 0) {
+                printLine(out, scanner.getForward(), id);
+            }
+            if ((strands & KmerScanner.REVERSE_STRAND) != 0) {
+                printLine(out, scanner.getReverseComplement(), id);
             }
-            out.println();
         }
     }
 
+    private void printLine(PrintStream out, PackedKmer kmer, int id) {
+        out.print(kmer);
+        for (int index = 0; index < results.readCounts[id]; index++) {
+            out.print(" " + results.readOrdinals[id][index]);
+        }
+        out.println();
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length != 3 && args.length != 4) {
             System.err.println("USAGE: ReadKmerMapper <nucl_contig_file> <reads_file> <k> [#threads]");
@@ -124,12 +180,10 @@ public class ReadKmerMapper {
         final File readsFile = new File(args[1]);
         final int k = Integer.valueOf(args[2]);
         final int maxThreads;
-        final int maxTasks = 25000;
 
-        if(k > 31) {
-            System.err.println("k > 31, passing off to the long kmer mapper");
-            ReadKmerMapperLongKmer.main(args);
-            return;
+        if (k < 1 || k > PackedKmer.MAX_K) {
+            System.err.println("k must be between 1 and " + PackedKmer.MAX_K);
+            System.exit(1);
         }
 
         if (args.length == 4) {
@@ -140,10 +194,11 @@ public class ReadKmerMapper {
 
         System.err.println("Starting kmer mapping at " + new Date());
         System.err.println("*  Number of threads:       " + maxThreads);
-        System.err.println("*  Max outstanding tasks:   " + maxTasks);
+        System.err.println("*  Read batch size:         " + ReadMappingEngine.BATCH_SIZE);
         System.err.println("*  Nucleotide contigs file: " + nuclContigs);
         System.err.println("*  Reads file:              " + readsFile);
         System.err.println("*  Kmer length:             " + k);
+        System.err.println("*  Read id file:            " + READ_ID_FILE);
 
         long startTime = System.currentTimeMillis();
         final ReadKmerMapper kmerCounter = new ReadKmerMapper(nuclContigs, k);
@@ -151,60 +206,18 @@ public class ReadKmerMapper {
 
         System.out.println();
 
-        final AtomicInteger processed = new AtomicInteger();
-        final AtomicInteger outstandingTasks = new AtomicInteger();
-
-
         SequenceReader reader = new SequenceReader(readsFile);
-        Sequence seq;
-
-        //ExecutorService service = Executors.newFixedThreadPool(maxThreads);
+        PrintStream readIdOut = new PrintStream(new BufferedOutputStream(new FileOutputStream(READ_ID_FILE)));
 
         startTime = System.currentTimeMillis();
-        while ((seq = reader.readNextSequence()) != null) {
-            kmerCounter.processRead(seq);
-            processed.incrementAndGet();
-
-            if ((processed.get()) % 1000000 == 0) {
-                System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
-            }
-
-            /*
-             * final Sequence threadSeq = seq;
-             *
-             * Runnable r = new Runnable() {
-             *
-             * public void run() { //System.err.println("Processing sequence " +
-             * threadSeq.getSeqName() + " in thread " +
-             * Thread.currentThread().getName());
-             * kmerCounter.processSeq(threadSeq);
-             * //System.err.println("Processed count " + processed);
-             * //System.err.println("Outstanding count count " +
-             * outstandingTasks); processed.incrementAndGet();
-             * outstandingTasks.decrementAndGet(); } };
-             *
-             * outstandingTasks.incrementAndGet(); service.submit(r);
-             *
-             * //System.err.println("Submitting " + threadSeq.getSeqName() + ",
-             * outstanding tasks= " + outstandingTasks);
-             *
-             * while (outstandingTasks.get() >= maxTasks);
-             *
-             * if ((processed.get() + 1) % 1000000 == 0) {
-             * System.err.println("Processed " + processed + " sequences in " +
-             * (System.currentTimeMillis() - startTime) + " ms"); }
-             */
-        }
+        int processed = kmerCounter.mapReads(reader, maxThreads, readIdOut);
 
         reader.close();
-
-        //service.shutdown();
-        //service.awaitTermination(1, TimeUnit.DAYS);
+        readIdOut.close();
 
         System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
 
         kmerCounter.printResults(System.out);
-        //System.err.println("Unique kmers in contigs: " + kmerCounter.trie.uniqueWords());
         System.err.println("Processing complete");
     }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.abundance;
+
+import edu.msu.cme.rdp.readseq.readers.Sequence;
+import edu.msu.cme.rdp.readseq.readers.SequenceReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs reads through a set of worker threads.  The calling thread reads the
+ * sequences and hands them out in batches, each worker has its own
+ * accumulator so nothing is shared while mapping, the caller merges the
+ * accumulators once every read is done.
+ *
+ * Reads are numbered in file order, and every read of a batch goes to the
+ * same worker in order, so each accumulator sees increasing ordinals.
+ *
+ * @author fishjord
+ */
+public class ReadMappingEngine {
+
+    public static interface Accumulator {
+
+        public void processRead(int ordinal, Sequence seq);
+    }
+
+    public static interface AccumulatorFactory<A extends Accumulator> {
+
+        public A newAccumulator();
+    }
+
+    private static class Batch {
+
+        final int firstOrdinal;
+        final List<Sequence> seqs;
+
+        Batch(int firstOrdinal, List<Sequence> seqs) {
+            this.firstOrdinal = firstOrdinal;
+            this.seqs = seqs;
+        }
+    }
+    public static final int BATCH_SIZE = 1024;
+    private static final Batch POISON = new Batch(-1, null);
+    private final int threads;
+    private volatile Throwable error = null;
+    private int processed = 0;
+
+    public ReadMappingEngine(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param readIdOut if not null gets a line of ordinal\tseqid for every
+     * read
+     * @return one accumulator per worker
+     */
+    public <A extends Accumulator> List<A> mapReads(SequenceReader reader, AccumulatorFactory<A> factory, PrintStream readIdOut) throws IOException, InterruptedException {
+        final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(threads * 2);
+        processed = 0;
+        List<A> accumulators = new ArrayList();
+        List<Thread> workers = new ArrayList();
+
+        for (int index = 0; index < threads; index++) {
+            final A accumulator = factory.newAccumulator();
+            accumulators.add(accumulator);
+
+            Thread t = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        Batch batch;
+                        while ((batch = queue.take()) != POISON) {
+                            int ordinal = batch.firstOrdinal;
+                            for (Sequence seq : batch.seqs) {
+                                accumulator.processRead(ordinal++, seq);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error = e;
+                    }
+                }
+            }, "read-mapper-" + index);
+            t.start();
+            workers.add(t);
+        }
+
+        long startTime = System.currentTimeMillis();
+        try {
+            List<Sequence> batch = new ArrayList(BATCH_SIZE);
+            int firstOrdinal = 0;
+            Sequence seq;
+
+            while ((seq = reader.readNextSequence()) != null) {
+                if (readIdOut != null) {
+                    readIdOut.println(processed + "\t" + seq.getSeqName());
+                }
+                batch.add(seq);
+                processed++;
+
+                if (batch.size() == BATCH_SIZE) {
+                    put(queue, new Batch(firstOrdinal, batch));
+                    firstOrdinal = processed;
+                    batch = new ArrayList(BATCH_SIZE);
+                }
+
+                if (processed % 1000000 == 0) {
+                    System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                put(queue, new Batch(firstOrdinal, batch));
+            }
+            for (int index = 0; index < threads; index++) {
+                put(queue, POISON);
+            }
+
+            for (Thread t : workers) {
+                t.join();
+            }
+        } finally {
+            for (Thread t : workers) {
+                t.interrupt();
+            }
+        }
+        checkError();
+
+        return accumulators;
+    }
+
+    /**
+     * Doesn't block forever if the workers have died
+     */
+    private void put(BlockingQueue<Batch> queue, Batch batch) throws IOException, InterruptedException {
+        while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+            checkError();
+        }
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw new IOException("Read mapping failed: " + error);
+        }
+    }
+
+    /**
+     * @return number of reads handed out by the last mapReads
+     */
+    public int getProcessed() {
+        return processed;
+    }
+}
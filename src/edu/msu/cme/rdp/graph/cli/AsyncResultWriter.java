@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.cli;
+
+import edu.msu.cme.rdp.graph.search.SearchResult;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes search results (the tab delimited summary plus the nucleotide,
+ * alignment and protein fasta files) on its own thread so formatting and
+ * disk io never hold up the searches.
+ *
+ * Results are queued in a bounded buffer, the writer thread drains them in
+ * batches in to per file byte buffers that are only written out to the file
+ * channels when full and on close.  close() MUST be called to flush the
+ * remaining output.
+ *
+ * @author fishjord
+ */
+public class AsyncResultWriter {
+
+    private static class Entry {
+
+        String seqid;
+        SearchResult result;
+        String line;
+    }
+
+    private static class BufferedChannel {
+
+        private final FileChannel channel;
+        private final ByteBuffer buf;
+
+        public BufferedChannel(FileOutputStream out, int bufferSize) {
+            this.channel = out.getChannel();
+            this.buf = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        public void write(String s) throws IOException {
+            byte[] bytes;
+            try {
+                bytes = s.getBytes("US-ASCII");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buf.hasRemaining()) {
+                    flush();
+                }
+                int len = Math.min(buf.remaining(), bytes.length - offset);
+                buf.put(bytes, offset, len);
+                offset += len;
+            }
+        }
+
+        public void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+    private static final int DEFAULT_QUEUE_SIZE = 4096;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BATCH_SIZE = 256;
+    private static final Entry POISON = new Entry();
+    private final BlockingQueue<Entry> queue;
+    private final boolean protSearch;
+    private final BufferedChannel summaryOut;
+    private final BufferedChannel nuclOut;
+    private final BufferedChannel alignOut;
+    private final BufferedChannel protOut;
+    private final Thread writerThread;
+    private volatile IOException error = null;
+    private boolean closed = false;
+
+    /**
+     * Summary lines go to stdout
+     *
+     * @param protOutFile ignored if not a protein search
+     */
+    public AsyncResultWriter(boolean protSearch, File nuclOutFile, File alignOutFile, File protOutFile) throws IOException {
+        this(protSearch, new FileOutputStream(FileDescriptor.out), nuclOutFile, alignOutFile, protOutFile, DEFAULT_QUEUE_SIZE);
+    }
+
+    public AsyncResultWriter(boolean protSearch, FileOutputStream summaryOut, File nuclOutFile, File alignOutFile, File protOutFile, int queueSize) throws IOException {
+        this.protSearch = protSearch;
+        this.queue = new ArrayBlockingQueue<Entry>(queueSize);
+        this.summaryOut = new BufferedChannel(summaryOut, BUFFER_SIZE);
+        this.nuclOut = new BufferedChannel(new FileOutputStream(nuclOutFile), BUFFER_SIZE);
+        this.alignOut = new BufferedChannel(new FileOutputStream(alignOutFile), BUFFER_SIZE);
+        this.protOut = (protSearch) ? new BufferedChannel(new FileOutputStream(protOutFile), BUFFER_SIZE) : null;
+
+        writerThread = new Thread(new Runnable() {
+
+            public void run() {
+                drain();
+            }
+        }, "result-writer");
+        writerThread.start();
+    }
+
+    /**
+     * Queues a result to be written to the summary and fasta files, blocks
+     * only if the writer has fallen a full queue behind
+     */
+    public void writeResult(String seqid, SearchResult result) throws IOException, InterruptedException {
+        Entry e = new Entry();
+        e.seqid = seqid;
+        e.result = result;
+        put(e);
+    }
+
+    /**
+     * Queues a line (without the newline) for the summary output only
+     */
+    public void writeSummaryLine(String line) throws IOException, InterruptedException {
+        Entry e = new Entry();
+        e.line = line;
+        put(e);
+    }
+
+    private void put(Entry e) throws IOException, InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Writer has been closed");
+        }
+        checkError();
+        queue.put(e);
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList(BATCH_SIZE);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                for (Entry e : batch) {
+                    if (e == POISON) {
+                        return;
+                    }
+                    write(e);
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            error = new IOException("Result writer interrupted");
+        } finally {
+            //If we died make sure nobody blocks forever on a full queue
+            if (error != null) {
+                queue.clear();
+            }
+        }
+    }
+
+    private void write(Entry e) throws IOException {
+        if (e.result == null) {
+            summaryOut.write(e.line + "\n");
+            return;
+        }
+
+        summaryOut.write(HMMBloomSearch.formatResult(e.seqid, protSearch, e.result) + "\n");
+        nuclOut.write(">" + e.seqid + "\n" + e.result.getNuclSeq() + "\n");
+        alignOut.write(">" + e.seqid + "\n" + e.result.getAlignSeq() + "\n");
+        if (protSearch) {
+            protOut.write(">" + e.seqid + "\n" + e.result.getProtSeq() + "\n");
+        }
+    }
+
+    /**
+     * Waits for everything queued to be written, then flushes and closes
+     * all the outputs
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (error == null) {
+                queue.put(POISON);
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            summaryOut.close();
+            nuclOut.close();
+            alignOut.close();
+            if (protSearch) {
+                protOut.close();
+            }
+        } finally {
+            checkError();
+        }
+    }
+}
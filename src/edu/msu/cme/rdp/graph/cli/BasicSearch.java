@@ -18,15 +18,12 @@ package edu.msu.cme.rdp.graph.cli;
 
 import edu.msu.cme.rdp.alignment.hmm.HMMER3bParser;
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.graph.filter.BackTranslationWalker;
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
-import edu.msu.cme.rdp.graph.filter.BloomFilter.GraphState;
 import edu.msu.cme.rdp.graph.search.HMMGraphSearch;
 import edu.msu.cme.rdp.graph.search.SearchResult;
 import edu.msu.cme.rdp.graph.search.SearchTarget;
-import edu.msu.cme.rdp.graph.utils.BackTranslationIterator;
 import edu.msu.cme.rdp.kmer.trie.ModelPositionKmerGenerator;
-import edu.msu.cme.rdp.kmer.set.KmerIterator;
-import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
@@ -50,42 +47,44 @@ public class BasicSearch {
     private final ProfileHMM forHMM, revHMM;
     private final BloomFilter bloom;
     private final HMMGraphSearch searcher;
-    private final GraphState walker;
+    //Protein kmers with more back translations than this can't anchor a walk
+    private static final long MAX_ANCHOR_COMBINATIONS = 1000000;
+    private final BackTranslationWalker walker;
+    //nucl kmer:model position of every seed found so far
+    private final Set<String> seenSeeds = new HashSet();
 
     public BasicSearch(final int maxPaths, final ProfileHMM forHMM, final ProfileHMM revHMM, final BloomFilter bloom) {
         this.forHMM = forHMM;
         this.revHMM = revHMM;
         this.searcher = new HMMGraphSearch(maxPaths);
         this.bloom = bloom;
-        this.walker = bloom.new GraphState();
+        this.walker = new BackTranslationWalker(bloom, MAX_ANCHOR_COMBINATIONS);
     }
 
-    private List<SearchResult> processOneKmer(String queryId, char[] protKmer, int modelPos) throws InterruptedException {
-        byte[] nuclMer;
-        BackTranslationIterator it = new BackTranslationIterator(protKmer);
+    /**
+     * Back translates the reference's protein kmers against the graph, only
+     * nucleotide kmers in the graph are seeds
+     */
+    private List<SearchResult> processReference(String queryId, List<char[]> protMers, List<Integer> modelPositions) throws InterruptedException {
         List<SearchResult> ret = new ArrayList();
-        int considered = 0;
-        int explored = 0;
-	long startTime = System.currentTimeMillis();
 
-        while ((nuclMer = it.next()) != null) {
-            walker.setStateDangerously(nuclMer);
-            considered++;
-            //if (!walker.hasCurrent()) {
-            //    continue;
-            //}
+        List<Set<String>> nuclMers = walker.walk(protMers);
+        for (int index = 0; index < nuclMers.size(); index++) {
+            int modelPos = modelPositions.get(index);
 
-            explored++;
+            for (String nuclMer : nuclMers.get(index)) {
+                if (!seenSeeds.add(nuclMer + ":" + modelPos)) {
+                    continue;
+                }
 
-            /*SearchTarget target = new SearchTarget(forHMM.getName(),
-                    queryId, "?", new String(nuclMer), 0,
-                    modelPos - 1, forHMM, revHMM, bloom);
+                /*SearchTarget target = new SearchTarget(forHMM.getName(),
+                        queryId, "?", nuclMer, 0,
+                        modelPos - 1, forHMM, revHMM, bloom);
 
-	    ret.addAll(searcher.search(target));*/
+                ret.addAll(searcher.search(target));*/
+            }
         }
 
-	//System.err.println(queryId + "\t" + new String(protKmer) + "\t" + modelPos + "\t" + explored + "\t" + considered + "\t" + (System.currentTimeMillis() - startTime));
-
         return ret;
     }
 
@@ -147,14 +146,10 @@ public class BasicSearch {
 
         HMMBloomSearch.printHeader(System.out, isProt);
 
-        Set<Kmer> processed = new HashSet();
-
         SequenceReader reader = new SequenceReader(refFile);
         Sequence seq;
         ModelPositionKmerGenerator iter;
         int ksize = bloom.getKmerSize();
-	Set<String> seenProtMers = new HashSet();
-	String s;
 
         try {
             while ((seq = reader.readNextSequence()) != null) {
@@ -163,26 +158,25 @@ public class BasicSearch {
 		}
 		long seq_time = System.currentTimeMillis();
                 iter = new ModelPositionKmerGenerator(seq.getSeqString(), bloom.getKmerSize() / 3, (isProt ? SequenceType.Protein : SequenceType.Nucleotide));
+                List<char[]> protMers = new ArrayList();
+                List<Integer> modelPositions = new ArrayList();
                 for (char[] protMer : iter) {
-		    s = new String(protMer);
-		    if(seenProtMers.contains(s)) {
-			continue;
-		    }
-		    seenProtMers.add(s);
-		    long t = System.currentTimeMillis();
-                    for (SearchResult result : search.processOneKmer(seq.getSeqName(), protMer, iter.getModelPosition())) {
-                        if(result.getNuclSeq().length() < ksize * 2) {
-                            continue;
-                        }
-                        String seqid = "contig_" + (contigCount++);
-
-                        HMMBloomSearch.printResult(seqid, isProt, result, System.out);
-
-                        nuclOut.writeSeq(seqid, result.getNuclSeq());
-                        alignOut.writeSeq(seqid, result.getAlignSeq());
-                        if (isProt) {
-                            protOut.writeSeq(seqid, result.getProtSeq());
-                        }
+                    protMers.add(protMer.clone());
+                    modelPositions.add(iter.getModelPosition());
+                }
+
+                for (SearchResult result : search.processReference(seq.getSeqName(), protMers, modelPositions)) {
+                    if (result.getNuclSeq().length() < ksize * 2) {
+                        continue;
+                    }
+                    String seqid = "contig_" + (contigCount++);
+
+                    HMMBloomSearch.printResult(seqid, isProt, result, System.out);
+
+                    nuclOut.writeSeq(seqid, result.getNuclSeq());
+                    alignOut.writeSeq(seqid, result.getAlignSeq());
+                    if (isProt) {
+                        protOut.writeSeq(seqid, result.getProtSeq());
                     }
                 }
 		System.err.println("Processed seq " + seq.getSeqName() + " in " + (System.currentTimeMillis() - seq_time) + " ms");
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.cli;
+
+import edu.msu.cme.rdp.alignment.hmm.HMMER3bParser;
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.graph.filter.BackTranslationWalker;
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.filter.CodonCache;
+import edu.msu.cme.rdp.graph.search.HMMGraphSearch;
+import edu.msu.cme.rdp.graph.search.SearchResult;
+import edu.msu.cme.rdp.graph.search.SearchTarget;
+import edu.msu.cme.rdp.graph.search.SeedPlanner;
+import edu.msu.cme.rdp.graph.utils.SeedFile;
+import edu.msu.cme.rdp.kmer.io.KmerStart;
+import edu.msu.cme.rdp.kmer.io.KmerStartsReader;
+import edu.msu.cme.rdp.kmer.trie.ModelPositionKmerGenerator;
+import edu.msu.cme.rdp.readseq.SequenceType;
+import edu.msu.cme.rdp.readseq.readers.Sequence;
+import edu.msu.cme.rdp.readseq.readers.SequenceReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches the starting kmers for several genes against one bloom filter,
+ * the filter is only loaded once and the seeds from every gene share the
+ * same thread pool.
+ *
+ * The manifest has one gene per line (# starts a comment):
+ *
+ * gene_name  for_hmm  rev_hmm  kmers
+ *
+ * kmers is a KmerStartsFromKnown starts file, either text or a binary seed
+ * file.  ProteinSeedSearch runs a gene seeded from reference proteins
+ * instead.
+ *
+ * Each gene's output goes to &lt;gene_name&gt;_nucl.fasta,
+ * &lt;gene_name&gt;_prot.fasta, &lt;gene_name&gt;.alignment,
+ * &lt;gene_name&gt;_search.txt (what TimeLimitedSearch writes to stdout) and
+ * &lt;gene_name&gt;_search_stats.txt
+ *
+ * @author fishjord
+ */
+public class BatchSearch {
+
+    static class GeneSearch {
+
+        final String geneName;
+        final File kmersFile;
+        //kmersFile is a protein reference file instead of starting kmers
+        final boolean proteinRefs;
+        final ProfileHMM forHMM;
+        final ProfileHMM revHMM;
+        final boolean isProt;
+        final SeedPlanner planner;
+        final AsyncResultWriter resultOut;
+        final SearchStatsWriter statsOut;
+        /*
+         * HMMGraphSearch caches paths by node, which is only valid for one
+         * hmm, so every gene needs its own searcher in each thread
+         */
+        final ThreadLocal<HMMGraphSearch> search;
+        int kmerCount = 0;
+        int contigCount = 1;
+
+        GeneSearch(String geneName, File forHMMFile, File revHMMFile, File kmersFile, boolean proteinRefs, boolean normalized, BloomFilter bloom, final int k, final CodonCache leftCodonCache, final CodonCache rightCodonCache) throws IOException {
+            this.geneName = geneName;
+            this.kmersFile = kmersFile;
+            this.proteinRefs = proteinRefs;
+
+            if (normalized) {
+                forHMM = HMMER3bParser.readModel(forHMMFile);
+                revHMM = HMMER3bParser.readModel(revHMMFile);
+            } else {
+                forHMM = HMMER3bParser.readUnnormalized(forHMMFile);
+                revHMM = HMMER3bParser.readUnnormalized(revHMMFile);
+            }
+            isProt = forHMM.getAlphabet() == SequenceType.Protein;
+
+            planner = new SeedPlanner(bloom.getKmerSize());
+            planner.limitComplexityFromProperties(bloom);
+            resultOut = new AsyncResultWriter(isProt, new FileOutputStream(geneName + "_search.txt"), new File(geneName + "_nucl.fasta"), new File(geneName + ".alignment"), new File(geneName + "_prot.fasta"), 1024);
+            statsOut = new SearchStatsWriter(new File(geneName + "_search_stats.txt"));
+
+            search = new ThreadLocal<HMMGraphSearch>() {
+
+                @Override
+                protected HMMGraphSearch initialValue() {
+                    return new HMMGraphSearch(k, leftCodonCache, rightCodonCache);
+                }
+            };
+        }
+
+        void close() throws IOException {
+            resultOut.close();
+            statsOut.close();
+        }
+    }
+
+    private static class SeedSearch extends StatsReportingSearch {
+
+        private final GeneSearch gene;
+
+        public SeedSearch(GeneSearch gene, SearchTarget target) {
+            super(target, gene.statsOut);
+            this.gene = gene;
+        }
+
+        protected List<SearchResult> search() throws Exception {
+            if (gene.planner.isCovered(target.getKmer())) {
+                return new ArrayList();
+            }
+
+            List<SearchResult> ret = gene.search.get().search(target, stats);
+            gene.planner.addContigs(ret);
+            return ret;
+        }
+    }
+
+    /**
+     * Writes each finished search to its gene's output
+     */
+    private static class ResultCollector implements SeedSearchQueue.Collector<SeedSearch> {
+
+        public void searchDone(SeedSearch search, List<SearchResult> results) throws IOException {
+            if (results == null) {
+                return;
+            }
+
+            GeneSearch gene = search.gene;
+            for (SearchResult result : results) {
+                gene.resultOut.writeResult("contig_" + (gene.contigCount++), result);
+            }
+        }
+
+        public void searchFailed(SeedSearch search, boolean timedOut) throws IOException {
+            GeneSearch gene = search.gene;
+            gene.resultOut.writeSummaryLine("-\t" + search.getTarget().getKmer() + (gene.isProt ? "\t-" : "") + "\t-\t-\t-\t-");
+        }
+    }
+
+    /**
+     * A gene's starting kmers, model positions as written by
+     * KmerStartsFromKnown
+     */
+    private static interface SeedSource {
+
+        /**
+         * @return the next seed or null if there are no more
+         */
+        public KmerStart next() throws IOException;
+
+        public void close() throws IOException;
+    }
+
+    private static class StartsFileSeeds implements SeedSource {
+
+        private final KmerStartsReader reader;
+
+        StartsFileSeeds(File f) throws IOException {
+            reader = new KmerStartsReader(f);
+        }
+
+        public KmerStart next() throws IOException {
+            return reader.readNext();
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class SeedFileSeeds implements SeedSource {
+
+        private final SeedFile.Reader reader;
+
+        SeedFileSeeds(File f) throws IOException {
+            reader = new SeedFile.Reader(f);
+        }
+
+        public KmerStart next() throws IOException {
+            return reader.readNextStart();
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Seeds made on the fly by back translating aligned reference proteins
+     * against the graph, one reference at a time
+     */
+    private static class ProteinRefSeeds implements SeedSource {
+
+        //Protein kmers with more back translations than this can't anchor a walk
+        private static final long MAX_ANCHOR_COMBINATIONS = 1000000;
+        private final String geneName;
+        private final SequenceReader reader;
+        private final BackTranslationWalker walker;
+        private final int protK;
+        private final LinkedList<KmerStart> pending = new LinkedList();
+
+        ProteinRefSeeds(String geneName, File f, BloomFilter bloom) throws IOException {
+            this.geneName = geneName;
+            reader = new SequenceReader(f);
+            walker = new BackTranslationWalker(bloom, MAX_ANCHOR_COMBINATIONS);
+            protK = bloom.getKmerSize() / 3;
+        }
+
+        public KmerStart next() throws IOException {
+            Sequence seq;
+            while (pending.isEmpty() && (seq = reader.readNextSequence()) != null) {
+                if (seq.getSeqName().startsWith("#")) {
+                    continue;
+                }
+
+                ModelPositionKmerGenerator kmers = new ModelPositionKmerGenerator(seq.getSeqString(), protK, SequenceType.Protein);
+                List<char[]> protMers = new ArrayList();
+                List<Integer> modelPositions = new ArrayList();
+                for (char[] protMer : kmers) {
+                    protMers.add(protMer.clone());
+                    modelPositions.add(kmers.getModelPosition());
+                }
+
+                List<Set<String>> nuclMers = walker.walk(protMers);
+                for (int index = 0; index < nuclMers.size(); index++) {
+                    for (String nuclMer : nuclMers.get(index)) {
+                        pending.add(new KmerStart(geneName, seq.getSeqName(), seq.getSeqName(), nuclMer, 1, modelPositions.get(index), true, new String(protMers.get(index))));
+                    }
+                }
+            }
+
+            return pending.poll();
+        }
+
+        public void close() throws IOException {
+            reader.close();
+            System.err.println(geneName + ": back translation hashed " + walker.getAnchorCandidates() + " anchor kmers, skipped " + walker.getSkippedRuns() + " runs without an anchor");
+        }
+    }
+
+    private static SeedSource openSeeds(GeneSearch gene, BloomFilter bloom) throws IOException {
+        if (gene.proteinRefs) {
+            return new ProteinRefSeeds(gene.geneName, gene.kmersFile, bloom);
+        } else if (SeedFile.isSeedFile(gene.kmersFile)) {
+            return new SeedFileSeeds(gene.kmersFile);
+        }
+        return new StartsFileSeeds(gene.kmersFile);
+    }
+
+    private static List<GeneSearch> readManifest(File manifest, boolean normalized, BloomFilter bloom, int k, CodonCache leftCodonCache, CodonCache rightCodonCache) throws IOException {
+        List<GeneSearch> ret = new ArrayList();
+        BufferedReader reader = new BufferedReader(new FileReader(manifest));
+        String line;
+
+        try {
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.equals("") || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] lexemes = line.split("\\s+");
+                if (lexemes.length != 4) {
+                    throw new IOException("Expected gene_name, for_hmm, rev_hmm and kmers in manifest line: " + line);
+                }
+
+                ret.add(new GeneSearch(lexemes[0], new File(lexemes[1]), new File(lexemes[2]), new File(lexemes[3]), false, normalized, bloom, k, leftCodonCache, rightCodonCache));
+            }
+        } finally {
+            reader.close();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Searches every gene's seeds on a shared thread pool, genes one after
+     * the other, then closes the genes' output
+     */
+    static void searchGenes(List<GeneSearch> genes, BloomFilter bloom, int threads, long timeLimit, CodonCache leftCodonCache, CodonCache rightCodonCache) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        //A few searches per thread, so contigs from earlier seeds reach the planners before later seeds start
+        SeedSearchQueue<SeedSearch> queue = new SeedSearchQueue<SeedSearch>(executor, threads * 2, timeLimit, new ResultCollector());
+        long startTime = System.currentTimeMillis();
+
+        try {
+            for (GeneSearch gene : genes) {
+                gene.resultOut.writeSummaryLine(HMMBloomSearch.getHeader(gene.isProt));
+                gene.statsOut.printHeader();
+            }
+
+            for (GeneSearch gene : genes) {
+                SeedSource seeds = openSeeds(gene, bloom);
+                KmerStart line;
+
+                try {
+                    while ((line = seeds.next()) != null) {
+                        gene.kmerCount++;
+
+                        if (line.getMpos() == 0) {
+                            System.err.println("Skipping line " + line);
+                            continue;
+                        }
+
+                        if (!gene.planner.offer(line.getNuclKmer(), line.getMpos())) {
+                            continue;
+                        }
+
+                        queue.submit(new SeedSearch(gene,
+                                new SearchTarget(line.getGeneName(),
+                                line.getQueryId(), line.getRefId(), line.getNuclKmer(), 0,
+                                line.getMpos() - 1, gene.forHMM, gene.revHMM, bloom)));
+                    }
+                } finally {
+                    seeds.close();
+                }
+            }
+
+            queue.finish();
+
+            executor.shutdown();
+            System.err.println("Awaiting thread temination");
+            executor.awaitTermination(1, TimeUnit.DAYS);
+
+            for (GeneSearch gene : genes) {
+                System.err.println(gene.geneName + ": read in " + gene.kmerCount + " kmers and created " + (gene.contigCount - 1) + " contigs, skipped "
+                        + gene.planner.getDuplicates() + " duplicate kmers and " + gene.planner.getCovered() + " kmers already in a contig and " + gene.planner.getComplex() + " too complex to search");
+            }
+            System.err.println("Searched " + genes.size() + " genes in " + (System.currentTimeMillis() - startTime) / 1000f + " seconds");
+            System.err.println("Codon cache hit rate left: " + leftCodonCache.getHitRate() + ", right: " + rightCodonCache.getHitRate());
+        } finally {
+            //Canceled searches may still be winding down, give them a chance to write their stats
+            executor.shutdownNow();
+            executor.awaitTermination(timeLimit, TimeUnit.MILLISECONDS);
+            for (GeneSearch gene : genes) {
+                gene.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean normalized = true;
+        if (args.length > 0 && args[0].equals("-u")) {
+            normalized = false;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        if (args.length != 4 && args.length != 5) {
+            System.err.println("USAGE: BatchSearch [-u] <k> <limit_in_seconds> <bloom_filter> <manifest> [threads=#processors]");
+            System.err.println("\tmanifest lines: <gene_name> <for_hmm> <rev_hmm> <kmers>");
+            System.exit(1);
+        }
+
+        int k = Integer.valueOf(args[0]);
+        long timeLimit = Long.valueOf(args[1]) * 1000;
+        File bloomFile = new File(args[2]);
+        File manifestFile = new File(args[3]);
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        if (args.length == 5) {
+            threads = Integer.valueOf(args[4]);
+        }
+
+        long startTime = System.currentTimeMillis();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
+        System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        //Codon caches only depend on the bloom filter so every gene can share them
+        CodonCache leftCodonCache = new CodonCache(HMMGraphSearch.DEFAULT_CODON_CACHE_SIZE_LOG2);
+        CodonCache rightCodonCache = new CodonCache(HMMGraphSearch.DEFAULT_CODON_CACHE_SIZE_LOG2);
+        List<GeneSearch> genes = readManifest(manifestFile, normalized, bloom, k, leftCodonCache, rightCodonCache);
+
+        System.err.println("Starting hmmgs batch search at " + new Date());
+        System.err.println("*  Number of threads:       " + threads);
+        System.err.println("*  Manifest file:           " + manifestFile);
+        System.err.println("*  Bloom file:              " + bloomFile);
+        System.err.println("*  # paths:                 " + k);
+        for (GeneSearch gene : genes) {
+            System.err.println("*  Gene:                    " + gene.geneName + " (kmers= " + gene.kmersFile + ", prot= " + gene.isProt + ")");
+        }
+        if (!genes.isEmpty() && genes.get(0).planner.getComplexityLimit() != null) {
+            System.err.println("*  Seed complexity limit:   " + genes.get(0).planner.getComplexityLimit());
+        }
+
+        searchGenes(genes, bloom, threads, timeLimit, leftCodonCache, rightCodonCache);
+    }
+}
@@ -17,14 +17,11 @@
 package edu.msu.cme.rdp.graph.cli;
 
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
-import edu.msu.cme.rdp.graph.filter.CodonWalker;
+import edu.msu.cme.rdp.graph.filter.GraphProfiler;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 /**
  *
@@ -32,114 +29,69 @@ import java.util.List;
  */
 public class ComplexityExaminer {
 
-    private final BloomFilter bloom;
-    private final int maxDepth;
-    private final long[] nodesAtDepth;
-    private final long[] branchesAtDepth;
-    private final long[][] nuclAtDepth;
-    private long totalPaths;
-    private long totalPathLengths;
-    private long totalNodes;
-    private long time;
+    private final GraphProfiler profiler;
+    private final GraphProfiler.Profile profile;
 
-    public ComplexityExaminer(File bloomFile, int maxNuclDepth) throws IOException {
-        bloom = BloomFilter.fromFile(bloomFile);
-        maxDepth = maxNuclDepth;
-        nodesAtDepth = new long[maxDepth];
-        branchesAtDepth = new long[maxDepth];
-        nuclAtDepth = new long[maxDepth][4];
+    public ComplexityExaminer(File bloomFile, int maxNuclDepth, int threads) throws IOException {
+        profiler = new GraphProfiler(BloomFilter.fromFile(bloomFile), 1, threads);
+        profile = new GraphProfiler.Profile(maxNuclDepth);
     }
 
-    public void examine(String kmer) {
+    public void examine(String kmer) throws InterruptedException {
         System.out.print(kmer + " left ");
         long startTime = System.currentTimeMillis();
-        examine(bloom.new LeftCodonFacade(kmer));
+        profiler.profile(kmer.toCharArray(), false, profile);
         System.out.println((System.currentTimeMillis() - startTime) / 1000.0 + "s");
         printDetails();
 
         System.out.print(kmer + " right");
         startTime = System.currentTimeMillis();
-        examine(bloom.new RightCodonFacade(kmer));
+        profiler.profile(kmer.toCharArray(), true, profile);
         System.out.println((System.currentTimeMillis() - startTime) / 1000.0 + "s");
         printDetails();
     }
 
     private void printDetails() {
-        long totalNodes = 0;
-        long totalBranches = 0;
         StringBuilder nodeDepth = new StringBuilder();
         StringBuilder branchDepth = new StringBuilder();
+        StringBuilder deadEndDepth = new StringBuilder();
 
-        for(int index = 0;index < maxDepth;index++) {
-            nodeDepth.append(nodesAtDepth[index]).append("\t");
-            branchDepth.append((float)branchesAtDepth[index] / nodesAtDepth[index]).append("\t");
-
-            totalNodes += nodesAtDepth[index];
-            totalBranches += branchesAtDepth[index];
+        for (int index = 0; index < profile.getDepthsDone(); index++) {
+            nodeDepth.append(profile.getNodesAtDepth(index)).append("\t");
+            branchDepth.append((float) profile.getBranchingFactor(index)).append("\t");
+            deadEndDepth.append(profile.getDeadEndsAtDepth(index)).append("\t");
         }
 
-        System.out.println("Total nodes:\t" + totalNodes);
-        System.out.println("Total Branches:\t" + totalBranches);
-        System.out.println("Total paths:\t" + totalPaths);
-        System.out.println("Total path length:\t" + totalPathLengths);
+        System.out.println("Total nodes:\t" + profile.getTotalNodes());
+        System.out.println("Total Branches:\t" + profile.getTotalBranches());
+        System.out.println("Total dead ends:\t" + profile.getTotalDeadEnds());
+        System.out.println("Total revisits:\t" + profile.getTotalRevisits());
+        System.out.println("Depths explored:\t" + profile.getDepthsDone());
         System.out.println();
-        System.out.println("Average branching factor:\t" + (double)totalBranches / totalNodes);
-        System.out.println("Average path length:\t" + (double)totalPathLengths / totalPaths);
+        System.out.println("Average branching factor:\t" + (double) profile.getTotalBranches() / profile.getTotalNodes());
         System.out.println("Nodes at depth:\t" + nodeDepth);
         System.out.println("Branches at depth:\t" + branchDepth);
-
-    }
-
-    private void reset() {
-        Arrays.fill(nodesAtDepth, 0);
-        Arrays.fill(branchesAtDepth, 0);
-        for (int index = 0; index < maxDepth; index++) {
-            Arrays.fill(nuclAtDepth[index], 0);
-        }
-        totalPaths = 0;
-        totalPathLengths = 0;
-        totalNodes = 0;
-        time = System.currentTimeMillis();
-    }
-
-    private void examine(CodonWalker walker) {
-        reset();
-        dfs(walker, 0);
+        System.out.println("Dead ends at depth:\t" + deadEndDepth);
     }
 
-    private void dfs(CodonWalker walker, int depth) {
-        Byte b = walker.getNextNucl();
-        if (depth >= maxDepth || b == null) {
-            totalPaths++;
-            totalPathLengths += depth;
-            return;
-        }
-
-        totalNodes++;
-        nodesAtDepth[depth]++;
-
-        if(totalNodes % 1000000 == 0) {
-            System.err.println("Processed " + totalNodes + " nodes in " + (System.currentTimeMillis() - time) / 1000.0 + "s");
-        }
-
-        do {
-            branchesAtDepth[depth]++;
-            nuclAtDepth[depth][b]++;
-
-            dfs(walker, depth + 1);
-        } while ((b = walker.getSibNucl()) != null);
+    public void shutdown() {
+        profiler.shutdown();
     }
 
-    public static void main(String[] args) throws IOException {
-        if (args.length != 3) {
-            System.err.println("USAGE: ComplexityExaminer <bloom_filter> <kmer_file> <max depth>");
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("USAGE: ComplexityExaminer <bloom_filter> <kmer_file> <max depth> [#threads]");
             System.exit(1);
         }
         File bloomFile = new File(args[0]);
         Integer maxDepth = Integer.valueOf(args[2]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 4) {
+            threads = Integer.valueOf(args[3]);
+        }
         String line;
 
-        final ComplexityExaminer examiner = new ComplexityExaminer(bloomFile, maxDepth);
+        final ComplexityExaminer examiner = new ComplexityExaminer(bloomFile, maxDepth, threads);
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
                 System.err.println("----JAVA SHUTDOWN----");
@@ -148,13 +100,17 @@ public class ComplexityExaminer {
         });
 
         BufferedReader reader = new BufferedReader(new FileReader(args[1]));
-        while((line = reader.readLine()) != null) {
-            line = line.trim();
-            if(line.isEmpty()) {
-                continue;
+        try {
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                examiner.examine(line);
             }
-            examiner.examine(line);
+        } finally {
+            reader.close();
+            examiner.shutdown();
         }
-        reader.close();
     }
 }
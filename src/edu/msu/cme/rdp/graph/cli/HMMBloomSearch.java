@@ -26,15 +26,35 @@ import java.text.DecimalFormat;
  */
 public class HMMBloomSearch {
 
-    private static final DecimalFormat format = new DecimalFormat("#.##");
-    private static final DecimalFormat threeDig = new DecimalFormat("#.###");
+    /**
+     * DecimalFormat isn't thread safe and results are formatted on several
+     * writer threads at once, so each thread gets its own
+     */
+    private static final ThreadLocal<DecimalFormat> format = new ThreadLocal<DecimalFormat>() {
+
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("#.##");
+        }
+    };
+    private static final ThreadLocal<DecimalFormat> threeDig = new ThreadLocal<DecimalFormat>() {
+
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("#.###");
+        }
+    };
 
     public static void printHeader(PrintStream out) {
         printHeader(out, false);
     }
 
     public static void printHeader(PrintStream out, boolean protSearch) {
-        out.println("#contig_id\tgene_name\tquery_id\trefseq_id\tstarting kmer\tstarting state\tnucl length" + (protSearch ? "\tprot length" : "") + "\tsearch direction\tnats\tbits\ttime (s)");
+        out.println(getHeader(protSearch));
+    }
+
+    public static String getHeader(boolean protSearch) {
+        return "#contig_id\tgene_name\tquery_id\trefseq_id\tstarting kmer\tstarting state\tnucl length" + (protSearch ? "\tprot length" : "") + "\tsearch direction\tnats\tbits\ttime (s)";
     }
 
     public static void printResult(String seqid, SearchResult result, PrintStream out) {
@@ -42,8 +62,11 @@ public class HMMBloomSearch {
     }
 
     public static void printResult(String seqid, boolean protSearch, SearchResult result, PrintStream out) {
-        System.out.println(
-                seqid + "\t"
+        out.println(formatResult(seqid, protSearch, result));
+    }
+
+    public static String formatResult(String seqid, boolean protSearch, SearchResult result) {
+        return seqid + "\t"
                 + result.getStart().getGeneName() + "\t"
                 + result.getStart().getQuerySeqid() + "\t"
                 + result.getStart().getRefSeqid() + "\t"
@@ -52,8 +75,8 @@ public class HMMBloomSearch {
                 + result.getNuclSeq().length() + "\t"
                 + (protSearch ? result.getProtSeq().length() + "\t" : "")
                 + result.getSearchDirection() + "\t"
-                + ((Double.isInfinite(result.getNats()) || Double.isNaN(result.getNats()))? "?" : threeDig.format(result.getNats())) + "\t"
-                + format.format(result.getBits()) + "\t"
-                + threeDig.format(result.getTime()  / 1000.0f));
+                + ((Double.isInfinite(result.getNats()) || Double.isNaN(result.getNats()))? "?" : threeDig.get().format(result.getNats())) + "\t"
+                + format.get().format(result.getBits()) + "\t"
+                + threeDig.get().format(result.getTime()  / 1000.0f);
     }
 }
@@ -38,7 +38,8 @@ public class HMMgsMain {
         System.err.println("USAGE: HMMgs <command> <options>");
         System.err.println("\tbuild       - Build a bloom filter");
         System.err.println("\tstats       - Display bloom filter stats");
-        System.err.println("\tsearch      - Search a bloom filter with an hmm");
+        System.err.println("\tsearch      - Search a bloom filter with an hmm (-b <manifest> for many genes)");
+        System.err.println("\tprotsearch  - Search a bloom filter seeded from aligned reference proteins");
         System.err.println("\tmerge       - Merge HMMgs left and right fragments");
         System.err.println("\tlicense     - Print the license");
         System.exit(1);
@@ -59,7 +60,13 @@ public class HMMgsMain {
         } else if (cmd.equals("stats")) {
             BloomFilterStats.main(args);
         } else if (cmd.equals("search")) {
-            TimeLimitedSearch.main(args);
+            if (args.length > 0 && args[0].equals("-b")) {
+                BatchSearch.main(Arrays.copyOfRange(args, 1, args.length));
+            } else {
+                TimeLimitedSearch.main(args);
+            }
+        } else if (cmd.equals("protsearch")) {
+            ProteinSeedSearch.main(args);
         } else if (cmd.equals("basic")) {
             BasicSearch.main(args);
         } else if (cmd.equals("merge")) {
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.cli;
+
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.filter.CodonCache;
+import edu.msu.cme.rdp.graph.search.HMMGraphSearch;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Searches a gene straight from its aligned reference proteins, no starting
+ * kmer file needed.  The reference proteins' kmers are back translated
+ * against the bloom filter (see BackTranslationWalker), every nucleotide kmer
+ * in the graph is a seed, and the seeds are searched like BatchSearch does.
+ *
+ * Output goes to the same files as a BatchSearch gene, named after the
+ * reference file (or name= in front of it).
+ *
+ * @author fishjord
+ */
+public class ProteinSeedSearch {
+
+    public static void main(String[] args) throws Exception {
+        boolean normalized = true;
+        if (args.length > 0 && args[0].equals("-u")) {
+            normalized = false;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        if (args.length != 6 && args.length != 7) {
+            System.err.println("USAGE: ProteinSeedSearch [-u] <k> <limit_in_seconds> <bloom_filter> <for_hmm> <rev_hmm> [name=]<ref_prot_file> [threads=#processors]");
+            System.exit(1);
+        }
+
+        int k = Integer.valueOf(args[0]);
+        long timeLimit = Long.valueOf(args[1]) * 1000;
+        File bloomFile = new File(args[2]);
+        File forHMMFile = new File(args[3]);
+        File revHMMFile = new File(args[4]);
+        String geneName;
+        File refFile;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        if (args[5].contains("=")) {
+            String[] lexemes = args[5].split("=");
+            geneName = lexemes[0];
+            refFile = new File(lexemes[1]);
+        } else {
+            refFile = new File(args[5]);
+            geneName = refFile.getName();
+            if (geneName.contains(".")) {
+                geneName = geneName.substring(0, geneName.lastIndexOf("."));
+            }
+        }
+
+        if (args.length == 7) {
+            threads = Integer.valueOf(args[6]);
+        }
+
+        long startTime = System.currentTimeMillis();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
+        System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        if (bloom.getKmerSize() % 3 != 0) {
+            System.err.println("Protein seeds need a bloom filter kmer size that's a multiple of 3, not " + bloom.getKmerSize());
+            System.exit(1);
+        }
+
+        CodonCache leftCodonCache = new CodonCache(HMMGraphSearch.DEFAULT_CODON_CACHE_SIZE_LOG2);
+        CodonCache rightCodonCache = new CodonCache(HMMGraphSearch.DEFAULT_CODON_CACHE_SIZE_LOG2);
+        BatchSearch.GeneSearch gene = new BatchSearch.GeneSearch(geneName, forHMMFile, revHMMFile, refFile, true, normalized, bloom, k, leftCodonCache, rightCodonCache);
+
+        if (!gene.isProt) {
+            gene.close();
+            System.err.println("Protein seeds need a protein hmm, " + forHMMFile + " isn't one");
+            System.exit(1);
+        }
+
+        System.err.println("Starting hmmgs protein seeded search at " + new Date());
+        System.err.println("*  Number of threads:       " + threads);
+        System.err.println("*  Reference proteins:      " + refFile);
+        System.err.println("*  Bloom file:              " + bloomFile);
+        System.err.println("*  Forward hmm file:        " + forHMMFile);
+        System.err.println("*  Reverse hmm file:        " + revHMMFile);
+        System.err.println("*  # paths:                 " + k);
+        if (gene.planner.getComplexityLimit() != null) {
+            System.err.println("*  Seed complexity limit:   " + gene.planner.getComplexityLimit());
+        }
+
+        BatchSearch.searchGenes(Arrays.asList(gene), bloom, threads, timeLimit, leftCodonCache, rightCodonCache);
+    }
+}
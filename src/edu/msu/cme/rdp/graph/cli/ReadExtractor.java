@@ -16,135 +16,247 @@
  */
 package edu.msu.cme.rdp.graph.cli;
 
-import edu.msu.cme.rdp.kmer.Kmer;
-import edu.msu.cme.rdp.kmer.set.KmerIterator;
+import edu.msu.cme.rdp.graph.abundance.CanonicalKmerSet;
+import edu.msu.cme.rdp.graph.abundance.ExactKmerSet;
+import edu.msu.cme.rdp.graph.abundance.KmerBloomFilter;
+import edu.msu.cme.rdp.graph.abundance.KmerScanner;
+import edu.msu.cme.rdp.graph.search.PackedKmer;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.utils.IUBUtilities;
 import edu.msu.cme.rdp.readseq.writers.FastaWriter;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
 
 /**
+ * Writes out the reads sharing a kmer with the contigs.  A read with a kmer
+ * on a contig's forward strand is written as is, otherwise a read with a
+ * reverse complement kmer on a contig's forward strand is written reverse
+ * complemented (with _rc appended to the name).
+ *
+ * Contig kmers go in to an exact canonical kmer set, or a Bloom filter for
+ * contig sets too big to hold exactly.  Each read is scanned once, one lookup
+ * per kmer answers for both strands.  Reads are processed in batches on
+ * worker threads and written in input order.
  *
  * @author fishjord
  */
 public class ReadExtractor {
 
+    private static final int BATCH_SIZE = 1024;
     private final int k;
-    private final Set<Kmer> kmerSet;
+    private final CanonicalKmerSet kmerSet;
     private int processedSeqs = 0;
     private int writtenSeqs = 0;
 
-
-    public ReadExtractor(File contigFile, int k) throws IOException {
+    /**
+     * @param bloomFpr false positive rate for a Bloom filter, 0 to keep the
+     * contig kmers exactly
+     */
+    public ReadExtractor(File contigFile, int k, double bloomFpr) throws IOException {
         this.k = k;
 
-        List<Sequence> contigSeqs = SequenceReader.readFully(contigFile);
+        if (bloomFpr > 0) {
+            kmerSet = new KmerBloomFilter(countKmers(contigFile, k), bloomFpr);
+        } else {
+            kmerSet = new ExactKmerSet();
+        }
 
-        kmerSet = new HashSet();
+        KmerScanner scanner = new KmerScanner(k);
+        SequenceReader reader = new SequenceReader(contigFile);
+        Sequence seq;
+        while ((seq = reader.readNextSequence()) != null) {
+            scanner.reset(seq.getSeqString());
+            while (scanner.next()) {
+                kmerSet.add(scanner);
+            }
+        }
+        reader.close();
+    }
 
+    /**
+     * @return number of kmer positions in the contigs, an upper bound on the
+     * distinct kmers
+     */
+    private static long countKmers(File contigFile, int k) throws IOException {
+        SequenceReader reader = new SequenceReader(contigFile);
+        long ret = 0;
         Sequence seq;
-        for (int index = 0; index < contigSeqs.size(); index++) {
-            seq = contigSeqs.get(index);
-            String seqstr = seq.getSeqString();
-            addKmers(seqstr, index);
+        while ((seq = reader.readNextSequence()) != null) {
+            ret += Math.max(0, seq.getSeqString().length() - k + 1);
         }
+        reader.close();
+
+        return ret;
     }
 
-    private void addKmers(String seqString, int contigIndex) {
-        KmerIterator kmerGen = new KmerIterator(seqString, k);
-        Kmer val;
+    /**
+     * @return the read as it should be written, or null if it doesn't share a
+     * kmer with the contigs
+     */
+    private Sequence extract(Sequence seq, KmerScanner scanner) {
+        boolean rcMatch = false;
+
+        scanner.reset(seq.getSeqString());
+        while (scanner.next()) {
+            byte strands = kmerSet.getStrands(scanner);
+            if (strands == 0) {
+                continue;
+            }
 
-        while (kmerGen.hasNext()) {
-            val = kmerGen.next();
-            kmerSet.add(val);
+            if ((strands & scanner.getStrand()) != 0) {
+                return seq;
+            }
+            rcMatch = true;
         }
-    }
 
-    private void processRead(Sequence seq, FastaWriter out) throws IOException {
-        if(seq.getSeqString().length() < k) {
-            return;
+        if (rcMatch) {
+            return new Sequence(seq.getSeqName() + "_rc", "", IUBUtilities.reverseComplement(seq.getSeqString()));
         }
 
-        if(checkSeqForKnownKmers(seq.getSeqString())) {
+        return null;
+    }
+
+    private Future<List<Sequence>> submit(final List<Sequence> batch, ExecutorService executor) {
+        return executor.submit(new Callable<List<Sequence>>() {
+
+            public List<Sequence> call() {
+                KmerScanner scanner = new KmerScanner(k);
+                List<Sequence> ret = new ArrayList();
+                for (Sequence seq : batch) {
+                    Sequence extracted = extract(seq, scanner);
+                    if (extracted != null) {
+                        ret.add(extracted);
+                    }
+                }
+
+                return ret;
+            }
+        });
+    }
+
+    private void write(Future<List<Sequence>> result, FastaWriter out) throws IOException, InterruptedException, ExecutionException {
+        for (Sequence seq : result.get()) {
             out.writeSeq(seq);
             writtenSeqs++;
-        } else {
-            String rc = IUBUtilities.reverseComplement(seq.getSeqString());
-            if(checkSeqForKnownKmers(rc)) {
-                out.writeSeq(seq.getSeqName() + "_rc", rc);
-                writtenSeqs++;
-            }
         }
-        processedSeqs++;
     }
 
-    private boolean checkSeqForKnownKmers(String seqString) {
-        KmerIterator kmerGen = new KmerIterator(seqString, k);
-        Kmer val;
-        Set<String> kmers;
+    /**
+     * Extracts the matching reads, keeping at most 2 batches per thread in
+     * flight
+     */
+    public void extractReads(SequenceReader reader, FastaWriter out, int threads) throws IOException, InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<List<Sequence>>> pending = new LinkedList();
+
+        try {
+            List<Sequence> batch = new ArrayList(BATCH_SIZE);
+            Sequence seq;
 
-        while (kmerGen.hasNext()) {
-            val = kmerGen.next();
+            while ((seq = reader.readNextSequence()) != null) {
+                batch.add(seq);
+                processedSeqs++;
 
-            if (kmerSet.contains(val)) {
-                return true;
+                if (batch.size() == BATCH_SIZE) {
+                    pending.add(submit(batch, executor));
+                    batch = new ArrayList(BATCH_SIZE);
+
+                    if (pending.size() > threads * 2) {
+                        write(pending.removeFirst(), out);
+                    }
+                }
             }
-        }
 
-        return false;
+            if (!batch.isEmpty()) {
+                pending.add(submit(batch, executor));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.removeFirst(), out);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     public static void main(String[] args) throws Exception {
-        if (args.length != 3 && args.length != 4) {
-            System.err.println("USAGE: ReadKmerMapper <nucl_contig_file> <reads_file> <k> [#threads]");
-            System.exit(1);
-        }
-
-        final File nuclContigs = new File(args[0]);
-        final File readsFile = new File(args[1]);
-        final int k = Integer.valueOf(args[2]);
+        final Options options = new Options();
+        final double bloomFpr;
+        final File nuclContigs;
+        final File readsFile;
+        final int k;
         final int maxThreads;
-        final int maxTasks = 25000;
 
-        if (args.length == 4) {
-            maxThreads = Integer.valueOf(args[3]);
-        } else {
-            maxThreads = Runtime.getRuntime().availableProcessors();
+        options.addOption("b", "bloom-fpr", true, "Keep the contig kmers in a Bloom filter with this false positive rate instead of an exact set");
+
+        try {
+            CommandLine line = new PosixParser().parse(options, args);
+
+            if (line.hasOption("bloom-fpr")) {
+                bloomFpr = Double.valueOf(line.getOptionValue("bloom-fpr"));
+                if (bloomFpr <= 0 || bloomFpr >= 1) {
+                    throw new Exception("Bloom filter false positive rate must be between 0 and 1");
+                }
+            } else {
+                bloomFpr = 0;
+            }
+
+            args = line.getArgs();
+
+            if (args.length != 3 && args.length != 4) {
+                throw new Exception("Unexpected number of arguments");
+            }
+
+            nuclContigs = new File(args[0]);
+            readsFile = new File(args[1]);
+            k = Integer.valueOf(args[2]);
+            if (k < 1 || k > PackedKmer.MAX_K) {
+                throw new Exception("k must be between 1 and " + PackedKmer.MAX_K);
+            }
+
+            if (args.length == 4) {
+                maxThreads = Integer.valueOf(args[3]);
+            } else {
+                maxThreads = Runtime.getRuntime().availableProcessors();
+            }
+        } catch (Exception e) {
+            new HelpFormatter().printHelp("ReadExtractor <nucl_contig_file> <reads_file> <k> [#threads]", options);
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+            return;
         }
 
-        System.err.println("Starting kmer mapping at " + new Date());
+        System.err.println("Starting read extraction at " + new Date());
         System.err.println("*  Number of threads:       " + maxThreads);
-        System.err.println("*  Max outstanding tasks:   " + maxTasks);
+        System.err.println("*  Read batch size:         " + BATCH_SIZE);
         System.err.println("*  Nucleotide contigs file: " + nuclContigs);
         System.err.println("*  Reads file:              " + readsFile);
         System.err.println("*  Kmer length:             " + k);
+        System.err.println("*  Kmer set:                " + ((bloomFpr > 0) ? "bloom filter, fpr " + bloomFpr : "exact"));
 
         long startTime = System.currentTimeMillis();
-        final ReadExtractor kmerCounter = new ReadExtractor(nuclContigs, k);
-        System.err.println("Kmer trie built in " + (System.currentTimeMillis() - startTime) + " ms");
-
-        FastaWriter out = new FastaWriter(System.out);
-
+        final ReadExtractor extractor = new ReadExtractor(nuclContigs, k, bloomFpr);
+        System.err.println("Kmer set built in " + (System.currentTimeMillis() - startTime) + " ms, " + extractor.kmerSet.getMemoryUsage() + " bytes");
 
+        FastaWriter out = new FastaWriter(new PrintStream(new BufferedOutputStream(System.out)));
         SequenceReader reader = new SequenceReader(readsFile);
-        Sequence seq;
 
         startTime = System.currentTimeMillis();
-        while ((seq = reader.readNextSequence()) != null) {
-            kmerCounter.processRead(seq, out);
-        }
+        extractor.extractReads(reader, out, maxThreads);
 
         reader.close();
+        out.close();
 
-        //service.shutdown();
-        //service.awaitTermination(1, TimeUnit.DAYS);
-
-        System.err.println("Processed " + kmerCounter.processedSeqs + " and wrote " + kmerCounter.writtenSeqs + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
-
-        //System.err.println("Unique kmers in contigs: " + kmerCounter.trie.uniqueWords());
+        System.err.println("Processed " + extractor.processedSeqs + " and wrote " + extractor.writtenSeqs + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
         System.err.println("Processing complete");
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.cli;
+
+import edu.msu.cme.rdp.graph.search.SearchStats;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+
+/**
+ * The search stats file, written to by the search threads.
+ *
+ * A canceled search keeps running until it notices the interrupt, so it can
+ * still be going when the file is closed.  Stats written after close() are
+ * dropped with a message instead of going to a closed PrintStream (which
+ * would swallow them without a word).
+ *
+ * @author fishjord
+ */
+class SearchStatsWriter {
+
+    private final PrintStream out;
+    private boolean closed = false;
+
+    SearchStatsWriter(File file) throws FileNotFoundException {
+        out = new PrintStream(file);
+    }
+
+    synchronized void printHeader() {
+        SearchStats.printHeader(out);
+    }
+
+    synchronized void print(SearchStats stats, String status) {
+        if (closed) {
+            System.err.println("Dropped " + status + " stats for " + stats.getTarget().getKmer() + ", the search finished after the stats file was closed");
+            return;
+        }
+        stats.print(status, out);
+    }
+
+    synchronized void close() {
+        closed = true;
+        out.close();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.cli;
+
+import edu.msu.cme.rdp.graph.search.SearchResult;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs seed searches on an executor with only a few in flight at once, so
+ * contigs from earlier seeds reach the planner before later seeds start.
+ *
+ * Searches are collected in the order they finish, not the order they were
+ * submitted, so a slow seed doesn't hold up the ones behind it.  Each search
+ * has its own deadline, time limit ms after it started (or after it was
+ * submitted if it hasn't started yet), past which it's timed out and
+ * canceled.
+ *
+ * Only the submitting thread may call submit and finish.
+ *
+ * @author fishjord
+ */
+class SeedSearchQueue<S extends StatsReportingSearch> {
+
+    static interface Collector<S extends StatsReportingSearch> {
+
+        /**
+         * @param results null if the search was terminated
+         */
+        public void searchDone(S search, List<SearchResult> results) throws IOException;
+
+        public void searchFailed(S search, boolean timedOut) throws IOException;
+    }
+
+    private class Task extends FutureTask<List<SearchResult>> {
+
+        private final S search;
+        private final long submittedAt = System.currentTimeMillis();
+        private volatile long startedAt = -1;
+
+        Task(S search) {
+            super(search);
+            this.search = search;
+        }
+
+        @Override
+        public void run() {
+            startedAt = System.currentTimeMillis();
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            completed.add(this);
+        }
+
+        long getDeadline() {
+            long started = startedAt;
+            return ((started == -1) ? submittedAt : started) + timeLimit;
+        }
+    }
+    private final ExecutorService executor;
+    private final int maxQueued;
+    private final long timeLimit;
+    private final Collector<S> collector;
+    private final Set<Task> inFlight = new LinkedHashSet();
+    private final BlockingQueue<Task> completed = new LinkedBlockingQueue();
+
+    /**
+     * @param timeLimit per search time limit in ms
+     */
+    SeedSearchQueue(ExecutorService executor, int maxQueued, long timeLimit, Collector<S> collector) {
+        this.executor = executor;
+        this.maxQueued = maxQueued;
+        this.timeLimit = timeLimit;
+        this.collector = collector;
+    }
+
+    /**
+     * Starts the search, first collecting a finished (or timed out) search if
+     * too many are in flight
+     */
+    void submit(S search) throws IOException, InterruptedException {
+        while (inFlight.size() >= maxQueued) {
+            collectNext();
+        }
+
+        Task task = new Task(search);
+        inFlight.add(task);
+        executor.execute(task);
+    }
+
+    /**
+     * Collects every search still in flight
+     */
+    void finish() throws IOException, InterruptedException {
+        while (!inFlight.isEmpty()) {
+            collectNext();
+        }
+    }
+
+    private void collectNext() throws IOException, InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long nextDeadline = Long.MAX_VALUE;
+
+            for (Iterator<Task> it = inFlight.iterator(); it.hasNext();) {
+                Task task = it.next();
+                long deadline = task.getDeadline();
+
+                if (deadline <= now && !task.isDone()) {
+                    it.remove();
+                    task.search.timeOut();
+                    task.cancel(true);
+                    collector.searchFailed(task.search, true);
+                    return;
+                }
+                nextDeadline = Math.min(nextDeadline, deadline);
+            }
+
+            //Canceled tasks come through here too, they've already been removed
+            Task task = completed.poll(Math.max(nextDeadline - now, 1), TimeUnit.MILLISECONDS);
+            if (task != null && inFlight.remove(task)) {
+                collect(task);
+                return;
+            }
+        }
+    }
+
+    private void collect(Task task) throws IOException, InterruptedException {
+        List<SearchResult> results;
+        try {
+            results = task.get();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            if (e.getCause() != null) {
+                e.getCause().printStackTrace();
+            }
+            collector.searchFailed(task.search, false);
+            return;
+        }
+
+        collector.searchDone(task.search, results);
+    }
+}
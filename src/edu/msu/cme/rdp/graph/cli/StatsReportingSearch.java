@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.cli;
+
+import edu.msu.cme.rdp.graph.search.HMMGraphSearch.HackTerminateException;
+import edu.msu.cme.rdp.graph.search.SearchResult;
+import edu.msu.cme.rdp.graph.search.SearchStats;
+import edu.msu.cme.rdp.graph.search.SearchTarget;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A seed search that writes its own stats line when it stops.
+ *
+ * The stats are only updated by the thread running the search, so that
+ * thread prints them (in a finally) once the search is really over, a
+ * canceled search keeps running until it sees the interrupt.  The collector
+ * calls timeOut() before canceling so the line says timeout, and if the
+ * search never started timeOut() prints the (empty) stats itself.
+ *
+ * call() returns null if the search was terminated.
+ *
+ * @author fishjord
+ */
+abstract class StatsReportingSearch implements Callable<List<SearchResult>> {
+
+    protected final SearchTarget target;
+    protected final SearchStats stats;
+    private final SearchStatsWriter statsOut;
+    //Set by whichever of the worker and the collector prints the stats
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+    private volatile boolean timedOut = false;
+
+    StatsReportingSearch(SearchTarget target, SearchStatsWriter statsOut) {
+        this.target = target;
+        this.stats = new SearchStats(target);
+        this.statsOut = statsOut;
+    }
+
+    protected abstract List<SearchResult> search() throws Exception;
+
+    public final List<SearchResult> call() throws Exception {
+        if (!claimed.compareAndSet(false, true)) {
+            return null; //Timed out before it started
+        }
+
+        String status = "error";
+        try {
+            List<SearchResult> ret = search();
+            status = "ok";
+            return ret;
+        } catch (HackTerminateException e) {
+            status = "terminated";
+            return null;
+        } finally {
+            statsOut.print(stats, (timedOut) ? "timeout" : status);
+        }
+    }
+
+    /**
+     * Call before canceling the search
+     */
+    void timeOut() {
+        timedOut = true;
+        if (claimed.compareAndSet(false, true)) {
+            statsOut.print(stats, "timeout");
+        }
+    }
+
+    SearchTarget getTarget() {
+        return target;
+    }
+}
@@ -20,17 +20,14 @@ import edu.msu.cme.rdp.alignment.hmm.HMMER3bParser;
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
 import edu.msu.cme.rdp.graph.search.HMMGraphSearch;
-import edu.msu.cme.rdp.graph.search.HMMGraphSearch.HackTerminateException;
 import edu.msu.cme.rdp.graph.search.SearchResult;
 import edu.msu.cme.rdp.graph.search.SearchTarget;
+import edu.msu.cme.rdp.graph.search.SeedPlanner;
 import edu.msu.cme.rdp.kmer.io.KmerStart;
 import edu.msu.cme.rdp.kmer.io.KmerStartsReader;
 import edu.msu.cme.rdp.readseq.SequenceType;
-import edu.msu.cme.rdp.readseq.writers.FastaWriter;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -45,22 +42,17 @@ import java.util.concurrent.TimeoutException;
  */
 public class TimeLimitedSearch {
 
-    private static class TimeLimitedSearchThread implements Callable<List<SearchResult>> {
+    private static class TimeLimitedSearchThread extends StatsReportingSearch {
 
         private HMMGraphSearch searchMethod;
-        private SearchTarget target;
 
-        public TimeLimitedSearchThread(HMMGraphSearch searchMethod, SearchTarget target) {
+        public TimeLimitedSearchThread(HMMGraphSearch searchMethod, SearchTarget target, SearchStatsWriter statsOut) {
+            super(target, statsOut);
             this.searchMethod = searchMethod;
-            this.target = target;
         }
 
-        public List<SearchResult> call() throws Exception {
-            try {
-                return searchMethod.search(target);
-            } catch (HackTerminateException e) {
-                return null;
-            }
+        protected List<SearchResult> search() throws Exception {
+            return searchMethod.search(target, stats);
         }
     }
 
@@ -68,6 +60,7 @@ public class TimeLimitedSearch {
 
         private long startedAt = -1;
         private String startingWord;
+        private StatsReportingSearch search;
 
         public TimeStamppedFutureTask(Runnable runnable, List<SearchResult> result) {
             super(runnable, result);
@@ -79,7 +72,8 @@ public class TimeLimitedSearch {
 
         public TimeStamppedFutureTask(TimeLimitedSearchThread callable) {
             super(callable);
-            startingWord = callable.target.getKmer();
+            startingWord = callable.getTarget().getKmer();
+            search = callable;
         }
 
         @Override
@@ -100,6 +94,10 @@ public class TimeLimitedSearch {
             return startingWord;
         }
 
+        public StatsReportingSearch getSearch() {
+            return search;
+        }
+
         @Override
         public boolean cancel(boolean c) {
             return super.cancel(c);
@@ -129,6 +127,7 @@ public class TimeLimitedSearch {
         File nuclOutFile = new File(kmersFile.getName() + "_nucl.fasta");
         File alignOutFile = new File(kmersFile.getName() + ".alignment");
         File protOutFile = new File(kmersFile.getName() + "_prot.fasta");
+        File statsOutFile = new File(kmersFile.getName() + "_search_stats.txt");
 
         HMMGraphSearch search = new HMMGraphSearch(k);
 
@@ -143,14 +142,8 @@ public class TimeLimitedSearch {
              revHMM = HMMER3bParser.readUnnormalized(revHMMFile);
         }
 
-        FastaWriter nuclOut = new FastaWriter(nuclOutFile);
-        FastaWriter alignOut = new FastaWriter(alignOutFile);
-        FastaWriter protOut = null;
         boolean isProt = forHMM.getAlphabet() == SequenceType.Protein;
-
-        if (isProt) {
-            protOut = new FastaWriter(protOutFile);
-        }
+        AsyncResultWriter resultOut = new AsyncResultWriter(isProt, nuclOutFile, alignOutFile, protOutFile);
 
         int kmerCount = 0;
         int contigCount = 1;
@@ -158,11 +151,12 @@ public class TimeLimitedSearch {
         long startTime;
 
         startTime = System.currentTimeMillis();
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
         System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
 
+        SeedPlanner planner = new SeedPlanner(bloom.getKmerSize());
+        planner.limitComplexityFromProperties(bloom);
+
         System.err.println("Starting hmmgs search at " + new Date());
         System.err.println("*  Kmer file:               " + kmersFile);
         System.err.println("*  Bloom file:              " + bloomFile);
@@ -172,9 +166,17 @@ public class TimeLimitedSearch {
         System.err.println("*  # paths:                 " + k);
         System.err.println("*  Nucl contigs out file    " + nuclOutFile);
         System.err.println("*  Prot contigs out file    " + protOutFile);
+        System.err.println("*  Search stats out file    " + statsOutFile);
+        if (planner.getComplexityLimit() != null) {
+            System.err.println("*  Seed complexity limit:   " + planner.getComplexityLimit());
+        }
 
         startTime = System.currentTimeMillis();
-        HMMBloomSearch.printHeader(System.out, isProt);
+        resultOut.writeSummaryLine(HMMBloomSearch.getHeader(isProt));
+        SearchStatsWriter statsOut = new SearchStatsWriter(statsOutFile);
+        statsOut.printHeader();
+        //Searches that timed out, they stop once they see the interrupt
+        List<Thread> abandoned = new ArrayList();
 
         //Set<String> processed = new HashSet();
         String key;
@@ -192,11 +194,15 @@ public class TimeLimitedSearch {
                     continue;
                 }
 
+                if (!planner.offer(line.getNuclKmer(), line.getMpos())) {
+                    continue;
+                }
+
                 TimeStamppedFutureTask future = new TimeStamppedFutureTask(
                         new TimeLimitedSearchThread(search,
                         new SearchTarget(line.getGeneName(),
                         line.getQueryId(), line.getRefId(), line.getNuclKmer(), 0,
-                        line.getMpos() - 1, forHMM, revHMM, bloom)));
+                        line.getMpos() - 1, forHMM, revHMM, bloom), statsOut));
 
                 Thread t = new Thread(future);
                 t.setDaemon(true);
@@ -206,23 +212,22 @@ public class TimeLimitedSearch {
                 try {
                     List<SearchResult> searchResults = future.get(timeLimit, TimeUnit.SECONDS);
 
-                    for (SearchResult result : searchResults) {
-                        String seqid = "contig_" + (contigCount++);
+                    if (searchResults != null) {
+                        planner.addContigs(searchResults);
 
-                        HMMBloomSearch.printResult(seqid, isProt, result, System.out);
+                        for (SearchResult result : searchResults) {
+                            String seqid = "contig_" + (contigCount++);
 
-                        nuclOut.writeSeq(seqid, result.getNuclSeq());
-                        alignOut.writeSeq(seqid, result.getAlignSeq());
-                        if (isProt) {
-                            protOut.writeSeq(seqid, result.getProtSeq());
+                            resultOut.writeResult(seqid, result);
                         }
                     }
-
                 } catch (TimeoutException e) {
-                    System.out.println("-\t" + future.getStartingWord() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
+                    resultOut.writeSummaryLine("-\t" + future.getStartingWord() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
+                    future.getSearch().timeOut();
                     future.cancel(true);
+                    abandoned.add(t);
                 } catch (Exception e) {
-                    System.out.println("-\t" + future.getStartingWord() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
+                    resultOut.writeSummaryLine("-\t" + future.getStartingWord() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
                     e.printStackTrace();
                     if (e.getCause() != null) {
                         e.getCause().printStackTrace();
@@ -231,12 +236,20 @@ public class TimeLimitedSearch {
                 }
             }
             System.err.println("Read in " + kmerCount + " kmers and created " + contigCount + " contigs in " + (System.currentTimeMillis() - startTime) / 1000f + " seconds");
+            System.err.println("Skipped " + planner.getDuplicates() + " duplicate kmers and " + planner.getCovered() + " kmers already in a contig and " + planner.getComplex() + " too complex to search");
+            System.err.println("Codon cache hit rate left: " + search.getLeftCodonCache().getHitRate() + ", right: " + search.getRightCodonCache().getHitRate());
         } finally {
-            nuclOut.close();
-            if (isProt) {
-                protOut.close();
+            //Wait (up to one time limit in all) for the timed out searches to write their stats
+            long deadline = System.currentTimeMillis() + timeLimit * 1000;
+            for (Thread t : abandoned) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                t.join(wait);
             }
-            System.out.close();
+            resultOut.close();
+            statsOut.close();
         }
 
     }
@@ -19,29 +19,22 @@ package edu.msu.cme.rdp.graph.cli;
 import edu.msu.cme.rdp.alignment.hmm.HMMER3bParser;
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.filter.CodonCache;
 import edu.msu.cme.rdp.graph.search.HMMGraphSearch;
-import edu.msu.cme.rdp.graph.search.HMMGraphSearch.HackTerminateException;
 import edu.msu.cme.rdp.graph.search.SearchResult;
 import edu.msu.cme.rdp.graph.search.SearchTarget;
+import edu.msu.cme.rdp.graph.search.SeedPlanner;
+import edu.msu.cme.rdp.kmer.io.KmerStart;
+import edu.msu.cme.rdp.kmer.io.KmerStartsReader;
 import edu.msu.cme.rdp.readseq.SequenceType;
-import edu.msu.cme.rdp.readseq.writers.FastaWriter;
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.ObjectInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 /**
  *
@@ -49,64 +42,54 @@ import java.util.concurrent.TimeoutException;
  */
 public class TimeLimitedSearchMT {
 
-    private static class TimeLimitedSearchThread implements Callable<List<SearchResult>> {
+    private static class TimeLimitedSearchThread extends StatsReportingSearch {
 
-        private HMMGraphSearch searchMethod;
-        private SearchTarget target;
+        private ThreadLocal<HMMGraphSearch> searchMethod;
+        private SeedPlanner planner;
 
-        public TimeLimitedSearchThread(HMMGraphSearch searchMethod, SearchTarget target) {
+        public TimeLimitedSearchThread(ThreadLocal<HMMGraphSearch> searchMethod, SearchTarget target, SeedPlanner planner, SearchStatsWriter statsOut) {
+            super(target, statsOut);
             this.searchMethod = searchMethod;
-            this.target = target;
+            this.planner = planner;
         }
 
-        public List<SearchResult> call() throws Exception {
-            try {
-                return searchMethod.search(target);
-            } catch (HackTerminateException e) {
-                return null;
+        protected List<SearchResult> search() throws Exception {
+            //Another thread may have found a contig through this kmer since it was queued
+            if (planner.isCovered(target.getKmer())) {
+                return new ArrayList();
             }
-        }
-    }
-
-    private static class TimeStamppedFutureTask extends FutureTask<List<SearchResult>> {
-
-        private long startedAt = -1;
-        private String startingWord;
 
-        public TimeStamppedFutureTask(Runnable runnable, List<SearchResult> result) {
-            super(runnable, result);
+            List<SearchResult> ret = searchMethod.get().search(target, stats);
+            planner.addContigs(ret);
+            return ret;
         }
+    }
 
-        public TimeStamppedFutureTask(Callable callable) {
-            super(callable);
-        }
+    private static class ResultCollector implements SeedSearchQueue.Collector<TimeLimitedSearchThread> {
 
-        public TimeStamppedFutureTask(TimeLimitedSearchThread callable) {
-            super(callable);
-            startingWord = callable.target.getKmer();
-        }
+        private final AsyncResultWriter resultOut;
+        private final boolean isProt;
+        private int contigCount = 1;
 
-        @Override
-        public void run() {
-            this.startedAt = System.currentTimeMillis();
-            super.run();
+        ResultCollector(AsyncResultWriter resultOut, boolean isProt) {
+            this.resultOut = resultOut;
+            this.isProt = isProt;
         }
 
-        public boolean hasStarted() {
-            return startedAt != -1;
-        }
+        public void searchDone(TimeLimitedSearchThread search, List<SearchResult> results) throws IOException {
+            if (results == null) {
+                return;
+            }
 
-        public long getStartedAt() {
-            return startedAt;
-        }
+            for (SearchResult result : results) {
+                String seqid = "contig_" + (contigCount++);
 
-        public String getStartingWord() {
-            return startingWord;
+                resultOut.writeResult(seqid, result);
+            }
         }
 
-        @Override
-        public boolean cancel(boolean c) {
-            return super.cancel(c);
+        public void searchFailed(TimeLimitedSearchThread search, boolean timedOut) throws IOException {
+            resultOut.writeSummaryLine("-\t" + search.getTarget().getKmer() + (isProt ? "\t-" : "") + "\t-\t-\t-\t-");
         }
     }
 
@@ -116,7 +99,7 @@ public class TimeLimitedSearchMT {
             System.exit(1);
         }
 
-        int k = Integer.valueOf(args[0]);
+        final int k = Integer.valueOf(args[0]);
         long timeLimit = Long.valueOf(args[1]) * 1000;
 
         File bloomFile = new File(args[2]);
@@ -127,19 +110,26 @@ public class TimeLimitedSearchMT {
         File nuclOutFile = new File(kmersFile.getName() + "_nucl.fasta");
         File alignOutFile = new File(kmersFile.getName() + ".alignment");
         File protOutFile = new File(kmersFile.getName() + "_prot.fasta");
-
-        HMMGraphSearch search = new HMMGraphSearch(k);
+        File statsOutFile = new File(kmersFile.getName() + "_search_stats.txt");
+
+        /*
+         * HMMGraphSearch isn't thread safe, so each worker gets its own but
+         * they all share the codon caches (they all search the same bloom filter)
+         */
+        final CodonCache leftCodonCache = new CodonCache(HMMGraphSearch.DEFAULT_CODON_CACHE_SIZE_LOG2);
+        final CodonCache rightCodonCache = new CodonCache(HMMGraphSearch.DEFAULT_CODON_CACHE_SIZE_LOG2);
+        ThreadLocal<HMMGraphSearch> search = new ThreadLocal<HMMGraphSearch>() {
+
+            @Override
+            protected HMMGraphSearch initialValue() {
+                return new HMMGraphSearch(k, leftCodonCache, rightCodonCache);
+            }
+        };
 
         ProfileHMM forHMM = HMMER3bParser.readModel(forHMMFile);
         ProfileHMM revHMM = HMMER3bParser.readModel(revHMMFile);
-        FastaWriter nuclOut = new FastaWriter(nuclOutFile);
-        FastaWriter alignOut = new FastaWriter(alignOutFile);
-        FastaWriter protOut = null;
         boolean isProt = forHMM.getAlphabet() == SequenceType.Protein;
-
-        if (isProt) {
-            protOut = new FastaWriter(protOutFile);
-        }
+        AsyncResultWriter resultOut = new AsyncResultWriter(isProt, nuclOutFile, alignOutFile, protOutFile);
 
         int threads = Runtime.getRuntime().availableProcessors();
 
@@ -147,20 +137,20 @@ public class TimeLimitedSearchMT {
             threads = Integer.valueOf(args[6]);
         }
 
-        String line;
-        BufferedReader reader = new BufferedReader(new FileReader(kmersFile));
+        KmerStart line;
+        KmerStartsReader reader = new KmerStartsReader(kmersFile);
 
         int kmerCount = 0;
-        int contigCount = 1;
 
         long startTime;
 
         startTime = System.currentTimeMillis();
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bloomFile)));
-        BloomFilter bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
         System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
 
+        SeedPlanner planner = new SeedPlanner(bloom.getKmerSize());
+        planner.limitComplexityFromProperties(bloom);
+
         System.err.println("Starting hmmgs search at " + new Date());
         System.err.println("*  Number of threads:       " + threads);
         System.err.println("*  Kmer file:               " + kmersFile);
@@ -171,122 +161,59 @@ public class TimeLimitedSearchMT {
         System.err.println("*  # paths:                 " + k);
         System.err.println("*  Nucl contigs out file    " + nuclOutFile);
         System.err.println("*  Prot contigs out file    " + protOutFile);
+        System.err.println("*  Search stats out file    " + statsOutFile);
+        if (planner.getComplexityLimit() != null) {
+            System.err.println("*  Seed complexity limit:   " + planner.getComplexityLimit());
+        }
 
 
         ExecutorService executor = Executors.newFixedThreadPool(threads);
 
         startTime = System.currentTimeMillis();
-        HMMBloomSearch.printHeader(System.out, isProt);
+        resultOut.writeSummaryLine(HMMBloomSearch.getHeader(isProt));
+        SearchStatsWriter statsOut = new SearchStatsWriter(statsOutFile);
+        statsOut.printHeader();
 
-        List<TimeStamppedFutureTask> tasks = new ArrayList();
-        Set<String> processed = new HashSet();
-        String key;
+        /*
+         * Only keep a few searches queued per thread, that way contigs from
+         * earlier seeds are in the planner's index before later seeds start
+         */
+        ResultCollector collector = new ResultCollector(resultOut, isProt);
+        SeedSearchQueue<TimeLimitedSearchThread> queue = new SeedSearchQueue<TimeLimitedSearchThread>(executor, threads * 2, timeLimit, collector);
 
         try {
-            while ((line = reader.readLine()) != null) {
-                String[] lexemes = line.split("\\s+");
-
-                int startingFrame = -1;
-                String startingWord = null;
-                int count = 0;
-                int startingState = -1;
-                char[] kmer = null;
-
-                if (isProt) {
-                    if (lexemes.length != 7) {
-                        System.err.println("Skipping line " + line + " (not the right number of lexemes " + lexemes.length + ")");
-                        continue;
-                    }
-
-                    //startingFrame = Integer.valueOf(lexemes[4]);
-                    startingWord = lexemes[1].toLowerCase();
-                    //count = Integer.valueOf(lexemes[5]);
-                    startingState = Integer.valueOf(lexemes[6]);
-
-                    kmer = startingWord.toCharArray();
-                } else {
-                    if (lexemes.length != 6) {
-                        System.err.println("Skipping line " + line + " (not the right number of lexemes " + lexemes.length + ")");
-                        continue;
-                    }
-
-                    startingWord = lexemes[1].toLowerCase();
-                    //count = Integer.valueOf(lexemes[4]);
-                    startingState = Integer.valueOf(lexemes[5]);
-
-                    kmer = startingWord.toCharArray();
-                }
-
-                key = startingWord + startingState;
-                if(processed.contains(key)) {
-                    continue;
-                }
-                processed.add(key);
-
+            while ((line = reader.readNext()) != null) {
                 kmerCount++;
 
-                if (startingState == 0) {
+                if (line.getMpos() == 0) {
                     System.err.println("Skipping line " + line);
                     continue;
                 }
 
-                TimeStamppedFutureTask future = new TimeStamppedFutureTask(new TimeLimitedSearchThread(search, new SearchTarget(startingWord, 0, startingState, forHMM, revHMM, bloom)));
-                executor.execute(future);
-                tasks.add(future);
-            }
-
-            for (TimeStamppedFutureTask future : tasks) {
-                try {
-
-                    long startWaiting = System.currentTimeMillis();
-                    while (!future.hasStarted()) {
-                        if (System.currentTimeMillis() - startWaiting > timeLimit) {
-                            throw new TimeoutException();
-                        }
-                    }
-                    long delta = timeLimit - (System.currentTimeMillis() - future.getStartedAt());
-
-                    if (delta < 0) {
-                        throw new TimeoutException();
-                    }
-
-                    List<SearchResult> searchResults = future.get(delta, TimeUnit.MILLISECONDS);
-
-                    for (SearchResult result : searchResults) {
-                        String seqid = "contig_" + (contigCount++);
-
-                        HMMBloomSearch.printResult(seqid, isProt, result, System.out);
-
-                        nuclOut.writeSeq(seqid, result.getNuclSeq());
-                        alignOut.writeSeq(seqid, result.getAlignSeq());
-                        if (isProt) {
-                            protOut.writeSeq(seqid, result.getProtSeq());
-                        }
-                    }
-                } catch (TimeoutException e) {
-                    System.out.println("-\t" + future.getStartingWord() + (isProt? "\t-" : "") + "\t-\t-\t-\t-");
-                    future.cancel(true);
-                } catch (Exception e) {
-                    System.out.println("-\t" + future.getStartingWord() + (isProt? "\t-" : "") + "\t-\t-\t-\t-");
-                    e.printStackTrace();
-                    if(e.getCause() != null) {
-                        e.getCause().printStackTrace();
-                    }
-                    future.cancel(true);
+                if (!planner.offer(line.getNuclKmer(), line.getMpos())) {
+                    continue;
                 }
+
+                queue.submit(new TimeLimitedSearchThread(search,
+                        new SearchTarget(line.getGeneName(),
+                        line.getQueryId(), line.getRefId(), line.getNuclKmer(), 0,
+                        line.getMpos() - 1, forHMM, revHMM, bloom), planner, statsOut));
             }
+            queue.finish();
 
             executor.shutdown();
             System.err.println("Awaiting thread temination");
             executor.awaitTermination(1, TimeUnit.DAYS);
 
-            System.err.println("Read in " + kmerCount + " kmers and created " + contigCount + " contigs in " + (System.currentTimeMillis() - startTime) / 1000f + " seconds");
+            System.err.println("Read in " + kmerCount + " kmers and created " + (collector.contigCount - 1) + " contigs in " + (System.currentTimeMillis() - startTime) / 1000f + " seconds");
+            System.err.println("Skipped " + planner.getDuplicates() + " duplicate kmers and " + planner.getCovered() + " kmers already in a contig and " + planner.getComplex() + " too complex to search");
         } finally {
-            nuclOut.close();
-            if (isProt) {
-                protOut.close();
-            }
-            System.out.close();
+            //Canceled searches may still be winding down, give them a chance to write their stats
+            executor.shutdownNow();
+            executor.awaitTermination(timeLimit, TimeUnit.MILLISECONDS);
+            reader.close();
+            resultOut.close();
+            statsOut.close();
         }
 
     }
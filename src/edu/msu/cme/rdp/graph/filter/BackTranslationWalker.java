@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.filter;
+
+import edu.msu.cme.rdp.graph.utils.BackTranslationIterator;
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the back translations of a run of overlapping protein kmers that are
+ * in the graph, without enumerating every back translation of every kmer.
+ *
+ * The filter only holds whole nucleotide kmers, so one kmer of the run (the
+ * anchor, the one with the fewest back translations) is enumerated in full,
+ * extending the hashes a codon at a time instead of rehashing each
+ * candidate.  From the anchor's kmers in the graph the walk extends a codon
+ * at a time to the right (RightCodonFacade) and left (LeftCodonFacade), every
+ * base is checked against the filter so whole subtrees missing from the
+ * graph are never visited, and only codons for the next residue are kept.
+ * If the walk runs out of kmers the rest of the run is anchored again.
+ *
+ * The walk only finds kmers connected (through the graph) to an anchor
+ * kmer, a back translation in the graph whose neighbor toward the anchor
+ * isn't would be missed.  So kmers with at most maxEnumeratedCombinations
+ * back translations are also enumerated in full, and for them the result is
+ * the same as enumerating every back translation.  Only the kmers with more
+ * back translations than that (the degenerate ones the walk is for) can
+ * come up short of full enumeration.
+ *
+ * Not thread safe, use one per thread.
+ *
+ * @author fishjord
+ */
+public class BackTranslationWalker {
+
+    private final BloomFilter bloom;
+    private final int k;
+    private final int protK;
+    private final long maxAnchorCombinations;
+    private final long maxEnumeratedCombinations;
+    private final BloomFilter.GraphState state;
+    private final char[] nucl;
+    private BloomFilter.RightCodonFacade right;
+    private BloomFilter.LeftCodonFacade left;
+    private long anchorCandidates = 0;
+    private long skippedRuns = 0;
+
+    public static final long DEFAULT_MAX_ENUMERATED_COMBINATIONS = 4096;
+
+    /**
+     * @param maxAnchorCombinations runs where every kmer has more back
+     * translations than this are skipped
+     */
+    public BackTranslationWalker(BloomFilter bloom, long maxAnchorCombinations) {
+        this(bloom, maxAnchorCombinations, DEFAULT_MAX_ENUMERATED_COMBINATIONS);
+    }
+
+    /**
+     * @param maxEnumeratedCombinations kmers with at most this many back
+     * translations are always enumerated in full
+     */
+    public BackTranslationWalker(BloomFilter bloom, long maxAnchorCombinations, long maxEnumeratedCombinations) {
+        if (bloom.getKmerSize() % 3 != 0) {
+            throw new IllegalArgumentException("Kmer size " + bloom.getKmerSize() + " isn't a multiple of 3");
+        }
+
+        this.bloom = bloom;
+        this.k = bloom.getKmerSize();
+        this.protK = k / 3;
+        this.maxAnchorCombinations = maxAnchorCombinations;
+        this.maxEnumeratedCombinations = maxEnumeratedCombinations;
+        this.state = bloom.new GraphState();
+        this.nucl = new char[k];
+    }
+
+    /**
+     * @param protMers protein kmers of length k / 3, consecutive kmers that
+     * overlap by all but one residue are walked as a run
+     * @return the nucleotide kmers in the graph for each protein kmer
+     */
+    public List<Set<String>> walk(List<char[]> protMers) {
+        List<Set<String>> ret = new ArrayList();
+        boolean[] enumerated = new boolean[protMers.size()];
+        for (int index = 0; index < protMers.size(); index++) {
+            ret.add(new LinkedHashSet());
+        }
+
+        int start = 0;
+        for (int index = 1; index <= protMers.size(); index++) {
+            if (index == protMers.size() || !overlaps(protMers.get(index - 1), protMers.get(index))) {
+                walkRun(protMers, start, index, ret, enumerated);
+                start = index;
+            }
+        }
+
+        //Pick up the kmers the walk can't reach, where that's cheap
+        for (int index = 0; index < protMers.size(); index++) {
+            long combinations = countCombinations(protMers.get(index));
+            if (!enumerated[index] && combinations <= maxEnumeratedCombinations) {
+                state.clearState();
+                enumerate(protMers.get(index), 0, ret.get(index));
+                anchorCandidates += combinations;
+            }
+        }
+
+        return ret;
+    }
+
+    private static boolean overlaps(char[] prev, char[] next) {
+        for (int index = 1; index < prev.length; index++) {
+            if (Character.toLowerCase(prev[index]) != Character.toLowerCase(next[index - 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of back translations, Long.MAX_VALUE if any residue
+     * can't be back translated
+     */
+    private static long countCombinations(char[] protMer) {
+        long ret = 1;
+        for (char residue : protMer) {
+            byte[][] codons = BackTranslationIterator.getCodons(residue);
+            if (codons == null) {
+                return Long.MAX_VALUE;
+            }
+            ret *= codons.length;
+        }
+
+        return ret;
+    }
+
+    private void walkRun(List<char[]> protMers, int from, int to, List<Set<String>> ret, boolean[] enumerated) {
+        if (from >= to) {
+            return;
+        }
+
+        int anchor = -1;
+        long best = Long.MAX_VALUE;
+        for (int index = from; index < to; index++) {
+            long combinations = countCombinations(protMers.get(index));
+            if (combinations < best) {
+                best = combinations;
+                anchor = index;
+            }
+        }
+
+        if (anchor == -1 || best > maxAnchorCombinations) {
+            skippedRuns++;
+            return;
+        }
+
+        Set<String> anchorKmers = ret.get(anchor);
+        state.clearState();
+        enumerate(protMers.get(anchor), 0, anchorKmers);
+        enumerated[anchor] = true;
+        anchorCandidates += best;
+
+        if (anchorKmers.isEmpty()) {
+            walkRun(protMers, from, anchor, ret, enumerated);
+            walkRun(protMers, anchor + 1, to, ret, enumerated);
+            return;
+        }
+
+        Set<String> frontier = anchorKmers;
+        int index = anchor + 1;
+        for (; index < to && !frontier.isEmpty(); index++) {
+            char[] protMer = protMers.get(index);
+            frontier = extend(frontier, protMer[protMer.length - 1], true);
+            ret.get(index).addAll(frontier);
+        }
+        if (frontier.isEmpty()) {
+            walkRun(protMers, index - 1, to, ret, enumerated);
+        }
+
+        frontier = anchorKmers;
+        index = anchor - 1;
+        for (; index >= from && !frontier.isEmpty(); index--) {
+            frontier = extend(frontier, protMers.get(index)[0], false);
+            ret.get(index).addAll(frontier);
+        }
+        if (frontier.isEmpty()) {
+            walkRun(protMers, from, index + 2, ret, enumerated);
+        }
+    }
+
+    /**
+     * Depth first over the codons of each residue, the hashes before each
+     * codon are restored instead of recomputed
+     */
+    private void enumerate(char[] protMer, int depth, Collection<String> out) {
+        if (depth == protK) {
+            if (state.hasCurrent()) {
+                out.add(new String(nucl));
+            }
+            return;
+        }
+
+        long fwdHash = state.fwdHashValue;
+        long rcHash = state.rcHashValue;
+        int kmerLeftIdx = state.kmerLeftIdx;
+        int rkmerLeftIdx = state.rkmerLeftIdx;
+
+        for (byte[] codon : BackTranslationIterator.getCodons(protMer[depth])) {
+            for (int index = 0; index < 3; index++) {
+                char c = NuclBinMapping.intToChar[codon[index]];
+                nucl[depth * 3 + index] = c;
+                state.loadCharRight(c);
+            }
+
+            enumerate(protMer, depth + 1, out);
+
+            state.fwdHashValue = fwdHash;
+            state.rcHashValue = rcHash;
+            state.kmerLeftIdx = kmerLeftIdx;
+            state.rkmerLeftIdx = rkmerLeftIdx;
+        }
+    }
+
+    /**
+     * @return the kmers one codon (coding for residue) past the frontier
+     * kmers in the given direction that are in the graph
+     */
+    private Set<String> extend(Set<String> frontier, char residue, boolean rightward) {
+        Set<String> ret = new LinkedHashSet();
+        residue = Character.toLowerCase(residue);
+
+        for (String kmer : frontier) {
+            BloomFilter.CodonFacade facade;
+            if (rightward) {
+                if (right == null) {
+                    right = bloom.new RightCodonFacade(kmer);
+                } else {
+                    right.jumpTo(kmer.toCharArray());
+                }
+                facade = right;
+            } else {
+                if (left == null) {
+                    left = bloom.new LeftCodonFacade(kmer);
+                } else {
+                    left.jumpTo(kmer.toCharArray());
+                }
+                facade = left;
+            }
+
+            for (NextCodon codon = facade.getNextCodon(); codon != null; codon = facade.getSibCodon()) {
+                if (Character.toLowerCase(codon.getAminoAcid()) != residue) {
+                    continue;
+                }
+
+                String added = facade.getPathString();
+                ret.add((rightward) ? kmer.substring(3) + added : added + kmer.substring(0, k - 3));
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return number of candidate kmers hashed while enumerating anchors and
+     * small kmers
+     */
+    public long getAnchorCandidates() {
+        return anchorCandidates;
+    }
+
+    /**
+     * @return runs (or parts of runs) skipped for having no kmer with few
+     * enough back translations to anchor on
+     */
+    public long getSkippedRuns() {
+        return skippedRuns;
+    }
+}
@@ -18,6 +18,7 @@ package edu.msu.cme.rdp.graph.filter;
 
 import edu.msu.cme.rdp.graph.hash.CyclicHash;
 import edu.msu.cme.rdp.graph.hash.Hash;
+import edu.msu.cme.rdp.graph.utils.GraphEvents;
 import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
 import java.io.*;
@@ -60,9 +61,13 @@ public class BloomFilter implements Serializable {
     private final Date createdOn;
 
     public static BloomFilter fromFile(File f) throws IOException {
+        long startTime = System.currentTimeMillis();
         ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
         try {
             BloomFilter ret = (BloomFilter) ois.readObject();
+            if (GraphEvents.isEnabled()) {
+                GraphEvents.emit(GraphEvents.FILTER_LOAD, f, ret.getKmerSize(), ret.getBitsetSizeLog2(), ret.getUniqueKmers(), System.currentTimeMillis() - startTime);
+            }
             return ret;
         } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
@@ -140,6 +145,29 @@ public class BloomFilter implements Serializable {
         return wasSet;
     }
 
+    /**
+     * @return true if the kmer with these forward and reverse complement
+     * hashes (in either order) is in the filter
+     */
+    public boolean hasKmer(long fwdHash, long rcHash) {
+        return (fwdHash > rcHash) ? hasNode(fwdHash, rcHash) : hasNode(rcHash, fwdHash);
+    }
+
+    /**
+     * Forward hash of the kmer made by dropping out from the left of a kmer
+     * and appending in to its right, same as RightCodonFacade's walk
+     */
+    public long successorFwdHash(long fwdHash, byte out, byte in) {
+        return hasher.updateRight(fwdHash, out, in);
+    }
+
+    /**
+     * Reverse complement hash to go with successorFwdHash
+     */
+    public long successorRcHash(long rcHash, byte out, byte in) {
+        return hasher.updateLeft(rcHash, NuclBinMapping.complementLookup[out], NuclBinMapping.complementLookup[in]);
+    }
+
     /*
      * Returns True if bit not previously set
      */
@@ -285,6 +313,14 @@ public class BloomFilter implements Serializable {
 
         }
 
+        public long getFwdHash() {
+            return fwdHashValue;
+        }
+
+        public long getRcHash() {
+            return rcHashValue;
+        }
+
         public boolean hasCurrent() {
             long xHash = (fwdHashValue > rcHashValue) ? fwdHashValue : rcHashValue;
             long yHash = (fwdHashValue > rcHashValue) ? rcHashValue : fwdHashValue;
@@ -362,6 +398,8 @@ public class BloomFilter implements Serializable {
 
     public class GraphBuilder extends BloomFilter.GraphState {
 
+        private static final int BUILD_PROGRESS_INTERVAL = 1000000;
+
         private long numStr = 0;
         private long numkmer = 0;
         private long numUniqueKmer = 0;
@@ -388,6 +426,9 @@ public class BloomFilter implements Serializable {
         public void addString(char[] seqStr) {
             numStr++;
             BloomFilter.this.totalStrings++;
+            if ((numStr % BUILD_PROGRESS_INTERVAL) == 0 && GraphEvents.isEnabled()) {
+                GraphEvents.emit(GraphEvents.FILTER_BUILD_PROGRESS, numStr, numkmer, numUniqueKmer);
+            }
 
             int i = 0;
             while (i < seqStr.length) {
@@ -460,6 +501,7 @@ public class BloomFilter implements Serializable {
          */
         protected PathHolder path = new PathHolder();
         protected int pathPtr = -1;
+        private long probeCount = 0;
 
         public CodonFacade(String s) {
             this(s.toCharArray());
@@ -477,6 +519,10 @@ public class BloomFilter implements Serializable {
             return rcHashValue;
         }
 
+        public long getProbeCount() {
+            return probeCount;
+        }
+
         public final void jumpTo(char[] kmer) {
             if (kmer.length != kmerSize) {
                 throw new InvalidDNABaseException("input length [" + kmer.length + "] not equal to k-mer length[" + kmerSize + "]: " + new String(kmer));
@@ -497,6 +543,18 @@ public class BloomFilter implements Serializable {
             }
         }
 
+        public final void jumpTo(long kmerHi, long kmerLo, long fwdHash, long rcHash) {
+            fwdHashValue = fwdHash;
+            rcHashValue = rcHash;
+            framePtr = kmerSize - 1;
+            pathPtr = kmerSize - 1;
+            path.init(kmerHi, kmerLo, kmerSize);
+
+            if (!hasCurrent()) {
+                throw new IllegalArgumentException("kmer not in bloomfilter: " + new String(path.toCharArray()));
+            }
+        }
+
         protected abstract void initialize(char[] s);
 
         /**
@@ -509,6 +567,7 @@ public class BloomFilter implements Serializable {
             long xHash = (fwdHashValue > rcHashValue) ? fwdHashValue : rcHashValue;
             long yHash = (fwdHashValue > rcHashValue) ? rcHashValue : fwdHashValue;
 
+            probeCount++;
             return BloomFilter.this.hasNode(xHash, yHash);
         }
 
@@ -561,11 +620,7 @@ public class BloomFilter implements Serializable {
 
         protected boolean walk(byte... walk) {
             for (byte w : walk) {
-                pathPtr++;
-                path.push(w);
-
-                byte leftChar = path.get(pathPtr - kmerSize);
-                updateHashForward(leftChar, w);
+                step(w);
             }
 
             if (hasCurrent()) {
@@ -575,6 +630,14 @@ public class BloomFilter implements Serializable {
             }
         }
 
+        private void step(byte w) {
+            pathPtr++;
+            path.push(w);
+
+            byte leftChar = path.get(pathPtr - kmerSize);
+            updateHashForward(leftChar, w);
+        }
+
         protected boolean walkUpdate(byte... walk) {
             boolean ret = walk(walk);
             framePtr = pathPtr;
@@ -608,6 +671,27 @@ public class BloomFilter implements Serializable {
             return (pathPtr >= kmerSize);
         }
 
+        public NextCodon pushCodon(int codon) {
+            step((byte) (codon >> 4 & 0x3));
+            step((byte) (codon >> 2 & 0x3));
+            step((byte) (codon & 0x3));
+            framePtr = pathPtr;
+
+            return currentCodon();
+        }
+
+        public void popCodon() {
+            backup();
+            backup();
+            backup();
+            framePtr = pathPtr;
+        }
+
+        /**
+         * @return the codon made up of the last three characters in the path
+         */
+        protected abstract NextCodon currentCodon();
+
         /**
          * attempts to find a vertex with right-most character replaced, in
          * order defined in next[] if found, set state to that vertex and
@@ -753,6 +837,10 @@ public class BloomFilter implements Serializable {
             }
             framePtr = pathPtr;
 
+            return currentCodon();
+        }
+
+        protected NextCodon currentCodon() {
             int i = path.size();
             return new NextCodon(true, path.get(i - 3), path.get(i - 2), path.get(i - 1));
         }
@@ -817,6 +905,10 @@ public class BloomFilter implements Serializable {
             }
             framePtr = pathPtr;
 
+            return currentCodon();
+        }
+
+        protected NextCodon currentCodon() {
             int i = path.size();
             //Yes, we're using the last three from the kmer, an it does look
             //like this is the wrong order, but NextCodon needs them in the
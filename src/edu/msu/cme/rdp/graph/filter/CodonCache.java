@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lossy cache from a k-mer (identified by its forward and reverse
+ * complement hash values) to the set of codons that can follow it in the
+ * bloom filter.
+ *
+ * The set of codons is stored as a 64 bit bitmap where bit i is set if the
+ * codon with the packed value i (as returned by NextCodon.getCodon()) exists.
+ * Stop codons are never stored, so a valid bitmap is never all ones, which
+ * lets us use -1 as the missing value.
+ *
+ * The table is direct mapped, a newer entry simply replaces an older one in
+ * the same slot.  Keys are stored xor'd with their value so a reader can
+ * detect a torn write (key and value from different puts) without locking.
+ *
+ * Successors depend on the walk direction, so a cache must only be used with
+ * walkers of a single direction on a single bloom filter.
+ *
+ * @author fishjord
+ */
+public class CodonCache {
+
+    public static final long MISSING = -1L;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray values;
+    private final int mask;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CodonCache(int sizeLog2) {
+        if (sizeLog2 < 1 || sizeLog2 > 30) {
+            throw new IllegalArgumentException("Cache size must be between 2^1 and 2^30");
+        }
+
+        keys = new AtomicLongArray(1 << sizeLog2);
+        values = new AtomicLongArray(1 << sizeLog2);
+        mask = (1 << sizeLog2) - 1;
+    }
+
+    /**
+     * The key is the ordered pair of hashes, a k-mer and its reverse
+     * complement have different successors so they must not share an entry
+     */
+    private static long makeKey(long fwdHash, long rcHash) {
+        long key = fwdHash * 0x9E3779B97F4A7C15L ^ rcHash;
+        key ^= key >>> 31;
+
+        //Empty slots have key 0 (and value 0), so 0 can't be a real key
+        return (key == 0) ? 1 : key;
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * @return the codon bitmap for the k-mer or MISSING if it isn't cached
+     */
+    public long get(long fwdHash, long rcHash) {
+        long key = makeKey(fwdHash, rcHash);
+        int slot = slot(key);
+
+        long value = values.get(slot);
+        if ((keys.get(slot) ^ value) == key) {
+            hits.incrementAndGet();
+            return value;
+        }
+
+        misses.incrementAndGet();
+        return MISSING;
+    }
+
+    public void put(long fwdHash, long rcHash, long codons) {
+        if (codons == MISSING) {
+            throw new IllegalArgumentException("Can't cache the missing value");
+        }
+        long key = makeKey(fwdHash, rcHash);
+        int slot = slot(key);
+
+        values.set(slot, codons);
+        keys.set(slot, key ^ codons);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+
+        return (total == 0) ? 0 : (double) h / total;
+    }
+}
@@ -26,6 +26,11 @@ public interface CodonWalker {
 
     public void jumpTo(char[] s);
     public void jumpTo(Kmer kmer, long fwdHash, long rcHash);
+    /**
+     * Same as jumpTo(Kmer, long, long) but with the kmer (k <= 64) packed in
+     * to two longs, lo holding the last min(k, 32) bases and hi the rest
+     */
+    public void jumpTo(long kmerHi, long kmerLo, long fwdHash, long rcHash);
 
     public NextCodon getNextCodon();
     /**
@@ -38,6 +43,18 @@ public interface CodonWalker {
     public NextCodon getSibCodon();
     public boolean hasMoreCodons();
 
+    /**
+     * Walks the given codon (packed as in NextCodon.getCodon()) without
+     * checking the bloom filter, used when the successors are already known
+     *
+     * @return the codon walked
+     */
+    public NextCodon pushCodon(int codon);
+    /**
+     * Undoes the last pushCodon
+     */
+    public void popCodon();
+
     public Byte getNextNucl();
     public Byte getSibNucl();
     public boolean hasMoreNucl();
@@ -45,6 +62,11 @@ public interface CodonWalker {
     public long getFwdHash();
     public long getRcHash();
 
+    /**
+     * @return number of bloom filter lookups made by this walker
+     */
+    public long getProbeCount();
+
     /**
      *
      * @return the path starting from the char right after the original kmer,
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.filter;
+
+import edu.msu.cme.rdp.graph.search.ConcurrentPackedKmerSet;
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Profiles the graph to one side of a kmer (k &lt;= 64): how many distinct
+ * kmers are at each depth and how they branch.
+ *
+ * The walk is breadth first one depth at a time, so every kmer is counted
+ * once at the shortest depth it can be reached at.  The kmers at a depth are
+ * kept as packed kmers and hashes in a primitive array and handed out to the
+ * worker threads in small chunks, whichever thread is free takes the next
+ * chunk, so a few dense subtrees don't leave the other threads idle.
+ *
+ * Kmers are deduplicated on their forward and reverse complement hashes, the
+ * same pair the filter looks up, in a set shared by all the threads.  The
+ * pair isn't put in canonical order since the walk only extends kmers to the
+ * right, a kmer and its reverse complement lead to different places.  With a
+ * frame of 3 a kmer is seen once per codon phase, the same kmer in another
+ * phase starts different codons.
+ *
+ * A profiler can be reused, but only profiles one kmer at a time.
+ *
+ * @author fishjord
+ */
+public class GraphProfiler {
+
+    /**
+     * Counts by depth, depth 0 being the starting kmer
+     */
+    public static class Profile {
+
+        private final long[] nodesAtDepth;
+        private final long[] branchesAtDepth;
+        private final long[] deadEndsAtDepth;
+        private final long[] revisitsAtDepth;
+        private volatile int depthsDone;
+
+        /**
+         * @param maxDepth kmers at depth maxDepth and deeper aren't explored
+         */
+        public Profile(int maxDepth) {
+            nodesAtDepth = new long[maxDepth];
+            branchesAtDepth = new long[maxDepth];
+            deadEndsAtDepth = new long[maxDepth];
+            revisitsAtDepth = new long[maxDepth];
+        }
+
+        private void reset() {
+            Arrays.fill(nodesAtDepth, 0);
+            Arrays.fill(branchesAtDepth, 0);
+            Arrays.fill(deadEndsAtDepth, 0);
+            Arrays.fill(revisitsAtDepth, 0);
+            depthsDone = 0;
+        }
+
+        public int getMaxDepth() {
+            return nodesAtDepth.length;
+        }
+
+        /**
+         * @return number of depths fully explored so far
+         */
+        public int getDepthsDone() {
+            return depthsDone;
+        }
+
+        /**
+         * @return distinct kmers first reached at depth
+         */
+        public long getNodesAtDepth(int depth) {
+            return nodesAtDepth[depth];
+        }
+
+        /**
+         * @return edges out of the kmers at depth
+         */
+        public long getBranchesAtDepth(int depth) {
+            return branchesAtDepth[depth];
+        }
+
+        /**
+         * @return kmers at depth with nothing to their right
+         */
+        public long getDeadEndsAtDepth(int depth) {
+            return deadEndsAtDepth[depth];
+        }
+
+        /**
+         * @return edges out of the kmers at depth leading to a kmer already
+         * seen
+         */
+        public long getRevisitsAtDepth(int depth) {
+            return revisitsAtDepth[depth];
+        }
+
+        public double getBranchingFactor(int depth) {
+            return (double) branchesAtDepth[depth] / nodesAtDepth[depth];
+        }
+
+        public long getTotalNodes() {
+            return sum(nodesAtDepth);
+        }
+
+        public long getTotalBranches() {
+            return sum(branchesAtDepth);
+        }
+
+        public long getTotalDeadEnds() {
+            return sum(deadEndsAtDepth);
+        }
+
+        public long getTotalRevisits() {
+            return sum(revisitsAtDepth);
+        }
+
+        private static long sum(long[] arr) {
+            long ret = 0;
+            for (long l : arr) {
+                ret += l;
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * What one task saw of one depth
+     */
+    private static class DepthCounts {
+
+        long branches;
+        long deadEnds;
+        long revisits;
+        //Packed kmer hi, lo, forward hash, rc hash of the new kmers one deeper
+        long[] next = new long[STRIDE * 256];
+        int nextSize;
+
+        void add(long hi, long lo, long fwdHash, long rcHash) {
+            if (nextSize == next.length) {
+                next = Arrays.copyOf(next, next.length * 2);
+            }
+            next[nextSize++] = hi;
+            next[nextSize++] = lo;
+            next[nextSize++] = fwdHash;
+            next[nextSize++] = rcHash;
+        }
+    }
+    private static final int STRIDE = 4;
+    private static final int CHUNK_SIZE = 256;
+    private final BloomFilter bloom;
+    private final int k;
+    private final int frame;
+    private final int threads;
+    private final ExecutorService executor;
+
+    /**
+     * @param frame 1 to walk nucleotides, 3 to walk codons
+     */
+    public GraphProfiler(BloomFilter bloom, int frame, int threads) {
+        if (bloom.getKmerSize() > PackedKmer.MAX_K) {
+            throw new IllegalArgumentException("Can only profile graphs with k <= " + PackedKmer.MAX_K);
+        }
+        this.bloom = bloom;
+        this.k = bloom.getKmerSize();
+        this.frame = frame;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Explores the kmers to the right (or left) of kmer, filling in dest as
+     * each depth finishes
+     */
+    public Profile profile(char[] kmer, boolean right, Profile dest) throws InterruptedException {
+        if (!right) {
+            kmer = reverseComplement(kmer);
+        }
+
+        BloomFilter.GraphState state = bloom.new GraphState(kmer);
+        if (!state.hasCurrent()) {
+            throw new InvalidDNABaseException("kmer not in bloomfilter: " + new String(kmer));
+        }
+        PackedKmer start = new PackedKmer(kmer);
+
+        ConcurrentPackedKmerSet[] seen = new ConcurrentPackedKmerSet[frame];
+        for (int index = 0; index < frame; index++) {
+            seen[index] = new ConcurrentPackedKmerSet(threads);
+        }
+        seen[0].add(state.fwdHashValue, state.rcHashValue);
+
+        long[] kmers = new long[]{start.getHi(), start.getLo(), state.fwdHashValue, state.rcHashValue};
+        int size = STRIDE;
+
+        dest.reset();
+        for (int depth = 0; depth < dest.getMaxDepth() && size > 0; depth++) {
+            boolean last = depth + 1 == dest.getMaxDepth();
+            List<DepthCounts> results = exploreDepth(kmers, size, seen[(depth + 1) % frame], last);
+
+            dest.nodesAtDepth[depth] = size / STRIDE;
+            size = 0;
+            for (DepthCounts counts : results) {
+                dest.branchesAtDepth[depth] += counts.branches;
+                dest.deadEndsAtDepth[depth] += counts.deadEnds;
+                dest.revisitsAtDepth[depth] += counts.revisits;
+                size += counts.nextSize;
+            }
+
+            if (kmers.length < size) {
+                kmers = new long[size];
+            }
+            int offset = 0;
+            for (DepthCounts counts : results) {
+                System.arraycopy(counts.next, 0, kmers, offset, counts.nextSize);
+                offset += counts.nextSize;
+            }
+            dest.depthsDone = depth + 1;
+        }
+
+        return dest;
+    }
+
+    private List<DepthCounts> exploreDepth(final long[] kmers, final int size, final ConcurrentPackedKmerSet seen, final boolean last) throws InterruptedException {
+        final AtomicInteger nextChunk = new AtomicInteger();
+        int tasks = Math.min(threads, (size / STRIDE + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        List<Future<DepthCounts>> futures = new ArrayList();
+
+        for (int task = 0; task < tasks; task++) {
+            futures.add(executor.submit(new Callable<DepthCounts>() {
+
+                public DepthCounts call() {
+                    DepthCounts counts = new DepthCounts();
+                    PackedKmer scratch = new PackedKmer(k);
+                    int chunkStart;
+
+                    while ((chunkStart = nextChunk.getAndIncrement() * CHUNK_SIZE * STRIDE) < size) {
+                        int chunkEnd = Math.min(size, chunkStart + CHUNK_SIZE * STRIDE);
+                        for (int index = chunkStart; index < chunkEnd; index += STRIDE) {
+                            expand(kmers[index], kmers[index + 1], kmers[index + 2], kmers[index + 3], scratch, seen, last, counts);
+                        }
+                    }
+
+                    return counts;
+                }
+            }));
+        }
+
+        List<DepthCounts> ret = new ArrayList();
+        try {
+            for (Future<DepthCounts> future : futures) {
+                ret.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Graph profiling failed", e.getCause());
+        }
+
+        return ret;
+    }
+
+    /**
+     * Looks up the four possible kmers to the right, new ones are added to
+     * the next depth unless this is the last one
+     */
+    private void expand(long hi, long lo, long fwdHash, long rcHash, PackedKmer scratch, ConcurrentPackedKmerSet seen, boolean last, DepthCounts counts) {
+        byte out = scratch.set(hi, lo).get(0);
+        int branches = 0;
+
+        for (byte b = 0; b < 4; b++) {
+            long nextFwd = bloom.successorFwdHash(fwdHash, out, b);
+            long nextRc = bloom.successorRcHash(rcHash, out, b);
+            if (!bloom.hasKmer(nextFwd, nextRc)) {
+                continue;
+            }
+            branches++;
+
+            if (last) {
+                if (seen.contains(nextFwd, nextRc)) {
+                    counts.revisits++;
+                }
+            } else if (seen.add(nextFwd, nextRc)) {
+                scratch.set(hi, lo).shiftLeft(b);
+                counts.add(scratch.getHi(), scratch.getLo(), nextFwd, nextRc);
+            } else {
+                counts.revisits++;
+            }
+        }
+
+        counts.branches += branches;
+        if (branches == 0) {
+            counts.deadEnds++;
+        }
+    }
+
+    static char[] reverseComplement(char[] kmer) {
+        char[] ret = new char[kmer.length];
+        for (int index = 0; index < kmer.length; index++) {
+            byte b = NuclBinMapping.validateLookup[kmer[index]];
+            if (b == -1) {
+                throw new InvalidDNABaseException("Input contains non nucleotide character: " + kmer[index]);
+            }
+            ret[kmer.length - 1 - index] = NuclBinMapping.intToChar[NuclBinMapping.complementLookup[b]];
+        }
+
+        return ret;
+    }
+
+    public int getFrame() {
+        return frame;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
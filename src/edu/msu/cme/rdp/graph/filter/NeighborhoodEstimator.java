@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.filter;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import java.util.Random;
+
+/**
+ * Estimates how big the graph to one side of a kmer (k &lt;= 64) is without
+ * exploring it, so seeds that would run past the search time limit can be
+ * spotted up front.
+ *
+ * Uses Knuth's tree size estimator: a probe walks from the kmer taking a
+ * random branch at every step, multiplying together the number of branches
+ * seen so far.  The product at depth d is an unbiased estimate of the number
+ * of paths that reach depth d, the average over many probes converges on
+ * the number of nodes in the tree of paths within the depth.  The searches
+ * explore paths rather than distinct kmers, so that's the number wanted
+ * here, unlike GraphProfiler.
+ *
+ * Each probe is at most depth steps of four filter lookups.  Not thread
+ * safe, give each thread its own.
+ *
+ * @author fishjord
+ */
+public class NeighborhoodEstimator {
+
+    public static class Estimate {
+
+        private final double[] nodesAtDepth;
+        private double branching;
+        private double probeLength;
+
+        private Estimate(int depth) {
+            nodesAtDepth = new double[depth];
+        }
+
+        /**
+         * @return estimated number of paths from the kmer within the depth,
+         * counting the kmer itself
+         */
+        public double getNodes() {
+            double ret = 0;
+            for (double d : nodesAtDepth) {
+                ret += d;
+            }
+            return ret;
+        }
+
+        public double getNodesAtDepth(int depth) {
+            return nodesAtDepth[depth];
+        }
+
+        public int getDepth() {
+            return nodesAtDepth.length;
+        }
+
+        /**
+         * @return average number of branches out of the kmers the probes
+         * walked through
+         */
+        public double getBranchingFactor() {
+            return branching;
+        }
+
+        /**
+         * @return average depth the probes reached before a dead end (or the
+         * depth limit)
+         */
+        public double getProbeLength() {
+            return probeLength;
+        }
+    }
+    private final BloomFilter bloom;
+    private final int k;
+    private final int probes;
+    private final Random random;
+    private final PackedKmer scratch;
+    private final long[] nextFwd = new long[4];
+    private final long[] nextRc = new long[4];
+    private final byte[] nextBase = new byte[4];
+
+    public NeighborhoodEstimator(BloomFilter bloom, int probes) {
+        this(bloom, probes, 1);
+    }
+
+    /**
+     * @param seed for the random number generator, the same seed gives the
+     * same estimates
+     */
+    public NeighborhoodEstimator(BloomFilter bloom, int probes, long seed) {
+        if (bloom.getKmerSize() > PackedKmer.MAX_K) {
+            throw new IllegalArgumentException("Can only estimate graphs with k <= " + PackedKmer.MAX_K);
+        }
+        this.bloom = bloom;
+        this.k = bloom.getKmerSize();
+        this.probes = probes;
+        this.random = new Random(seed);
+        this.scratch = new PackedKmer(k);
+    }
+
+    /**
+     * Estimates the paths within depth nucleotides to the right (or left) of
+     * kmer
+     */
+    public Estimate estimate(char[] kmer, boolean right, int depth) {
+        if (!right) {
+            kmer = GraphProfiler.reverseComplement(kmer);
+        }
+
+        BloomFilter.GraphState state = bloom.new GraphState(kmer);
+        if (!state.hasCurrent()) {
+            throw new InvalidDNABaseException("kmer not in bloomfilter: " + new String(kmer));
+        }
+        PackedKmer start = new PackedKmer(kmer);
+
+        Estimate ret = new Estimate(depth);
+        long steps = 0;
+        long branches = 0;
+        long probeLengths = 0;
+
+        for (int probe = 0; probe < probes && depth > 0; probe++) {
+            long hi = start.getHi(), lo = start.getLo();
+            long fwdHash = state.fwdHashValue, rcHash = state.rcHashValue;
+            double weight = 1;
+
+            ret.nodesAtDepth[0] += 1;
+            int d;
+            for (d = 1; d < depth; d++) {
+                int count = successors(hi, lo, fwdHash, rcHash);
+                steps++;
+                branches += count;
+                if (count == 0) {
+                    break;
+                }
+
+                weight *= count;
+                ret.nodesAtDepth[d] += weight;
+
+                int pick = (count == 1) ? 0 : random.nextInt(count);
+                scratch.set(hi, lo).shiftLeft(nextBase[pick]);
+                hi = scratch.getHi();
+                lo = scratch.getLo();
+                fwdHash = nextFwd[pick];
+                rcHash = nextRc[pick];
+            }
+            probeLengths += d - 1;
+        }
+
+        for (int index = 0; index < depth; index++) {
+            ret.nodesAtDepth[index] /= probes;
+        }
+        ret.branching = (steps == 0) ? 0 : (double) branches / steps;
+        ret.probeLength = (double) probeLengths / probes;
+
+        return ret;
+    }
+
+    /**
+     * Fills in the next arrays with the kmers to the right
+     *
+     * @return how many there are
+     */
+    private int successors(long hi, long lo, long fwdHash, long rcHash) {
+        byte out = scratch.set(hi, lo).get(0);
+        int count = 0;
+
+        for (byte b = 0; b < 4; b++) {
+            long fwd = bloom.successorFwdHash(fwdHash, out, b);
+            long rc = bloom.successorRcHash(rcHash, out, b);
+            if (bloom.hasKmer(fwd, rc)) {
+                nextFwd[count] = fwd;
+                nextRc[count] = rc;
+                nextBase[count] = b;
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
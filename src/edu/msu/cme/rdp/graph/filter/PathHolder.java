@@ -43,6 +43,26 @@ public class PathHolder {
         size = k;
     }
 
+    /**
+     * Initialize from a kmer of length k <= 64 packed in to two longs, lo holds
+     * the last min(k, 32) bases and hi the first k - 32 (if any)
+     */
+    public void init(long hi, long lo, int k) {
+        if (k <= 32) {
+            path[0] = lo;
+        } else if (k == 64) {
+            path[0] = hi;
+            path[1] = lo;
+        } else {
+            int r = k - 32;
+            path[0] = (hi << (64 - 2 * r)) | (lo >>> (2 * r));
+            path[1] = lo & ((1L << (2 * r)) - 1);
+        }
+        ptr = k / 32;
+        cap = 32 - k % 32;
+        size = k;
+    }
+
     public void push(byte twobits) {
         if (cap == 0) {
             ptr++;
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2013 Jordan Fish <fishjord at msu.edu>
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
@@ -17,133 +17,385 @@
 package edu.msu.cme.rdp.graph.sandbox;
 
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
-import edu.msu.cme.rdp.graph.filter.CodonWalker;
-import edu.msu.cme.rdp.kmer.trie.KmerGenerator;
+import edu.msu.cme.rdp.graph.search.PackedKmerSet;
 import edu.msu.cme.rdp.readseq.readers.SeqReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
 import edu.msu.cme.rdp.readseq.writers.FastaWriter;
-import edu.msu.cme.rdp.graph.filter.InvalidDNABaseException;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Assembles everything reachable to the right of a bait sequence.
+ *
+ * The walk starts from the bait's last kmer that's in the filter and goes
+ * depth first, one unitig (run of kmers with a single way forward) at a
+ * time.  The path is a byte array of bases shared by every branch, the stack
+ * only holds the branch points: where the path was cut and which bases are
+ * left to try there.  Every kmer is entered once (on either strand), a
+ * contig is written for every path that ends: at a dead end, at maxDepth
+ * bases past the starting kmer or where every way forward has already been
+ * walked.
+ *
+ * An assembler only reads the filter, so one can assemble from any number
+ * of threads.
  *
  * @author Jordan Fish <fishjord at msu.edu>
  */
 public class BaitedAssembly {
 
+    /**
+     * The contigs from one bait
+     */
+    public static class Assembly {
+
+        private final Sequence bait;
+        private final List<String> contigs;
+        private final long time;
+
+        Assembly(Sequence bait, List<String> contigs, long time) {
+            this.bait = bait;
+            this.contigs = contigs;
+            this.time = time;
+        }
+
+        public Sequence getBait() {
+            return bait;
+        }
+
+        public List<String> getContigs() {
+            return contigs;
+        }
+
+        /**
+         * @return ms spent assembling
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+    public static final int DEFAULT_MAX_DEPTH = 1000;
+    //Same order the codon walkers try bases in, so the contigs come out in the same order
+    private static final byte[] WALK_ORDER = {NuclBinMapping.a, NuclBinMapping.t, NuclBinMapping.g, NuclBinMapping.c};
+    public static final int BATCH_SIZE = 16;
     private final BloomFilter bloom;
-    private final BloomFilter.GraphState state;
-    private static final int maxDepth = 1000;
+    private final int k;
+    private final int maxDepth;
 
     public BaitedAssembly(BloomFilter bloom) {
+        this(bloom, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param maxDepth longest path, in bases past the starting kmer
+     */
+    public BaitedAssembly(BloomFilter bloom, int maxDepth) {
         this.bloom = bloom;
-        state = bloom.new GraphState();
+        this.k = bloom.getKmerSize();
+        this.maxDepth = maxDepth;
     }
 
-    private void dfs(CodonWalker walker, List<String> assemblies, Set<Long> visited) {
-        Byte base = walker.getNextNucl();
-        long fwd, rc, hash;
+    /**
+     * The depth first walk over unitigs from one kmer
+     */
+    private class Walk {
 
-        if (base == null || walker.getLength() > maxDepth) {
-            if(walker.getLength() > 0) {
-                assemblies.add(walker.getPathString());
-            }
-            return;
+        private final PackedKmerSet visited = new PackedKmerSet();
+        //Bases of the starting kmer followed by the current path
+        private byte[] path;
+        private int length;
+        private long fwdHash, rcHash;
+        //Branch points: path length, hashes of the kmer ending there, bases left to try (bit per base)
+        private int[] branchLengths = new int[16];
+        private long[] branchFwd = new long[16];
+        private long[] branchRc = new long[16];
+        private byte[] branchBases = new byte[16];
+        private int branches = 0;
+
+        Walk(byte[] kmer, long fwdHash, long rcHash) {
+            path = Arrays.copyOf(kmer, Math.max(kmer.length * 2, 256));
+            length = kmer.length;
+            this.fwdHash = fwdHash;
+            this.rcHash = rcHash;
+            visit(fwdHash, rcHash);
         }
 
-        fwd = walker.getFwdHash();
-        rc = walker.getRcHash();
-        hash = (fwd < rc) ? fwd : rc;
+        private boolean visit(long fwd, long rc) {
+            return (fwd > rc) ? visited.add(fwd, rc) : visited.add(rc, fwd);
+        }
 
-        if(visited.contains(hash)) {
-            return;
+        /**
+         * @return the unvisited bases out of the current kmer (bit per base),
+         * not marked visited yet
+         */
+        private int nextBases(long fromFwd, long fromRc, int fromLength) {
+            byte out = path[fromLength - k];
+            int ret = 0;
+            for (byte b = 0; b < 4; b++) {
+                long fwd = bloom.successorFwdHash(fromFwd, out, b);
+                long rc = bloom.successorRcHash(fromRc, out, b);
+                if (bloom.hasKmer(fwd, rc) && !isVisited(fwd, rc)) {
+                    ret |= 1 << b;
+                }
+            }
+            return ret;
         }
 
-        visited.add(hash);
+        private boolean isVisited(long fwd, long rc) {
+            return (fwd > rc) ? visited.contains(fwd, rc) : visited.contains(rc, fwd);
+        }
 
-        do {
-            dfs(walker, assemblies, visited);
-        } while(walker.getSibNucl() != null);
-    }
+        /**
+         * Walks base b from the kmer ending at fromLength (the path is cut
+         * back there first)
+         *
+         * @return false if the kmer was already visited
+         */
+        private boolean step(long fromFwd, long fromRc, int fromLength, byte b) {
+            byte out = path[fromLength - k];
+            long fwd = bloom.successorFwdHash(fromFwd, out, b);
+            long rc = bloom.successorRcHash(fromRc, out, b);
+            if (!visit(fwd, rc)) {
+                return false;
+            }
 
-    public List<String> assemble(Sequence bait) {
-        char[] kmer = null;
-
-        //We want to add the bait sequence to the assembly, so we need to know which kmer we started assembling from
-        //The assembly algorithm does not return the starting kmer, so the starting offset is the end of the first kmer
-        int offset = bloom.getKmerSize();
-        int finalOffset = offset;
-        for (char[] k : new KmerGenerator(bait.getSeqString(), bloom.getKmerSize())) {
-
-            try {
-                state.setState(k);
-                if (state.hasCurrent()) {
-                    finalOffset = offset;
-                    kmer = k;
+            if (fromLength == path.length) {
+                path = Arrays.copyOf(path, path.length * 2);
+            }
+            path[fromLength] = b;
+            length = fromLength + 1;
+            fwdHash = fwd;
+            rcHash = rc;
+            return true;
+        }
+
+        private byte firstBase(int bases) {
+            for (byte b : WALK_ORDER) {
+                if ((bases & (1 << b)) != 0) {
+                    return b;
                 }
-            } catch (InvalidDNABaseException e) {
             }
-            offset++;
+            throw new IllegalArgumentException("No bases left");
         }
 
-        List<String> assemblies = new ArrayList();
+        private void pushBranch(int bases) {
+            if (branches == branchLengths.length) {
+                int cap = branches * 2;
+                branchLengths = Arrays.copyOf(branchLengths, cap);
+                branchFwd = Arrays.copyOf(branchFwd, cap);
+                branchRc = Arrays.copyOf(branchRc, cap);
+                branchBases = Arrays.copyOf(branchBases, cap);
+            }
+            branchLengths[branches] = length;
+            branchFwd[branches] = fwdHash;
+            branchRc[branches] = rcHash;
+            branchBases[branches] = (byte) bases;
+            branches++;
+        }
 
-        if (kmer == null) {
-            return assemblies;
+        /**
+         * Follows the current unitig (and the first branch out of each
+         * branch point) until the path ends
+         */
+        private void extend() {
+            int bases;
+            while (length - k < maxDepth && (bases = nextBases(fwdHash, rcHash, length)) != 0) {
+                byte b = firstBase(bases);
+                bases &= ~(1 << b);
+                if (bases != 0) {
+                    pushBranch(bases);
+                }
+                step(fwdHash, rcHash, length, b);
+            }
         }
 
-        CodonWalker walker = bloom.new RightCodonFacade(kmer);
-        Set<Long> visited = new HashSet();
+        /**
+         * Backs up to the last branch point with a base left that hasn't
+         * been visited since the branch was pushed and walks it
+         *
+         * @return false if there are no more branches
+         */
+        private boolean nextBranch() {
+            while (branches > 0) {
+                int top = branches - 1;
+                int bases = branchBases[top];
+                byte b = firstBase(bases);
+                bases &= ~(1 << b);
 
-        dfs(walker, assemblies, visited);
+                if (bases == 0) {
+                    branches--;
+                } else {
+                    branchBases[top] = (byte) bases;
+                }
 
-        List<String> ret = new ArrayList();
-        for(String assembly : assemblies) {
-            ret.add(bait.getSeqString().substring(0, finalOffset) + assembly);
+                if (step(branchFwd[top], branchRc[top], branchLengths[top], b)) {
+                    return true;
+                }
+            }
+
+            return false;
         }
 
-        return ret;
+        void run(String prefix, List<String> contigs) {
+            do {
+                extend();
+                if (length > k) {
+                    contigs.add(toContig(prefix));
+                }
+            } while (nextBranch());
+        }
+
+        private String toContig(String prefix) {
+            StringBuilder ret = new StringBuilder(prefix.length() + length - k);
+            ret.append(prefix);
+            for (int index = k; index < length; index++) {
+                ret.append(NuclBinMapping.intToChar[path[index]]);
+            }
+            return ret.toString();
+        }
     }
 
-    public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
-            System.err.println("USAGE: BaitedAssembly <bloom_filter> <bait_seqs>");
-            System.exit(1);
+    /**
+     * @return the contigs, each starting with the bait up to the end of the
+     * starting kmer
+     */
+    public List<String> assemble(Sequence bait) {
+        String seq = bait.getSeqString();
+        BloomFilter.GraphState state = bloom.new GraphState();
+        byte[] kmer = new byte[k];
+        byte[] startKmer = null;
+        long startFwd = 0, startRc = 0;
+        int startEnd = 0;
+
+        //Roll the hashes along the bait, restarting after any non-acgt base
+        int valid = 0;
+        for (int index = 0; index < seq.length(); index++) {
+            char c = seq.charAt(index);
+            byte b = (c < 128) ? NuclBinMapping.validateLookup[c] : -1;
+            if (b == -1) {
+                valid = 0;
+                continue;
+            }
+
+            System.arraycopy(kmer, 1, kmer, 0, k - 1);
+            kmer[k - 1] = b;
+            if (++valid < k) {
+                continue;
+            } else if (valid == k) {
+                state.setState(seq.substring(index - k + 1, index + 1).toCharArray());
+            } else {
+                state.shiftRight(c);
+            }
+
+            if (state.hasCurrent()) {
+                startKmer = kmer.clone();
+                startFwd = state.getFwdHash();
+                startRc = state.getRcHash();
+                startEnd = index + 1;
+            }
+        }
+
+        List<String> contigs = new ArrayList();
+        if (startKmer != null) {
+            new Walk(startKmer, startFwd, startRc).run(seq.substring(0, startEnd), contigs);
         }
 
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(args[0])));
-        BloomFilter bloom = (BloomFilter) ois.readObject();
-        ois.close();
+        return contigs;
+    }
 
-        SeqReader reader = new SequenceReader(new File(args[1]));
-        Sequence seq;
+    private Future<List<Assembly>> submit(final List<Sequence> batch, ExecutorService executor) {
+        return executor.submit(new Callable<List<Assembly>>() {
 
-        BaitedAssembly assembler = new BaitedAssembly(bloom);
+            public List<Assembly> call() {
+                List<Assembly> ret = new ArrayList();
+                for (Sequence bait : batch) {
+                    long startTime = System.currentTimeMillis();
+                    List<String> contigs = assemble(bait);
+                    ret.add(new Assembly(bait, contigs, System.currentTimeMillis() - startTime));
+                }
+                return ret;
+            }
+        });
+    }
 
-        FastaWriter out = new FastaWriter(System.out);
-        int contigs;
-        long startTime;
-
-        while ((seq = reader.readNextSequence()) != null) {
-            contigs = 1;
-            startTime = System.currentTimeMillis();
-            for (String assembly : assembler.assemble(seq)) {
-                out.writeSeq(seq.getSeqName() + "_contig_" + contigs, assembly);
-                System.err.println(seq.getSeqName() + "\t" + contigs + "\t" + assembly.length() + "\t" + (System.currentTimeMillis() - startTime) / 1000.0f);
+    private static void write(Future<List<Assembly>> result, FastaWriter out) throws IOException, InterruptedException, ExecutionException {
+        for (Assembly assembly : result.get()) {
+            String name = assembly.getBait().getSeqName();
+            int contigs = 1;
+            for (String contig : assembly.getContigs()) {
+                out.writeSeq(name + "_contig_" + contigs, contig);
+                System.err.println(name + "\t" + contigs + "\t" + contig.length() + "\t" + assembly.getTime() / 1000.0f);
                 contigs++;
             }
         }
+    }
+
+    /**
+     * Assembles batches of baits on a pool of threads, the contigs are
+     * written in bait order with at most 2 batches per thread in flight
+     */
+    public void assembleAll(SeqReader reader, FastaWriter out, int threads) throws IOException, InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<List<Assembly>>> pending = new LinkedList();
+
+        try {
+            List<Sequence> batch = new ArrayList(BATCH_SIZE);
+            Sequence seq;
 
-        out.close();
+            while ((seq = reader.readNextSequence()) != null) {
+                batch.add(seq);
 
-        reader.close();
+                if (batch.size() == BATCH_SIZE) {
+                    pending.add(submit(batch, executor));
+                    batch = new ArrayList(BATCH_SIZE);
+
+                    if (pending.size() > threads * 2) {
+                        write(pending.removeFirst(), out);
+                    }
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                pending.add(submit(batch, executor));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.removeFirst(), out);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("USAGE: BaitedAssembly <bloom_filter> <bait_seqs> [#threads]");
+            System.exit(1);
+        }
+
+        BloomFilter bloom = BloomFilter.fromFile(new File(args[0]));
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 3) {
+            threads = Integer.valueOf(args[2]);
+        }
+
+        SeqReader reader = new SequenceReader(new File(args[1]));
+        FastaWriter out = new FastaWriter(System.out);
+
+        try {
+            new BaitedAssembly(bloom).assembleAll(reader, out, threads);
+        } finally {
+            out.close();
+            reader.close();
+        }
     }
 }
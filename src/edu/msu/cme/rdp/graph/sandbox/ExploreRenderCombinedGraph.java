@@ -26,6 +26,7 @@ import edu.msu.cme.rdp.graph.filter.BloomFilter;
 import edu.msu.cme.rdp.graph.filter.CodonWalker;
 import edu.msu.cme.rdp.graph.search.AStarNode;
 import edu.msu.cme.rdp.graph.search.NodeEnumerator;
+import edu.msu.cme.rdp.graph.search.PackedKmerSet;
 import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
@@ -97,10 +98,10 @@ public class ExploreRenderCombinedGraph {
 		break;
 	    }
             int radius = prev.indels;
-            char[] kmer = prev.kmer.toString().toCharArray();
+            char[] kmer = prev.getKmer().toString().toCharArray();
             //System.err.println(new String(kmer));
 
-            walker.jumpTo(prev.kmer, prev.fwdHash, prev.rcHash);
+            walker.jumpTo(prev.kmerHi, prev.kmerLo, prev.fwdHash, prev.rcHash);
             char[] emission;
 
             if (prot) {
@@ -125,7 +126,7 @@ public class ExploreRenderCombinedGraph {
             }
 
 
-            for (AStarNode next : enumerator.enumerateNodes(prev, walker, new HashSet())) {
+            for (AStarNode next : enumerator.enumerateNodes(prev, walker, new PackedKmerSet())) {
                 /*if(next.state != 'm') {
                  if(!allowGaps || radius < 20) {
                  continue;
@@ -155,7 +156,7 @@ public class ExploreRenderCombinedGraph {
 
     private String getId(AStarNode node) {
         StringBuilder ret = new StringBuilder();
-        char[] kmer = node.kmer.toString().toCharArray();
+        char[] kmer = node.getKmer().toString().toCharArray();
 
         ret.append(kmer).append("_").append(node.stateNo).append(node.state);
         return ret.toString();
@@ -167,7 +168,7 @@ public class ExploreRenderCombinedGraph {
 
     private String getNodeLabel(AStarNode node, int radius) {
         StringBuilder ret = new StringBuilder();
-        char[] kmer = node.kmer.toString().toCharArray();
+        char[] kmer = node.getKmer().toString().toCharArray();
 
         ret.append(getId(node));
 
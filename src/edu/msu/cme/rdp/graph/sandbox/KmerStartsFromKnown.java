@@ -16,6 +16,10 @@
  */
 package edu.msu.cme.rdp.graph.sandbox;
 
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.filter.InvalidDNABaseException;
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import edu.msu.cme.rdp.graph.utils.SeedFile;
 import edu.msu.cme.rdp.kmer.io.KmerStart;
 import edu.msu.cme.rdp.kmer.io.KmerStartsWriter;
 import edu.msu.cme.rdp.kmer.trie.KmerTrie;
@@ -26,14 +30,29 @@ import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
 import edu.msu.cme.rdp.readseq.utils.SeqUtils;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.PosixParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.CommandLine;
 
 /**
+ * Writes the starting kmers (kmer + model position) in a set of aligned
+ * reference sequences.
+ *
+ * With a bloom filter only the kmers present in the sample are kept, each
+ * (kmer, model position) once with the number of times it was seen, and the
+ * seeds are written as a binary SeedFile.  Reference files are processed in
+ * parallel in this mode.
  *
  * @author fishjord
  */
@@ -45,15 +64,135 @@ public class KmerStartsFromKnown {
         options.addOption("o", "out", true, "Redirect output to file");
         options.addOption("t", "transl-kmer", false, "Translate nucleotide kmers to protein (output protein start points)");
         options.addOption("T", "transl-table", true, "Translation table to use when translating nucleotide to protein sequences");
+        options.addOption("b", "bloom", true, "Only keep kmers in this bloom filter, deduplicated, written as a binary seed file");
+        options.addOption("p", "threads", true, "Number of reference files to process at once with --bloom (default = #processors)");
     }
 
-    ;
+    private static String getRefName(String refArg) {
+        if (refArg.contains("=")) {
+            return refArg.split("=")[0];
+        }
+
+        String tmpName = new File(refArg).getName();
+        if (tmpName.contains(".")) {
+            return tmpName.substring(0, tmpName.lastIndexOf("."));
+        }
+        return tmpName;
+    }
+
+    private static File getRefFile(String refArg) throws Exception {
+        File refFile = new File(refArg.contains("=") ? refArg.split("=")[1] : refArg);
+
+        if (SeqUtils.guessSequenceType(refFile) != SequenceType.Nucleotide) {
+            throw new Exception("Reference file " + refFile + " contains " + SeqUtils.guessFileFormat(refFile) + " sequences but expected nucleotide sequences");
+        }
+
+        return refFile;
+    }
+
+    /**
+     * The reference kmers present in the bloom filter.  Consecutive kmers from
+     * the generator usually overlap by k - 1 bases, then the filter state is
+     * rolled one base instead of rehashing the whole kmer.
+     */
+    private static SeedFile.SeedSet findSeeds(File refFile, BloomFilter bloom, boolean translQuery) throws IOException {
+        int k = bloom.getKmerSize();
+        SeedFile.SeedSet seeds = new SeedFile.SeedSet();
+        BloomFilter.GraphState state = bloom.new GraphState();
+        PackedKmer packed = new PackedKmer(k);
+        char[] prev = new char[k];
+
+        SequenceReader seqReader = new SequenceReader(refFile);
+        Sequence seq;
+
+        while ((seq = seqReader.readNextSequence()) != null) {
+            if (seq.getSeqName().startsWith("#")) {
+                continue;
+            }
+            ModelPositionKmerGenerator kmers = new ModelPositionKmerGenerator(seq.getSeqString(), k, SequenceType.Nucleotide);
+            boolean rolling = false;
+
+            for (char[] charmer : kmers) {
+                try {
+                    if (rolling && overlaps(prev, charmer)) {
+                        state.shiftRight(charmer[k - 1]);
+                    } else {
+                        state.setState(charmer);
+                    }
+                    packed.set(charmer);
+                } catch (InvalidDNABaseException e) {
+                    rolling = false;
+                    continue;
+                }
+                System.arraycopy(charmer, 0, prev, 0, k);
+                rolling = true;
+
+                int pos = kmers.getModelPosition() - 1;
+                if (translQuery) {
+                    if (pos % 3 != 0) {
+                        continue;
+                    } else {
+                        pos /= 3;
+                    }
+                }
+
+                if (state.hasCurrent()) {
+                    seeds.add(packed, pos);
+                }
+            }
+        }
+        seqReader.close();
+
+        return seeds;
+    }
+
+    /**
+     * @return true if next is prev shifted left by one base
+     */
+    private static boolean overlaps(char[] prev, char[] next) {
+        for (int index = 1; index < prev.length; index++) {
+            if (Character.toLowerCase(prev[index]) != Character.toLowerCase(next[index - 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeSeeds(String[] refArgs, final BloomFilter bloom, final boolean translQuery, int threads, SeedFile.Writer out) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<SeedFile.SeedSet>> results = new ArrayList();
+
+        try {
+            for (int index = 1; index < refArgs.length; index++) {
+                final File refFile = getRefFile(refArgs[index]);
+                results.add(executor.submit(new Callable<SeedFile.SeedSet>() {
+
+                    public SeedFile.SeedSet call() throws IOException {
+                        return findSeeds(refFile, bloom, translQuery);
+                    }
+                }));
+            }
+
+            for (int index = 1; index < refArgs.length; index++) {
+                SeedFile.SeedSet seeds = results.get(index - 1).get();
+                String refName = getRefName(refArgs[index]);
+                out.write(refName, seeds);
+                System.err.println(refName + ": " + seeds.size() + " seeds in the bloom filter");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        out.close();
+    }
 
     public static void main(String[] args) throws Exception {
         final KmerStartsWriter out;
+        final SeedFile.Writer seedOut;
+        final BloomFilter bloom;
         final boolean translQuery;
         final int wordSize;
         final int translTable;
+        final int threads;
 
         try {
             CommandLine cmdLine = new PosixParser().parse(options, args);
@@ -63,21 +202,46 @@ public class KmerStartsFromKnown {
                 throw new Exception("Unexpected number of arguments");
             }
 
-            if (cmdLine.hasOption("out")) {
-                out = new KmerStartsWriter(cmdLine.getOptionValue("out"));
-            } else {
-                out = new KmerStartsWriter(System.out);
-            }
-
             if (cmdLine.hasOption("transl-table")) {
                 translTable = Integer.valueOf(cmdLine.getOptionValue("transl-table"));
             } else {
                 translTable = 11;
             }
 
+            if (cmdLine.hasOption("threads")) {
+                threads = Integer.valueOf(cmdLine.getOptionValue("threads"));
+            } else {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+
             translQuery = cmdLine.hasOption("transl-kmer");
             wordSize = Integer.valueOf(args[0]);
 
+            if (cmdLine.hasOption("bloom")) {
+                bloom = BloomFilter.fromFile(new File(cmdLine.getOptionValue("bloom")));
+                if (bloom.getKmerSize() != wordSize) {
+                    throw new Exception("Word size " + wordSize + " doesn't match the bloom filter's kmer size " + bloom.getKmerSize());
+                }
+                if (wordSize > PackedKmer.MAX_K) {
+                    throw new Exception("Word size must be at most " + PackedKmer.MAX_K + " to write a seed file");
+                }
+
+                out = null;
+                if (cmdLine.hasOption("out")) {
+                    seedOut = new SeedFile.Writer(new FileOutputStream(cmdLine.getOptionValue("out")), wordSize, translQuery, translTable);
+                } else {
+                    seedOut = new SeedFile.Writer(System.out, wordSize, translQuery, translTable);
+                }
+            } else {
+                bloom = null;
+                seedOut = null;
+                if (cmdLine.hasOption("out")) {
+                    out = new KmerStartsWriter(cmdLine.getOptionValue("out"));
+                } else {
+                    out = new KmerStartsWriter(System.out);
+                }
+            }
+
         } catch (Exception e) {
             new HelpFormatter().printHelp("KmerStartsFromKnown <word_size> [name=]<ref_file> ...", options);
             System.err.println(e.getMessage());
@@ -98,28 +262,16 @@ public class KmerStartsFromKnown {
         System.err.println("*  References:              " + Arrays.asList(args));
         System.err.println("*  Kmer length:             " + wordSize);
 
+        if (bloom != null) {
+            System.err.println("*  Threads:                 " + threads);
+            writeSeeds(args, bloom, translQuery, threads, seedOut);
+            System.err.println("Seeds written in " + (System.currentTimeMillis() - startTime) + " ms");
+            return;
+        }
 
         for (int index = 1; index < args.length; index++) {
-            String refName;
-            String refFileName = args[index];
-            if (refFileName.contains("=")) {
-                String[] lexemes = refFileName.split("=");
-                refName = lexemes[0];
-                refFileName = lexemes[1];
-            } else {
-                String tmpName = new File(refFileName).getName();
-                if (tmpName.contains(".")) {
-                    refName = tmpName.substring(0, tmpName.lastIndexOf("."));
-                } else {
-                    refName = tmpName;
-                }
-            }
-
-            File refFile = new File(refFileName);
-
-            if (SeqUtils.guessSequenceType(refFile) != SequenceType.Nucleotide) {
-                throw new Exception("Reference file " + refFile + " contains " + SeqUtils.guessFileFormat(refFile) + " sequences but expected nucleotide sequences");
-            }
+            String refName = getRefName(args[index]);
+            File refFile = getRefFile(args[index]);
 
             SequenceReader seqReader = new SequenceReader(refFile);
             Sequence seq;
@@ -17,7 +17,7 @@
 package edu.msu.cme.rdp.graph.sandbox;
 
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
-import edu.msu.cme.rdp.graph.filter.CodonWalker;
+import edu.msu.cme.rdp.graph.filter.GraphProfiler;
 import edu.msu.cme.rdp.kmer.io.KmerStart;
 import edu.msu.cme.rdp.kmer.io.KmerStartsReader;
 import java.io.BufferedInputStream;
@@ -25,8 +25,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.ObjectInputStream;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  *
@@ -34,32 +32,30 @@ import java.util.Set;
  */
 public class NodeCounter {
 
-    public static int countNodes(CodonWalker walker, Set<Long> seenHashes, boolean prot, int radius) {
-        if(radius <= 0) {
+    /**
+     * Counts the distinct kmers within radius nucleotides, or codons, of the
+     * starting kmer including the kmer itself.  Codons are in frame with the
+     * starting kmer, so the first codon finishes once the kmer's trailing
+     * partial codon is filled in.
+     */
+    public static long countNodes(GraphProfiler profiler, char[] kmer, boolean right, int radius) throws InterruptedException {
+        if (radius <= 0) {
             return 0;
         }
 
-        int ret = 1;
-
-        if(prot) {
-            if(walker.getNextCodon() != null) {
-                ret += countNodes(walker, seenHashes, prot, radius - 1);
-            }
-
-            while(walker.getSibCodon() != null) {
-                if(walker.getNextCodon() != null) {
-                    ret += countNodes(walker, seenHashes, prot, radius - 1);
-                }
-            }
-        } else {
-            if(walker.getNextNucl()!= null) {
-                ret += countNodes(walker, seenHashes, prot, radius - 1);
-            }
+        int frame = profiler.getFrame();
+        int partialCodon = kmer.length % frame;
+        //Depth the radius - 1'th codon (or base) past the kmer ends at
+        int maxDepth = (radius - 1) * frame - partialCodon + 1;
+        if (radius == 1) {
+            maxDepth = 1;
+        }
 
-            while(walker.getSibNucl() != null) {
-                if(walker.getNextNucl() != null) {
-                    ret += countNodes(walker, seenHashes, prot, radius - 1);
-                }
+        GraphProfiler.Profile profile = profiler.profile(kmer, right, new GraphProfiler.Profile(maxDepth));
+        long ret = profile.getNodesAtDepth(0);
+        for (int depth = 1; depth < profile.getDepthsDone(); depth++) {
+            if ((depth + partialCodon) % frame == 0) {
+                ret += profile.getNodesAtDepth(depth);
             }
         }
 
@@ -67,8 +63,8 @@ public class NodeCounter {
     }
 
     public static void main(String[] args) throws Exception {
-        if (args.length != 3 && args.length != 4) {
-            System.err.println("USAGE: NodeCounter <bloom_filter> <kmer_starts> <model_length> [prot = true]");
+        if (args.length < 3 || args.length > 5) {
+            System.err.println("USAGE: NodeCounter <bloom_filter> <kmer_starts> <model_length> [prot = true] [#threads]");
             System.exit(1);
         }
 
@@ -76,9 +72,13 @@ public class NodeCounter {
         File kmerStarts = new File(args[1]);
         int radius = Integer.valueOf(args[2]);
         boolean prot = true;
-        if(args.length == 4) {
+        if(args.length >= 4) {
             prot = Boolean.valueOf(args[3]);
         }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if(args.length == 5) {
+            threads = Integer.valueOf(args[4]);
+        }
 
         long startTime;
 
@@ -93,12 +93,13 @@ public class NodeCounter {
         System.err.println("*  Bloom file:              " + bloomFile);
         System.err.println("*  Searching prot?:         " + prot);
         System.err.println("*  radius:                  " + radius);
+        System.err.println("*  Number of threads:       " + threads);
 
         startTime = System.currentTimeMillis();
 
         int kmerCount = 0;
-        int count;
-        CodonWalker walker;
+        long count;
+        GraphProfiler profiler = new GraphProfiler(bloom, (prot) ? 3 : 1, threads);
 
         KmerStart line;
         KmerStartsReader reader = new KmerStartsReader(kmerStarts);
@@ -115,19 +116,18 @@ public class NodeCounter {
 
 
                 timer = System.currentTimeMillis();
-                walker = bloom.new LeftCodonFacade(line.getNuclKmer());
-                count = countNodes(walker, new HashSet(), prot, Math.min(line.getMpos(), radius));
+                count = countNodes(profiler, line.getNuclKmer().toCharArray(), false, Math.min(line.getMpos(), radius));
                 System.out.println(line.getNuclKmer() + "\t" + line.getMpos() + "\tleft\t" + count + "\t" + (System.currentTimeMillis() - timer) / 1000.0 + "s");
 
                 timer = System.currentTimeMillis();
-                walker = bloom.new RightCodonFacade(line.getNuclKmer());
-                count = countNodes(walker, new HashSet(), prot, radius - line.getMpos());
+                count = countNodes(profiler, line.getNuclKmer().toCharArray(), true, radius - line.getMpos());
                 System.out.println(line.getNuclKmer()+ "\t" + line.getMpos() + "\tright\t" + count + "\t" + (System.currentTimeMillis() - timer) / 1000.0 + "s");
             }
 
             System.err.println("Finished processing " + kmerCount + " kmers in " + (System.currentTimeMillis() - startTime) / 1000.0 + "s");
         } finally {
             reader.close();
+            profiler.shutdown();
         }
 
     }
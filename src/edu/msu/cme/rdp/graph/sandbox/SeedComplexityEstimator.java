@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.sandbox;
+
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.filter.NeighborhoodEstimator;
+import edu.msu.cme.rdp.graph.search.SeedPlanner;
+import edu.msu.cme.rdp.kmer.io.KmerStart;
+import edu.msu.cme.rdp.kmer.io.KmerStartsReader;
+import java.io.File;
+import java.util.Date;
+
+/**
+ * Prints the estimated size of the graph to either side of every seed, to
+ * pick a -Dhmmgs.seed.max_paths for the searches
+ *
+ * @author fishjord
+ */
+public class SeedComplexityEstimator {
+
+    private static void print(String kmer, int mpos, String side, NeighborhoodEstimator.Estimate estimate, long time) {
+        System.out.println(kmer + "\t" + mpos + "\t" + side + "\t" + (float) estimate.getBranchingFactor() + "\t" + (float) estimate.getProbeLength()
+                + "\t" + (float) estimate.getNodes() + "\t" + time / 1000.0 + "s");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 3 && args.length != 4) {
+            System.err.println("USAGE: SeedComplexityEstimator <bloom_filter> <kmer_starts> [depth = " + SeedPlanner.DEFAULT_COMPLEXITY_DEPTH
+                    + "] [probes = " + SeedPlanner.DEFAULT_COMPLEXITY_PROBES + "]");
+            System.exit(1);
+        }
+
+        File bloomFile = new File(args[0]);
+        File kmerStarts = new File(args[1]);
+        int depth = SeedPlanner.DEFAULT_COMPLEXITY_DEPTH;
+        int probes = SeedPlanner.DEFAULT_COMPLEXITY_PROBES;
+        if (args.length >= 3) {
+            depth = Integer.valueOf(args[2]);
+        }
+        if (args.length == 4) {
+            probes = Integer.valueOf(args[3]);
+        }
+
+        long startTime = System.currentTimeMillis();
+        BloomFilter bloom = BloomFilter.fromFile(bloomFile);
+        System.err.println("Bloom filter loaded in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        System.err.println("Starting seed complexity estimation at " + new Date());
+        System.err.println("*  Kmer file:               " + kmerStarts);
+        System.err.println("*  Bloom file:              " + bloomFile);
+        System.err.println("*  Depth:                   " + depth);
+        System.err.println("*  Probes:                  " + probes);
+
+        NeighborhoodEstimator estimator = new NeighborhoodEstimator(bloom, probes);
+        System.out.println("#kmer\tmpos\tside\tbranching_factor\tprobe_length\test_paths\ttime");
+
+        startTime = System.currentTimeMillis();
+        int kmerCount = 0;
+        long timer;
+        KmerStart line;
+        KmerStartsReader reader = new KmerStartsReader(kmerStarts);
+
+        try {
+            while ((line = reader.readNext()) != null) {
+                kmerCount++;
+                char[] kmer = line.getNuclKmer().toCharArray();
+
+                try {
+                    timer = System.currentTimeMillis();
+                    NeighborhoodEstimator.Estimate estimate = estimator.estimate(kmer, false, depth);
+                    print(line.getNuclKmer(), line.getMpos(), "left", estimate, System.currentTimeMillis() - timer);
+
+                    timer = System.currentTimeMillis();
+                    estimate = estimator.estimate(kmer, true, depth);
+                    print(line.getNuclKmer(), line.getMpos(), "right", estimate, System.currentTimeMillis() - timer);
+                } catch (RuntimeException e) {
+                    System.err.println("Skipping line " + line + ": " + e.getMessage());
+                }
+            }
+
+            System.err.println("Finished processing " + kmerCount + " kmers in " + (System.currentTimeMillis() - startTime) / 1000.0 + "s");
+        } finally {
+            reader.close();
+        }
+    }
+}
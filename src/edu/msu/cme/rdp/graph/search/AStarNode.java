@@ -28,7 +28,12 @@ public class AStarNode implements Serializable, Comparable<AStarNode> {
 
     public boolean partial = true;
     public AStarNode discoveredFrom;
-    public final Kmer kmer;
+    /*
+     * The kmer is stored packed (see PackedKmer) so that creating and
+     * comparing nodes doesn't allocate kmer objects
+     */
+    public final long kmerHi, kmerLo;
+    public final int kmerLength;
     public final long fwdHash, rcHash;
     public double score;
     public final char state;
@@ -42,14 +47,31 @@ public class AStarNode implements Serializable, Comparable<AStarNode> {
     public char emission;
 
     public AStarNode(AStarNode discoveredFrom, Kmer kmer, long fwdHash, long rcHash, int stateNo, char state) {
+        this(discoveredFrom, new PackedKmer(kmer), fwdHash, rcHash, stateNo, state);
+    }
+
+    public AStarNode(AStarNode discoveredFrom, PackedKmer kmer, long fwdHash, long rcHash, int stateNo, char state) {
+        this(discoveredFrom, kmer.getHi(), kmer.getLo(), kmer.length(), fwdHash, rcHash, stateNo, state);
+    }
+
+    public AStarNode(AStarNode discoveredFrom, long kmerHi, long kmerLo, int kmerLength, long fwdHash, long rcHash, int stateNo, char state) {
         this.discoveredFrom = discoveredFrom;
         this.fwdHash = fwdHash;
         this.rcHash = rcHash;
-        this.kmer = kmer;
+        this.kmerHi = kmerHi;
+        this.kmerLo = kmerLo;
+        this.kmerLength = kmerLength;
         this.stateNo = stateNo;
         this.state = state;
     }
 
+    /**
+     * Unpacks the kmer, allocates so avoid calling this during the search
+     */
+    public Kmer getKmer() {
+        return new PackedKmer(kmerLength).set(kmerHi, kmerLo).toKmer();
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
@@ -60,7 +82,7 @@ public class AStarNode implements Serializable, Comparable<AStarNode> {
         }
         final AStarNode other = (AStarNode) obj;
 
-        if (!this.kmer.equals(other.kmer)) {
+        if (this.kmerHi != other.kmerHi || this.kmerLo != other.kmerLo) {
             return false;
         }
         if (this.state != other.state) {
@@ -76,7 +98,7 @@ public class AStarNode implements Serializable, Comparable<AStarNode> {
     public int hashCode() {
         int hash = 5;
 
-        hash = 13 * kmer.hashCode();
+        hash = 13 * PackedKmer.hashCode(kmerHi, kmerLo);
         hash = 13 * hash + this.state;
         hash = 13 * hash + this.stateNo;
         return hash;
@@ -84,7 +106,7 @@ public class AStarNode implements Serializable, Comparable<AStarNode> {
 
     @Override
     public String toString() {
-        return ((state == 'd') ? "-" : kmer.toString()) + " " + state + " " + stateNo + " " + " " + score + " " + fval;
+        return ((state == 'd') ? "-" : getKmer().toString()) + " " + state + " " + stateNo + " " + " " + score + " " + fval;
     }
 
     public int compareTo(AStarNode o) {
@@ -96,16 +118,7 @@ public class AStarNode implements Serializable, Comparable<AStarNode> {
         }
 
         if (ret == 0) {
-            char[] k1 = kmer.toString().toCharArray();
-            char[] k2 = o.kmer.toString().toCharArray();
-
-            for (int index = 0; index < k1.length; index++) {
-                if (k1[index] != k2[index]) {
-                    ret = k2[index] - k1[index];
-                    break;
-                }
-            }
-
+            ret = PackedKmer.compare(o.kmerHi, o.kmerLo, kmerHi, kmerLo);
         }
 
         if (ret == 0) {
@@ -16,7 +16,6 @@
  */
 package edu.msu.cme.rdp.graph.search;
 
-import edu.msu.cme.rdp.kmer.Kmer;
 import java.io.Serializable;
 import java.util.*;
 
@@ -37,7 +36,7 @@ public class CandidatePath implements Serializable, Comparable<CandidatePath> {
     private CandidatePath() {
     }
 
-    public CandidatePath(AStarNode goal, Set<Kmer> seenKmers) {
+    public CandidatePath(AStarNode goal, PackedKmerSet seenKmers) {
         //score = (int) (goal.score * AStar.INT_SCALE);
         if(goal.partial) {
             score = Double.NEGATIVE_INFINITY;
@@ -48,7 +47,7 @@ public class CandidatePath implements Serializable, Comparable<CandidatePath> {
         iscore = (int) (goal.score * HMMGraphSearch.INT_SCALE);
         while (goal != null) {
             path.add(goal);
-            seenKmers.add(goal.kmer);
+            seenKmers.add(goal.kmerHi, goal.kmerLo);
 
             goal = goal.discoveredFrom;
         }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+/**
+ * Thread safe set of (hi, lo) long pairs, packed kmers or a kmer's pair of
+ * hashes, split in to independently locked PackedKmerSet stripes so threads
+ * adding different pairs rarely wait on each other.
+ *
+ * @author fishjord
+ */
+public class ConcurrentPackedKmerSet {
+
+    private final PackedKmerSet[] stripes;
+    private final int stripeShift;
+
+    /**
+     * @param concurrency expected number of threads adding at once
+     */
+    public ConcurrentPackedKmerSet(int concurrency) {
+        int count = 1;
+        int bits = 0;
+        while (count < concurrency * 8) {
+            count <<= 1;
+            bits++;
+        }
+
+        stripes = new PackedKmerSet[count];
+        for (int index = 0; index < count; index++) {
+            stripes[index] = new PackedKmerSet();
+        }
+        //The stripes take the top bits, each stripe's table uses the low ones
+        stripeShift = 32 - bits;
+    }
+
+    private PackedKmerSet stripe(long hi, long lo) {
+        return (stripeShift == 32) ? stripes[0] : stripes[PackedKmer.hashCode(hi, lo) >>> stripeShift];
+    }
+
+    /**
+     * @return true if the pair wasn't already in the set
+     */
+    public boolean add(long hi, long lo) {
+        PackedKmerSet stripe = stripe(hi, lo);
+        synchronized (stripe) {
+            return stripe.add(hi, lo);
+        }
+    }
+
+    public boolean contains(long hi, long lo) {
+        PackedKmerSet stripe = stripe(hi, lo);
+        synchronized (stripe) {
+            return stripe.contains(hi, lo);
+        }
+    }
+
+    public long size() {
+        long ret = 0;
+        for (PackedKmerSet stripe : stripes) {
+            synchronized (stripe) {
+                ret += stripe.size();
+            }
+        }
+        return ret;
+    }
+
+    public void clear() {
+        for (PackedKmerSet stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+}
@@ -20,9 +20,10 @@ import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
 import edu.msu.cme.rdp.alignment.hmm.TSC;
 import edu.msu.cme.rdp.alignment.hmm.scoring.ForwardScorer;
 import edu.msu.cme.rdp.alignment.hmm.scoring.HMMScorer;
+import edu.msu.cme.rdp.graph.filter.CodonCache;
 import edu.msu.cme.rdp.graph.filter.CodonWalker;
 import edu.msu.cme.rdp.graph.filter.PathHolder;
-import edu.msu.cme.rdp.kmer.Kmer;
+import edu.msu.cme.rdp.graph.utils.GraphEvents;
 import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
 import java.io.IOException;
@@ -45,15 +46,33 @@ public class HMMGraphSearch {
     public static class HackTerminateException extends RuntimeException {
     }
     public static final int INT_SCALE = 10000; //This is the number of sigfigs in a HMMER3 model, so it works out quite nicely if you ask me
+    public static final int DEFAULT_CODON_CACHE_SIZE_LOG2 = 20;
     private static final int upperBound = Integer.MIN_VALUE;
     private final int maxk;
     private Map<AStarNode, List<AStarNode>> termNodes = new HashMap();
+    /*
+     * Codons following each kmer, one cache per direction since the left
+     * and right walkers see different successors.  They are only valid for a
+     * single bloom filter.
+     */
+    private final CodonCache leftCodonCache;
+    private final CodonCache rightCodonCache;
 
     //private PrintStream openedKmerStream;
     //private PrintStream closedKmerStream;
 
     public HMMGraphSearch(int maxk) {
+        this(maxk, new CodonCache(DEFAULT_CODON_CACHE_SIZE_LOG2), new CodonCache(DEFAULT_CODON_CACHE_SIZE_LOG2));
+    }
+
+    /**
+     * The codon caches can be shared between searchers using the same bloom
+     * filter, or null to disable caching
+     */
+    public HMMGraphSearch(int maxk, CodonCache leftCodonCache, CodonCache rightCodonCache) {
         this.maxk = maxk;
+        this.leftCodonCache = leftCodonCache;
+        this.rightCodonCache = rightCodonCache;
         /*
          * try { this.openedKmerStream = new
          * PrintStream("all_opened_kmers.txt"); this.closedKmerStream = new
@@ -63,14 +82,31 @@ public class HMMGraphSearch {
          */
     }
 
+    public CodonCache getLeftCodonCache() {
+        return leftCodonCache;
+    }
+
+    public CodonCache getRightCodonCache() {
+        return rightCodonCache;
+    }
+
     public List<SearchResult> search(SearchTarget target) throws InterruptedException {
+        return search(target, new SearchStats(target));
+    }
+
+    /**
+     * Same as search(SearchTarget) but records the work done in each
+     * direction to stats, the stats are filled in even if the search is
+     * terminated
+     */
+    public List<SearchResult> search(SearchTarget target, SearchStats stats) throws InterruptedException {
         String framedKmer = target.getKmer();
         int frame = target.getFrame();
         List<SearchResult> ret = new ArrayList();
 
         int lStartingState = target.getReverseHmm().M() - target.getStartState() - target.getKmer().length() / ((target.isProt()) ? 3 : 1);
 
-        List<PartialResult> leftParts = kpathsSearch(target.getReverseHmm(), lStartingState, framedKmer, target.getFilter().new LeftCodonFacade(target.getKmer()), false);
+        List<PartialResult> leftParts = kpathsSearch(target.getReverseHmm(), lStartingState, framedKmer, target.getFilter().new LeftCodonFacade(target.getKmer()), false, stats.getLeft());
         for (PartialResult r : leftParts) {
             String nuclSeq = r.maxSeq + framedKmer;
             String alignment = r.alignment + framedKmer.toUpperCase();
@@ -90,7 +126,7 @@ public class HMMGraphSearch {
             ret.add(new SearchResult(target, target.getKmer(), nuclSeq, alignment, protSeq, SearchResult.SearchDirection.left, lStartingState, r.maxScore, scorer.getMaxScore(), r.searchTime));
         }
 
-        List<PartialResult> rightParts = kpathsSearch(target.getForwardHmm(), target.getStartState(), framedKmer, target.getFilter().new RightCodonFacade(target.getKmer()), true);
+        List<PartialResult> rightParts = kpathsSearch(target.getForwardHmm(), target.getStartState(), framedKmer, target.getFilter().new RightCodonFacade(target.getKmer()), true, stats.getRight());
 
         for (PartialResult r : rightParts) {
             String nuclSeq = framedKmer + r.maxSeq;
@@ -115,30 +151,40 @@ public class HMMGraphSearch {
     }
 
     public List<AStarNode> searchGraph(SearchTarget target) throws InterruptedException {
-        String framedKmer = target.getKmer();
-        int frame = target.getFrame();
-        List<AStarNode> ret = new ArrayList();
+        List<AStarNode> ret = searchGraph(target, false);
+        ret.addAll(searchGraph(target, true));
 
-        int lStartingState = target.getReverseHmm().M() - target.getStartState() - target.getKmer().length() / ((target.isProt()) ? 3 : 1);
+        return ret;
+    }
 
-        List<CandidatePath> leftParts = kpathsSearchGraph(target.getReverseHmm(), lStartingState, framedKmer, target.getFilter().new LeftCodonFacade(target.getKmer()), false);
+    /**
+     * Goal nodes of the paths found in one direction.  Left (forward =
+     * false) paths are searched against the reverse hmm, their kmers are
+     * stored reversed (not complemented) and their state numbers are
+     * positions in the reverse hmm
+     */
+    public List<AStarNode> searchGraph(SearchTarget target, boolean forward) throws InterruptedException {
+        String framedKmer = target.getKmer();
+        List<AStarNode> ret = new ArrayList();
+        List<CandidatePath> parts;
 
-        for (CandidatePath r : leftParts) {
-            ret.add(r.get(r.length() - 1));
+        if (forward) {
+            parts = kpathsSearchGraph(target.getForwardHmm(), target.getStartState(), framedKmer, target.getFilter().new RightCodonFacade(target.getKmer()), true, new SearchStats.DirectionStats());
+        } else {
+            int lStartingState = target.getReverseHmm().M() - target.getStartState() - target.getKmer().length() / ((target.isProt()) ? 3 : 1);
+            parts = kpathsSearchGraph(target.getReverseHmm(), lStartingState, framedKmer, target.getFilter().new LeftCodonFacade(target.getKmer()), false, new SearchStats.DirectionStats());
         }
 
-        List<CandidatePath> rightParts = kpathsSearchGraph(target.getForwardHmm(), target.getStartState(), framedKmer, target.getFilter().new RightCodonFacade(target.getKmer()), true);
-
-        for (CandidatePath r : rightParts) {
+        for (CandidatePath r : parts) {
             ret.add(r.get(r.length() - 1));
         }
 
         return ret;
     }
 
-    private List<PartialResult> kpathsSearch(ProfileHMM hmm, int startingState, String framedWord, CodonWalker walker, boolean forward) throws InterruptedException {
+    private List<PartialResult> kpathsSearch(ProfileHMM hmm, int startingState, String framedWord, CodonWalker walker, boolean forward, SearchStats.DirectionStats stats) throws InterruptedException {
         List<PartialResult> results = new ArrayList();
-        for (CandidatePath path : kpathsSearchGraph(hmm, startingState, framedWord, walker, forward)) {
+        for (CandidatePath path : kpathsSearchGraph(hmm, startingState, framedWord, walker, forward, stats)) {
             AStarNode goal = path.get(path.length() - 1);
             results.add(partialResultFromGoal(goal, forward, hmm.getAlphabet() == SequenceType.Protein, framedWord.length(), path.generationTime));
         }
@@ -146,17 +192,26 @@ public class HMMGraphSearch {
         return results;
     }
 
-    private List<CandidatePath> kpathsSearchGraph(ProfileHMM hmm, int startingState, String framedWord, CodonWalker walker, boolean forward) throws InterruptedException {
+    private List<CandidatePath> kpathsSearchGraph(ProfileHMM hmm, int startingState, String framedWord, CodonWalker walker, boolean forward, SearchStats.DirectionStats stats) throws InterruptedException {
         List<CandidatePath> bestPaths = new ArrayList();
         PriorityQueue<CandidatePath> candidatePaths = new PriorityQueue<CandidatePath>();
         Map<AStarNode, Set<AStarNode>> shortestPathEdges = new HashMap();
-        Set<Kmer> seenKmers = new HashSet();
+        PackedKmerSet seenKmers = new PackedKmerSet();
+        CodonCache codonCache = (forward) ? rightCodonCache : leftCodonCache;
 
 
         long kTime = System.currentTimeMillis();
+        long startTime = kTime;
+        long startProbes = walker.getProbeCount();
+        boolean terminated = false;
+        SearchResult.SearchDirection dir = (forward) ? SearchResult.SearchDirection.right : SearchResult.SearchDirection.left;
+
+        if (GraphEvents.isEnabled()) {
+            GraphEvents.emit(GraphEvents.SEARCH_START, framedWord, startingState, dir);
+        }
         //PrintStream out = new PrintStream(forward? "right.txt" : "left.txt");
         try {
-            AStarNode goalNode = astarSearch(hmm, startingState, framedWord, walker, forward, seenKmers, new HashSet());
+            AStarNode goalNode = astarSearch(hmm, startingState, framedWord, walker, codonCache, forward, seenKmers, new HashSet(), stats);
 
             CandidatePath bestPath = new CandidatePath(goalNode, seenKmers);
             bestPath.generationTime = (System.currentTimeMillis() - kTime);
@@ -189,7 +244,7 @@ public class HMMGraphSearch {
                     }
 
                     shortestPathEdges.get(starting).add(ak_i_1);
-                    goalNode = astarSearch(hmm, starting, walker, seenKmers, shortestPathEdges.get(starting));
+                    goalNode = astarSearch(hmm, starting, walker, codonCache, seenKmers, shortestPathEdges.get(starting), stats);
                     if(goalNode == null) {
                         break;
                     }
@@ -218,6 +273,9 @@ public class HMMGraphSearch {
                 kthPath.generationTime = (System.currentTimeMillis() - kTime);
 
                 bestPaths.add(kthPath);
+                if (GraphEvents.isEnabled()) {
+                    GraphEvents.emit(GraphEvents.KPATH_ITERATION, framedWord, startingState, dir, bestPaths.size(), candidatePaths.size(), kthPath.generationTime);
+                }
 		for(int index = 0;index < kthPath.path.size();index++) {
 		    AStarNode node = kthPath.path.get(index);
 		    termNodes.put(node, kthPath.path.subList(index, kthPath.path.size()));
@@ -227,9 +285,15 @@ public class HMMGraphSearch {
             System.err.println("Terminated on path " + bestPaths.size() + " (candidates=" + candidatePaths.size() + ")");
             //openedKmerStream.close();
             //closedKmerStream.close();
+            terminated = true;
 
             throw e;
         } catch (IOException ignore) {
+        } finally {
+            stats.finish(bestPaths.size(), walker.getProbeCount() - startProbes, System.currentTimeMillis() - startTime, terminated);
+            if (GraphEvents.isEnabled()) {
+                GraphEvents.emit(GraphEvents.SEARCH_END, framedWord, startingState, dir, bestPaths.size(), terminated, stats.getTime());
+            }
         }
 
         return bestPaths;
@@ -243,18 +307,22 @@ public class HMMGraphSearch {
      * @param startingState
      * @param framedWord
      * @param walker
+     * @param codonCache
      * @param forward
      * @param seenKmers
      * @param disallowedLinks
+     * @param stats
      * @return
      * @throws IOException
      */
     private AStarNode astarSearch(final ProfileHMM hmm,
             int startingState, String framedWord,
             CodonWalker walker,
+            CodonCache codonCache,
             boolean forward,
-            Set<Kmer> seenKmers,
-            Set<AStarNode> disallowedLinks) throws IOException, InterruptedException {
+            PackedKmerSet seenKmers,
+            Set<AStarNode> disallowedLinks,
+            SearchStats.DirectionStats stats) throws IOException, InterruptedException {
         framedWord = framedWord.toLowerCase();
 
         char[] startingCodon = framedWord.substring(framedWord.length() - 3).toCharArray();
@@ -272,7 +340,7 @@ public class HMMGraphSearch {
             scoringWord = ProteinUtils.getInstance().translateToProtein(framedWord, false, 11);
         }
 
-        Kmer kmer = new Kmer(framedWord.toCharArray());
+        PackedKmer kmer = new PackedKmer(framedWord.toCharArray());
 
         AStarNode startingNode;
         if (hmm.getAlphabet() == SequenceType.Protein) {
@@ -291,7 +359,7 @@ public class HMMGraphSearch {
         startingNode.score = scoreStart(hmm, scoringWord, startingState);
         startingNode.realScore = realScoreStart(hmm, scoringWord, startingState);
 
-        return astarSearch(hmm, startingNode, walker, seenKmers, disallowedLinks);
+        return astarSearch(hmm, startingNode, walker, codonCache, seenKmers, disallowedLinks, stats);
     }
 
     private float scoreStart(ProfileHMM hmm, String startingKmer, int startingState) {
@@ -333,19 +401,22 @@ public class HMMGraphSearch {
     private AStarNode astarSearch(final ProfileHMM hmm,
             AStarNode startingNode,
             CodonWalker walker,
-            Set<Kmer> seenKmers,
-            Set<AStarNode> disallowedLinks) throws IOException, InterruptedException {
+            CodonCache codonCache,
+            PackedKmerSet seenKmers,
+            Set<AStarNode> disallowedLinks,
+            SearchStats.DirectionStats stats) throws IOException, InterruptedException {
 
         if (startingNode.stateNo >= hmm.M()) {   //Huh...well I guess we don't get much choice in the matter now do we?
             return startingNode;
         }
 
-        NodeEnumerator nodeEnumerator = new NodeEnumerator(hmm);
+        NodeEnumerator nodeEnumerator = new NodeEnumerator(hmm, codonCache);
         PriorityQueue<AStarNode> open = new PriorityQueue<AStarNode>();
         Set<AStarNode> closed = new HashSet();
         AStarNode curr;
         int maxIndels = 5;//(int)(hmm.M() * .05 + .5);
         int openedNodes = 1;
+        int peakOpen = 0;
 
         //First step, enumerate all the nodes and remove any disallowed transitions
         //This way we only have to look at the set (disallowedLinks) once instead of
@@ -360,6 +431,7 @@ public class HMMGraphSearch {
         double mem;
 
         if (open.isEmpty()) {
+            recordSearch(stats, openedNodes, closed.size(), peakOpen, nodeEnumerator);
             return null;
         }
 
@@ -373,6 +445,7 @@ public class HMMGraphSearch {
                 if (curr.hasNewKmer) {  //If it has a new kmer, great
                     curr.partial = false;
                     //System.err.println(startingNode.kmer + "\t" + openedNodes + "\t" + closed.size() + "\t" + false);
+                    recordSearch(stats, openedNodes, closed.size(), peakOpen, nodeEnumerator);
                     return curr;
                 } else { //Otherwise move on
                     continue;
@@ -380,6 +453,7 @@ public class HMMGraphSearch {
             }
 
 	    if(termNodes.containsKey(curr)) {
+		recordSearch(stats, openedNodes, closed.size(), peakOpen, nodeEnumerator);
 		return combineWithCache(curr, termNodes.get(curr));
 	    }
 
@@ -387,10 +461,15 @@ public class HMMGraphSearch {
 
             if ((closed.size() % 250000) == 0) {
                 mem = getMemRatio();
+                stats.sampleMemRatio(mem);
                 //System.err.println("Open set size: " + open.size() + ", Closed: " + closed.size() + ", node: " + curr + " mem ratio: " + mem + " time: " + (System.currentTimeMillis() - start) / 1000.0f);
                 if (mem > .75) {
+                    long gcStart = System.currentTimeMillis();
                     open.removeAll(closed);
                     System.gc();
+                    if (GraphEvents.isEnabled()) {
+                        GraphEvents.emit(GraphEvents.MEMORY_RECLAIM, startingNode.getKmer(), startingNode.stateNo, mem, getMemRatio(), open.size(), closed.size(), System.currentTimeMillis() - gcStart);
+                    }
                     //    System.err.println("\tMemory reclaimation time: " + (System.currentTimeMillis() - t) / 1000.0f + "s, mem ratio after reclaimation: " + getMemRatio());
                 }
 
@@ -415,19 +494,29 @@ public class HMMGraphSearch {
                     open.add(next);
                 }
             }
+
+            if (open.size() > peakOpen) {
+                peakOpen = open.size();
+            }
         }
         //System.err.println(startingNode.kmer + "\t" + openedNodes + "\t" + closed.size() + "\t" + true);
 
+        recordSearch(stats, openedNodes, closed.size(), peakOpen, nodeEnumerator);
         interGoal.partial = true;
         return interGoal;
     }
+
+    private static void recordSearch(SearchStats.DirectionStats stats, int openedNodes, int closedNodes, int peakOpen, NodeEnumerator nodeEnumerator) {
+        stats.addAstarSearch(openedNodes, closedNodes, peakOpen, nodeEnumerator.getCodonCacheHits(), nodeEnumerator.getCodonCacheMisses());
+        stats.sampleMemRatio(getMemRatio());
+    }
     
     private AStarNode combineWithCache(AStarNode node, List<AStarNode> cachedPath) {
 	AStarNode curr, newNode, last = node;
 	assert(node.equals(cachedPath.get(0)));
 	for(int index = 1;index < cachedPath.size();index++) {
 	    curr = cachedPath.get(index);
-	    newNode = new AStarNode(last, curr.kmer, curr.fwdHash, curr.rcHash, curr.stateNo, curr.state);
+	    newNode = new AStarNode(last, curr.kmerHi, curr.kmerLo, curr.kmerLength, curr.fwdHash, curr.rcHash, curr.stateNo, curr.state);
 	    newNode.score = last.score + curr.thisNodeScore;
 	    newNode.length = last.length + 3;
 	    newNode.thisNodeScore = curr.thisNodeScore;
@@ -451,7 +540,7 @@ public class HMMGraphSearch {
             result.maxScore = goal.score;
 
             while (goal.discoveredFrom != null) {
-                char[] kmer = goal.kmer.toString().toCharArray();
+                char[] kmer = goal.getKmer().toString().toCharArray();
                 char[] emission;
 
                 if (protSearch) {
@@ -21,9 +21,9 @@ import edu.msu.cme.rdp.alignment.hmm.MostProbableHCostHMM;
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
 import edu.msu.cme.rdp.graph.filter.NextCodon;
 import static edu.msu.cme.rdp.alignment.hmm.TSC.*;
+import edu.msu.cme.rdp.graph.filter.CodonCache;
 import edu.msu.cme.rdp.graph.filter.CodonWalker;
 import edu.msu.cme.rdp.graph.filter.PathHolder;
-import edu.msu.cme.rdp.kmer.Kmer;
 import edu.msu.cme.rdp.readseq.SequenceType;
 import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
 import java.util.HashSet;
@@ -43,23 +43,39 @@ public class NodeEnumerator {
     private double matchTrans;
     private double insTrans;
     private double delTrans;
-    private Kmer nextKmer;
+    private PackedKmer nextKmer;
     private int nextState;
     private boolean newKmer;
     private final ProfileHMM hmm;
     private final boolean protSearch;
     private final MostProbableHCostHMM hcost;
     private final long mask = (1L << 61) - 1;
+    private final CodonCache codonCache;
+    private long codonCacheHits = 0;
+    private long codonCacheMisses = 0;
 
     public NodeEnumerator(ProfileHMM hmm) {
+        this(hmm, null);
+    }
+
+    /**
+     * @param codonCache cache of the codons following each kmer, only used in
+     * protein searches, may be null
+     */
+    public NodeEnumerator(ProfileHMM hmm, CodonCache codonCache) {
         this.hmm = hmm;
         this.protSearch = hmm.getAlphabet() == SequenceType.Protein;
         this.hcost = hmm.getHCost();
+        this.codonCache = codonCache;
     }
 
-    public Set<AStarNode> enumerateNodes(AStarNode curr, CodonWalker walker, Set<Kmer> seenKmers) {
+    public Set<AStarNode> enumerateNodes(AStarNode curr, CodonWalker walker, PackedKmerSet seenKmers) {
         Set<AStarNode> ret = new HashSet();
 
+        if (nextKmer == null || nextKmer.length() != curr.kmerLength) {
+            nextKmer = new PackedKmer(curr.kmerLength);
+        }
+
         nextState = curr.stateNo + 1;
 
         switch (curr.state) {
@@ -83,83 +99,47 @@ public class NodeEnumerator {
         }
 
 
-        walker.jumpTo(curr.kmer, curr.fwdHash, curr.rcHash);
-
-        if (protSearch) {
-            protEmission = walker.getNextCodon();
-        } else {
-            nextNucl = walker.getNextNucl();
-        }
+        walker.jumpTo(curr.kmerHi, curr.kmerLo, curr.fwdHash, curr.rcHash);
 
         double maxMatchEmission = hmm.getMaxMatchEmission(nextState);
-        while ((protSearch && protEmission != null) || (!protSearch && nextNucl != null)) {
-            if (protSearch) {
-                if (protEmission.getAminoAcid() == '*') {
+        if (protSearch) {
+            long codons = (codonCache == null) ? CodonCache.MISSING : codonCache.get(curr.fwdHash, curr.rcHash);
+
+            if (codons == CodonCache.MISSING) {
+                codonCacheMisses++;
+                codons = 0;
+                protEmission = walker.getNextCodon();
+                while (protEmission != null) {
+                    if (protEmission.getAminoAcid() != '*') {
+                        codons |= 1L << protEmission.getCodon();
+                        addCodonNodes(ret, curr, walker, seenKmers, maxMatchEmission);
+                    }
                     protEmission = walker.getSibCodon();
-                    continue;
                 }
 
-                int codon = protEmission.getCodon() & 127;
-                byte b1 = (byte) (codon & 0x3);
-                byte b2 = (byte) (codon >> 2 & 0x3);
-                byte b3 = (byte) (codon >> 4 & 0x3);
-                nextKmer = curr.kmer.shiftLeft(b3).shiftLeft(b2).shiftLeft(b1);
-                emission = protEmission.getAminoAcid();
+                if (codonCache != null) {
+                    codonCache.put(curr.fwdHash, curr.rcHash, codons);
+                }
             } else {
-                nextKmer = curr.kmer.shiftLeft((byte) (nextNucl & 3));
-                emission = NuclBinMapping.intToChar[nextNucl];
-            }
-
-            final long fwdHash = walker.getFwdHash();
-            final long rcHash = walker.getRcHash();
-
-            /**
-             * ************************************
-             *
-             * MATCH NODE
-             *
-             *************************************
-             */
-            newKmer = !seenKmers.contains(nextKmer);
-            next = new AStarNode(curr, nextKmer, fwdHash, rcHash, nextState, 'm');
-
-            next.realScore = curr.realScore + matchTrans + hmm.msc(nextState, emission);
-            next.emission = emission;
-            next.thisNodeScore = matchTrans + hmm.msc(nextState, emission) - maxMatchEmission;
-            next.length = curr.length + 1;
-            next.score = (curr.score + next.thisNodeScore);
-            next.fval = (int) (HMMGraphSearch.INT_SCALE * (next.score + hweight * hcost.computeHeuristicCost('m', nextState)));
-            next.hasNewKmer = curr.hasNewKmer || newKmer;
-            next.indels = curr.indels;
-
-            ret.add(next);
-
-            /**
-             * ************************************
-             *
-             * INSERT NODE
-             *
-             *************************************
-             */
-            if (curr.state != 'd') { //Transitions from delete to insert aren't allowed, don't waste time computing stuff
-                next = new AStarNode(curr, nextKmer, fwdHash, rcHash, curr.stateNo /*
-                         * Inserts don't advance the state
-                         */, 'i');
-                next.realScore = curr.realScore + insTrans + hmm.isc(nextState, emission);
-                next.emission = emission;
-                next.thisNodeScore = insTrans + hmm.isc(nextState, emission);
-                next.length = curr.length + 1;
-                next.score = (curr.score + next.thisNodeScore);
-                next.fval = (int) (HMMGraphSearch.INT_SCALE * (next.score + hweight * hcost.computeHeuristicCost('i', curr.stateNo)));
-                next.hasNewKmer = curr.hasNewKmer || newKmer;
-                next.indels = curr.indels + 1;
-
-                ret.add(next);
+                codonCacheHits++;
+                //We already know which codons follow this kmer so we only
+                //have to update the hash values, no bloom filter lookups
+                while (codons != 0) {
+                    int codon = Long.numberOfTrailingZeros(codons);
+                    codons &= codons - 1;
+
+                    protEmission = walker.pushCodon(codon);
+                    addCodonNodes(ret, curr, walker, seenKmers, maxMatchEmission);
+                    walker.popCodon();
+                }
             }
+        } else {
+            nextNucl = walker.getNextNucl();
+            while (nextNucl != null) {
+                nextKmer.set(curr.kmerHi, curr.kmerLo).shiftLeft((byte) (nextNucl & 3));
+                emission = NuclBinMapping.intToChar[nextNucl];
+                addEmissionNodes(ret, curr, walker.getFwdHash(), walker.getRcHash(), seenKmers, maxMatchEmission);
 
-            if (protSearch) {
-                protEmission = walker.getSibCodon();
-            } else {
                 nextNucl = walker.getSibNucl();
             }
         }
@@ -172,7 +152,7 @@ public class NodeEnumerator {
          *************************************
          */
         if (curr.state != 'i') {
-            next = new AStarNode(curr, curr.kmer, curr.fwdHash, curr.rcHash, nextState, 'd');
+            next = new AStarNode(curr, curr.kmerHi, curr.kmerLo, curr.kmerLength, curr.fwdHash, curr.rcHash, nextState, 'd');
 
             next.realScore = curr.realScore + delTrans;
             next.emission = '-';
@@ -188,4 +168,73 @@ public class NodeEnumerator {
 
         return ret;
     }
+
+    /**
+     * @return number of kmers whose codons were found in the cache, the
+     * shared CodonCache keeps its own totals
+     */
+    public long getCodonCacheHits() {
+        return codonCacheHits;
+    }
+
+    public long getCodonCacheMisses() {
+        return codonCacheMisses;
+    }
+
+    private void addCodonNodes(Set<AStarNode> ret, AStarNode curr, CodonWalker walker, PackedKmerSet seenKmers, double maxMatchEmission) {
+        int codon = protEmission.getCodon() & 127;
+        byte b1 = (byte) (codon & 0x3);
+        byte b2 = (byte) (codon >> 2 & 0x3);
+        byte b3 = (byte) (codon >> 4 & 0x3);
+        nextKmer.set(curr.kmerHi, curr.kmerLo).shiftLeft(b3).shiftLeft(b2).shiftLeft(b1);
+        emission = protEmission.getAminoAcid();
+
+        addEmissionNodes(ret, curr, walker.getFwdHash(), walker.getRcHash(), seenKmers, maxMatchEmission);
+    }
+
+    private void addEmissionNodes(Set<AStarNode> ret, AStarNode curr, long fwdHash, long rcHash, PackedKmerSet seenKmers, double maxMatchEmission) {
+        /**
+         * ************************************
+         *
+         * MATCH NODE
+         *
+         *************************************
+         */
+        newKmer = !seenKmers.contains(nextKmer);
+        next = new AStarNode(curr, nextKmer, fwdHash, rcHash, nextState, 'm');
+
+        next.realScore = curr.realScore + matchTrans + hmm.msc(nextState, emission);
+        next.emission = emission;
+        next.thisNodeScore = matchTrans + hmm.msc(nextState, emission) - maxMatchEmission;
+        next.length = curr.length + 1;
+        next.score = (curr.score + next.thisNodeScore);
+        next.fval = (int) (HMMGraphSearch.INT_SCALE * (next.score + hweight * hcost.computeHeuristicCost('m', nextState)));
+        next.hasNewKmer = curr.hasNewKmer || newKmer;
+        next.indels = curr.indels;
+
+        ret.add(next);
+
+        /**
+         * ************************************
+         *
+         * INSERT NODE
+         *
+         *************************************
+         */
+        if (curr.state != 'd') { //Transitions from delete to insert aren't allowed, don't waste time computing stuff
+            next = new AStarNode(curr, nextKmer, fwdHash, rcHash, curr.stateNo /*
+                     * Inserts don't advance the state
+                     */, 'i');
+            next.realScore = curr.realScore + insTrans + hmm.isc(nextState, emission);
+            next.emission = emission;
+            next.thisNodeScore = insTrans + hmm.isc(nextState, emission);
+            next.length = curr.length + 1;
+            next.score = (curr.score + next.thisNodeScore);
+            next.fval = (int) (HMMGraphSearch.INT_SCALE * (next.score + hweight * hcost.computeHeuristicCost('i', curr.stateNo)));
+            next.hasNewKmer = curr.hasNewKmer || newKmer;
+            next.indels = curr.indels + 1;
+
+            ret.add(next);
+        }
+    }
 }
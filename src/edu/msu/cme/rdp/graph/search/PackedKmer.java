@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.graph.filter.InvalidDNABaseException;
+import edu.msu.cme.rdp.kmer.Kmer;
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
+
+/**
+ * Mutable 2-bit packed kmer of up to 64 bases held in two longs.
+ *
+ * lo holds the last (right most) min(k, 32) bases with the right most base in
+ * the lowest two bits, hi holds the remaining k - 32 bases (if any) the same
+ * way.  Since a = 0 &lt; c = 1 &lt; g = 2 &lt; t = 3, comparing (hi, lo) as
+ * unsigned numbers is the same as comparing the kmer strings.
+ *
+ * The static methods let packed kmers be stored as plain long fields (see
+ * AStarNode) and an instance can be reused as scratch space so shifting
+ * doesn't allocate anything.
+ *
+ * @author fishjord
+ */
+public class PackedKmer {
+
+    public static final int MAX_K = 64;
+    private final int k;
+    private final long hiMask;
+    private final long loMask;
+    private long hi;
+    private long lo;
+
+    public PackedKmer(int k) {
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException("Kmer length must be between 1 and " + MAX_K);
+        }
+        this.k = k;
+
+        loMask = (k >= 32) ? -1L : (1L << (2 * k)) - 1;
+        if (k <= 32) {
+            hiMask = 0;
+        } else if (k == 64) {
+            hiMask = -1L;
+        } else {
+            hiMask = (1L << (2 * (k - 32))) - 1;
+        }
+    }
+
+    public PackedKmer(char[] kmer) {
+        this(kmer.length);
+        set(kmer);
+    }
+
+    public PackedKmer(Kmer kmer) {
+        this(kmer.toString().toCharArray());
+    }
+
+    public PackedKmer set(char[] kmer) {
+        if (kmer.length != k) {
+            throw new IllegalArgumentException("Expected a kmer of length " + k + " not " + kmer.length);
+        }
+
+        hi = lo = 0;
+        for (char c : kmer) {
+            byte b = NuclBinMapping.validateLookup[c];
+            if (b == -1) {
+                throw new InvalidDNABaseException("Input contains non nucleotide character: " + c);
+            }
+            shiftLeft(b);
+        }
+
+        return this;
+    }
+
+    public PackedKmer set(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+
+        return this;
+    }
+
+    /**
+     * Drops the left most base and appends b to the right end, in place
+     */
+    public PackedKmer shiftLeft(byte b) {
+        hi = ((hi << 2) | (lo >>> 62)) & hiMask;
+        lo = ((lo << 2) | (b & 3)) & loMask;
+
+        return this;
+    }
+
+    /**
+     * Drops the right most base and prepends b to the left end, in place
+     */
+    public PackedKmer shiftRight(byte b) {
+        if (k <= 32) {
+            lo = (lo >>> 2) | ((long) (b & 3) << (2 * (k - 1)));
+        } else {
+            lo = (lo >>> 2) | (hi << 62);
+            hi = (hi >>> 2) | ((long) (b & 3) << (2 * (k - 33)));
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets this to the kmer (of this length) packed in hi and lo read
+     * backwards, not complemented
+     */
+    public PackedKmer setReverse(long hi, long lo) {
+        this.hi = this.lo = 0;
+        for (int index = 0; index < k; index++) {
+            byte b = (byte) (lo & 3);
+            lo = (lo >>> 2) | (hi << 62);
+            hi >>>= 2;
+            shiftLeft(b);
+        }
+        return this;
+    }
+
+    /**
+     * Sets this to the reverse complement of the kmer (of this length)
+     * packed in hi and lo
+     */
+    public PackedKmer setReverseComplement(long hi, long lo) {
+        this.hi = this.lo = 0;
+        for (int index = 0; index < k; index++) {
+            byte b = (byte) (lo & 3);
+            lo = (lo >>> 2) | (hi << 62);
+            hi >>>= 2;
+            shiftLeft((byte) (3 - b));
+        }
+
+        return this;
+    }
+
+    public long getHi() {
+        return hi;
+    }
+
+    public long getLo() {
+        return lo;
+    }
+
+    public int length() {
+        return k;
+    }
+
+    public byte get(int index) {
+        int fromRight = k - 1 - index;
+        if (fromRight < 32) {
+            return (byte) ((lo >>> (2 * fromRight)) & 3);
+        }
+        return (byte) ((hi >>> (2 * (fromRight - 32))) & 3);
+    }
+
+    public char[] toCharArray() {
+        char[] ret = new char[k];
+        for (int index = 0; index < k; index++) {
+            ret[index] = NuclBinMapping.intToChar[get(index)];
+        }
+
+        return ret;
+    }
+
+    public Kmer toKmer() {
+        return new Kmer(toCharArray());
+    }
+
+    @Override
+    public String toString() {
+        return new String(toCharArray());
+    }
+
+    /**
+     * Compares two packed kmers of the same length the same way their strings
+     * would compare
+     */
+    public static int compare(long hi1, long lo1, long hi2, long lo2) {
+        if (hi1 != hi2) {
+            return ((hi1 ^ Long.MIN_VALUE) < (hi2 ^ Long.MIN_VALUE)) ? -1 : 1;
+        }
+        if (lo1 != lo2) {
+            return ((lo1 ^ Long.MIN_VALUE) < (lo2 ^ Long.MIN_VALUE)) ? -1 : 1;
+        }
+        return 0;
+    }
+
+    public static int hashCode(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L + lo;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) set of packed kmers, see PackedKmer.
+ * Not thread safe.
+ *
+ * @author fishjord
+ */
+public class PackedKmerSet {
+
+    private static final float MAX_LOAD = .6f;
+    private long[] his;
+    private long[] los;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public PackedKmerSet() {
+        this(1024);
+    }
+
+    public PackedKmerSet(int expectedSize) {
+        int cap = 16;
+        while (cap * MAX_LOAD < expectedSize) {
+            cap <<= 1;
+        }
+        allocate(cap);
+    }
+
+    private void allocate(int cap) {
+        his = new long[cap];
+        los = new long[cap];
+        used = new boolean[cap];
+        mask = cap - 1;
+        size = 0;
+    }
+
+    private int find(long hi, long lo) {
+        int slot = PackedKmer.hashCode(hi, lo) & mask;
+        while (used[slot] && (his[slot] != hi || los[slot] != lo)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    public boolean contains(long hi, long lo) {
+        return used[find(hi, lo)];
+    }
+
+    public boolean contains(PackedKmer kmer) {
+        return contains(kmer.getHi(), kmer.getLo());
+    }
+
+    /**
+     * @return true if the kmer wasn't already in the set
+     */
+    public boolean add(long hi, long lo) {
+        int slot = find(hi, lo);
+        if (used[slot]) {
+            return false;
+        }
+
+        used[slot] = true;
+        his[slot] = hi;
+        los[slot] = lo;
+
+        if (++size > used.length * MAX_LOAD) {
+            rehash();
+        }
+        return true;
+    }
+
+    public boolean add(PackedKmer kmer) {
+        return add(kmer.getHi(), kmer.getLo());
+    }
+
+    private void rehash() {
+        long[] oldHis = his;
+        long[] oldLos = los;
+        boolean[] oldUsed = used;
+
+        allocate(oldUsed.length << 1);
+        for (int index = 0; index < oldUsed.length; index++) {
+            if (oldUsed[index]) {
+                int slot = find(oldHis[index], oldLos[index]);
+                used[slot] = true;
+                his[slot] = oldHis[index];
+                los[slot] = oldLos[index];
+                size++;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+}
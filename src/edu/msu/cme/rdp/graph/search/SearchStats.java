@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+
+/**
+ * Counters collected while searching from a single seed, one set per search
+ * direction.  Filled in by HMMGraphSearch.search(SearchTarget, SearchStats)
+ * and written one line per seed with print(..)
+ *
+ * @author fishjord
+ */
+public class SearchStats {
+
+    public static class DirectionStats {
+
+        private int astarSearches;
+        private long openedNodes;
+        private long closedNodes;
+        private int peakOpenSize;
+        private long bloomProbes;
+        private long codonCacheHits;
+        private long codonCacheMisses;
+        private int paths;
+        private long time;
+        private double peakMemRatio;
+        private boolean terminated;
+
+        void addAstarSearch(long opened, long closed, int peakOpen, long cacheHits, long cacheMisses) {
+            astarSearches++;
+            openedNodes += opened;
+            closedNodes += closed;
+            peakOpenSize = Math.max(peakOpenSize, peakOpen);
+            codonCacheHits += cacheHits;
+            codonCacheMisses += cacheMisses;
+        }
+
+        void sampleMemRatio(double memRatio) {
+            peakMemRatio = Math.max(peakMemRatio, memRatio);
+        }
+
+        void finish(int paths, long bloomProbes, long time, boolean terminated) {
+            this.paths = paths;
+            this.bloomProbes = bloomProbes;
+            this.time = time;
+            this.terminated = terminated;
+        }
+
+        public int getAstarSearches() {
+            return astarSearches;
+        }
+
+        /**
+         * @return number of A* searches after the first one (the k-shortest
+         * paths spur searches)
+         */
+        public int getKPathReruns() {
+            return Math.max(astarSearches - 1, 0);
+        }
+
+        public long getOpenedNodes() {
+            return openedNodes;
+        }
+
+        public long getClosedNodes() {
+            return closedNodes;
+        }
+
+        public int getPeakOpenSize() {
+            return peakOpenSize;
+        }
+
+        public long getBloomProbes() {
+            return bloomProbes;
+        }
+
+        public long getCodonCacheHits() {
+            return codonCacheHits;
+        }
+
+        public long getCodonCacheMisses() {
+            return codonCacheMisses;
+        }
+
+        public int getPaths() {
+            return paths;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public double getPeakMemRatio() {
+            return peakMemRatio;
+        }
+
+        public boolean isTerminated() {
+            return terminated;
+        }
+    }
+    //Stats are printed from the search threads, DecimalFormat isn't thread safe
+    private static final ThreadLocal<DecimalFormat> threeDig = new ThreadLocal<DecimalFormat>() {
+
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("#.###");
+        }
+    };
+    private final SearchTarget target;
+    private final DirectionStats left = new DirectionStats();
+    private final DirectionStats right = new DirectionStats();
+
+    public SearchStats(SearchTarget target) {
+        this.target = target;
+    }
+
+    public SearchTarget getTarget() {
+        return target;
+    }
+
+    public DirectionStats getLeft() {
+        return left;
+    }
+
+    public DirectionStats getRight() {
+        return right;
+    }
+
+    public DirectionStats get(SearchResult.SearchDirection dir) {
+        return (dir == SearchResult.SearchDirection.left) ? left : right;
+    }
+
+    public static void printHeader(PrintStream out) {
+        out.println("#gene_name\tquery_id\trefseq_id\tstarting kmer\tstarting state\tstatus"
+                + "\tsearch direction\tpaths\tastar searches\tkpath reruns\topened nodes\tclosed nodes\tpeak open"
+                + "\tbloom probes\tcodon cache hits\tcodon cache misses\tpeak mem ratio\ttime (s)");
+    }
+
+    /**
+     * Prints one line per search direction, should only be called by the
+     * thread that ran the search (or once it's known to be done)
+     *
+     * @param status how the search ended (ok, timeout, error...)
+     */
+    public void print(String status, PrintStream out) {
+        synchronized (out) {
+            print(status, SearchResult.SearchDirection.left, out);
+            print(status, SearchResult.SearchDirection.right, out);
+        }
+    }
+
+    private void print(String status, SearchResult.SearchDirection dir, PrintStream out) {
+        DirectionStats stats = get(dir);
+        out.println(target.getGeneName() + "\t"
+                + target.getQuerySeqid() + "\t"
+                + target.getRefSeqid() + "\t"
+                + target.getKmer() + "\t"
+                + target.getStartState() + "\t"
+                + (stats.terminated ? "terminated" : status) + "\t"
+                + dir + "\t"
+                + stats.paths + "\t"
+                + stats.astarSearches + "\t"
+                + stats.getKPathReruns() + "\t"
+                + stats.openedNodes + "\t"
+                + stats.closedNodes + "\t"
+                + stats.peakOpenSize + "\t"
+                + stats.bloomProbes + "\t"
+                + stats.codonCacheHits + "\t"
+                + stats.codonCacheMisses + "\t"
+                + threeDig.get().format(stats.peakMemRatio) + "\t"
+                + threeDig.get().format(stats.time / 1000.0f));
+    }
+}
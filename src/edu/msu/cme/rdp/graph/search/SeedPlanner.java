@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.graph.filter.BloomFilter;
+import edu.msu.cme.rdp.graph.filter.InvalidDNABaseException;
+import edu.msu.cme.rdp.graph.filter.NeighborhoodEstimator;
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides which starting kmers are worth searching from.
+ *
+ * Seeds are canonicalized (lower case kmer + model position) so the same seed
+ * written twice is only searched once.  Every contig found during the run is
+ * added to a kmer index, a seed whose kmer already appears in an earlier
+ * contig is covered by that contig and is skipped.  KmerStartsFromKnown
+ * tends to write runs of seeds a few bases apart along the same gene, once
+ * the first one has been searched the rest are covered.
+ *
+ * Optionally seeds whose neighborhood looks too big to search in time are
+ * skipped too, see setComplexityLimit.  The size is estimated by sampling
+ * (NeighborhoodEstimator) while the seed is offered, that's up to 8 filter
+ * lookups per probe per base of depth.  The sampling is done outside the
+ * lock with an estimator per thread, so offering threads only wait on each
+ * other for the bookkeeping.
+ *
+ * Thread safe.
+ *
+ * @author fishjord
+ */
+public class SeedPlanner {
+
+    /**
+     * Setting this system property to a number of paths turns on the
+     * complexity limit for the searches, see limitComplexityFromProperties
+     */
+    public static final String MAX_PATHS_PROPERTY = "hmmgs.seed.max_paths";
+    public static final String DEPTH_PROPERTY = "hmmgs.seed.depth";
+    public static final String PROBES_PROPERTY = "hmmgs.seed.probes";
+    public static final int DEFAULT_COMPLEXITY_DEPTH = 150;
+    public static final int DEFAULT_COMPLEXITY_PROBES = 64;
+    private final int k;
+    private final boolean skipCovered;
+    private final Set<String> planned = new HashSet();
+    private final PackedKmerSet contigKmers = new PackedKmerSet();
+    private final PackedKmer scratch;
+    private int duplicates = 0;
+    private int covered = 0;
+    private int accepted = 0;
+    private ThreadLocal<NeighborhoodEstimator> estimators = null;
+    private int complexityDepth;
+    private double maxPaths;
+    private int complex = 0;
+
+    public SeedPlanner(int k) {
+        this(k, true);
+    }
+
+    /**
+     * @param k the nucleotide kmer length of the seeds
+     * @param skipCovered if false only duplicate seeds are skipped, covered
+     * seeds can only be detected for k <= PackedKmer.MAX_K
+     */
+    public SeedPlanner(int k, boolean skipCovered) {
+        this.k = k;
+        this.skipCovered = skipCovered && k <= PackedKmer.MAX_K;
+        this.scratch = (this.skipCovered) ? new PackedKmer(k) : null;
+    }
+
+    /**
+     * Skip seeds with more than an estimated maxPaths paths within depth
+     * nucleotides to either side
+     */
+    public synchronized void setComplexityLimit(final BloomFilter bloom, int depth, final int probes, double maxPaths) {
+        if (bloom.getKmerSize() > PackedKmer.MAX_K) {
+            throw new IllegalArgumentException("Can only estimate graphs with k <= " + PackedKmer.MAX_K);
+        }
+        this.estimators = new ThreadLocal<NeighborhoodEstimator>() {
+
+            @Override
+            protected NeighborhoodEstimator initialValue() {
+                return new NeighborhoodEstimator(bloom, probes);
+            }
+        };
+        this.complexityDepth = depth;
+        this.maxPaths = maxPaths;
+    }
+
+    /**
+     * Sets the complexity limit from the system properties, if
+     * -Dhmmgs.seed.max_paths=&lt;paths&gt; is set, depth and probes can be
+     * set the same way
+     *
+     * @return true if the limit was set
+     */
+    public boolean limitComplexityFromProperties(BloomFilter bloom) {
+        String max = System.getProperty(MAX_PATHS_PROPERTY);
+        if (max == null) {
+            return false;
+        }
+
+        int depth = Integer.valueOf(System.getProperty(DEPTH_PROPERTY, "" + DEFAULT_COMPLEXITY_DEPTH));
+        int probes = Integer.valueOf(System.getProperty(PROBES_PROPERTY, "" + DEFAULT_COMPLEXITY_PROBES));
+        setComplexityLimit(bloom, depth, probes, Double.valueOf(max));
+
+        return true;
+    }
+
+    public static String canonicalKmer(String kmer) {
+        return kmer.toLowerCase();
+    }
+
+    /**
+     * @return true if the seed should be searched
+     */
+    public boolean offer(String kmer, int modelPosition) {
+        kmer = canonicalKmer(kmer);
+        ThreadLocal<NeighborhoodEstimator> estimators;
+        int depth;
+        double max;
+
+        synchronized (this) {
+            if (!planned.add(kmer + ":" + modelPosition)) {
+                duplicates++;
+                return false;
+            }
+
+            if (isCoveredInternal(kmer)) {
+                covered++;
+                return false;
+            }
+
+            estimators = this.estimators;
+            depth = complexityDepth;
+            max = maxPaths;
+        }
+
+        boolean tooComplex = estimators != null && isTooComplex(estimators.get(), kmer, depth, max);
+
+        synchronized (this) {
+            if (tooComplex) {
+                complex++;
+                return false;
+            }
+
+            accepted++;
+            return true;
+        }
+    }
+
+    /**
+     * Check right before starting a search, a contig from a search started
+     * after this seed was offered may cover it by now
+     */
+    public synchronized boolean isCovered(String kmer) {
+        if (isCoveredInternal(canonicalKmer(kmer))) {
+            covered++;
+            accepted--;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isCoveredInternal(String kmer) {
+        if (!skipCovered || kmer.length() != k) {
+            return false;
+        }
+
+        try {
+            scratch.set(kmer.toCharArray());
+        } catch (InvalidDNABaseException e) {
+            return false;
+        }
+
+        return contigKmers.contains(scratch);
+    }
+
+    private static boolean isTooComplex(NeighborhoodEstimator estimator, String kmer, int depth, double maxPaths) {
+        char[] chars = kmer.toCharArray();
+        try {
+            double paths = estimator.estimate(chars, false, depth).getNodes();
+            if (paths <= maxPaths) {
+                paths += estimator.estimate(chars, true, depth).getNodes();
+            }
+            return paths > maxPaths;
+        } catch (InvalidDNABaseException e) {
+            //Not in the filter or not nucleotides, let the search report it
+            System.err.println("Not estimating the complexity of seed " + kmer + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Adds all the kmers in the (nucleotide) contig to the index, kmers with
+     * non-nucleotide characters are skipped
+     */
+    public synchronized void addContig(String nuclSeq) {
+        if (!skipCovered) {
+            return;
+        }
+
+        int valid = 0;
+        for (char c : nuclSeq.toCharArray()) {
+            byte b = (c < NuclBinMapping.validateLookup.length) ? NuclBinMapping.validateLookup[c] : -1;
+            if (b == -1) {
+                valid = 0;
+                continue;
+            }
+
+            scratch.shiftLeft(b);
+            if (++valid >= k) {
+                contigKmers.add(scratch);
+            }
+        }
+    }
+
+    public synchronized void addContigs(Iterable<SearchResult> results) {
+        for (SearchResult result : results) {
+            addContig(result.getNuclSeq());
+        }
+    }
+
+    public synchronized int getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized int getCovered() {
+        return covered;
+    }
+
+    /**
+     * @return seeds skipped for being over the complexity limit
+     */
+    public synchronized int getComplex() {
+        return complex;
+    }
+
+    /**
+     * @return a description of the complexity limit, null if it isn't set
+     */
+    public synchronized String getComplexityLimit() {
+        if (estimators == null) {
+            return null;
+        }
+        return maxPaths + " paths within " + complexityDepth + " bases";
+    }
+
+    public synchronized int getAccepted() {
+        return accepted;
+    }
+
+    public synchronized int getIndexedKmers() {
+        return contigKmers.size();
+    }
+}
@@ -95,6 +95,14 @@ public class BackTranslationIterator {
         }
     }
 
+    /**
+     * @return the codons (as 0-3 bases) coding for the residue, null if the
+     * residue isn't an unambiguous amino acid
+     */
+    public static byte[][] getCodons(char residue) {
+        return (residue < backTrans.length) ? backTrans[residue] : null;
+    }
+
     public static long countCombinations(char[] protKmer) {
         long ret = backTrans[protKmer[0]].length;
         for (int index = 1; index < protKmer.length; index++) {
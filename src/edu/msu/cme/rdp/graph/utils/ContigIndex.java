@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Byte offsets of every sequence in a fasta file, built in one sequential
+ * pass.  Sequences are read back with positional channel reads so getSeq can
+ * be called from any number of threads at once (unlike IndexedSeqReader).
+ *
+ * Only the seqid (up to the first whitespace) is kept from the header.
+ *
+ * @author fishjord
+ */
+public class ContigIndex {
+
+    private final FileChannel channel;
+    private final Map<String, Integer> seqidToIndex = new HashMap();
+    private long[] starts = new long[1024];
+    private long[] ends = new long[1024];
+    private int size = 0;
+
+    public ContigIndex(File fastaFile) throws IOException {
+        buildIndex(fastaFile);
+        channel = new RandomAccessFile(fastaFile, "r").getChannel();
+    }
+
+    private void buildIndex(File fastaFile) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(fastaFile), 1 << 20);
+        StringBuilder header = new StringBuilder();
+        boolean inHeader = false;
+        boolean lineStart = true;
+        long offset = 0;
+        int b;
+
+        try {
+            while ((b = in.read()) != -1) {
+                if (lineStart && b == '>') {
+                    if (size > 0) {
+                        ends[size - 1] = offset;
+                    }
+                    inHeader = true;
+                    header.setLength(0);
+                } else if (inHeader) {
+                    if (b == '\n') {
+                        inHeader = false;
+                        add(header.toString().trim().split("\\s+")[0], offset + 1);
+                    } else {
+                        header.append((char) b);
+                    }
+                }
+
+                lineStart = (b == '\n');
+                offset++;
+            }
+
+            if (inHeader) {
+                add(header.toString().trim().split("\\s+")[0], offset);
+            }
+            if (size > 0) {
+                ends[size - 1] = offset;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void add(String seqid, long start) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+
+        seqidToIndex.put(seqid, size);
+        starts[size] = start;
+        ends[size] = start;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String seqid) {
+        return seqidToIndex.containsKey(seqid);
+    }
+
+    /**
+     * @return the sequence with line breaks removed, or null if there is no
+     * sequence with that id
+     */
+    public String getSeq(String seqid) throws IOException {
+        Integer index = seqidToIndex.get(seqid);
+        if (index == null) {
+            return null;
+        }
+
+        long start = starts[index];
+        ByteBuffer buf = ByteBuffer.allocate((int) (ends[index] - start));
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) == -1) {
+                throw new IOException("Unexpected end of file reading " + seqid);
+            }
+        }
+
+        StringBuilder seq = new StringBuilder(buf.capacity());
+        for (byte c : buf.array()) {
+            if (!Character.isWhitespace(c)) {
+                seq.append((char) c);
+            }
+        }
+
+        return seq.toString();
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
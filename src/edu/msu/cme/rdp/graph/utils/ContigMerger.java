@@ -19,10 +19,9 @@ package edu.msu.cme.rdp.graph.utils;
 import edu.msu.cme.rdp.alignment.hmm.HMMER3bParser;
 import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
 import edu.msu.cme.rdp.alignment.hmm.scoring.ForwardScorer;
+import edu.msu.cme.rdp.alignment.hmm.tools.SplitForwardScorer;
 import edu.msu.cme.rdp.graph.search.SearchResult.SearchDirection;
 import edu.msu.cme.rdp.readseq.SequenceType;
-import edu.msu.cme.rdp.readseq.readers.IndexedSeqReader;
-import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
 import edu.msu.cme.rdp.readseq.writers.FastaWriter;
 import java.io.BufferedReader;
@@ -31,12 +30,18 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
@@ -56,22 +61,63 @@ public class ContigMerger {
         String leftContig;
         String rightContig;
         int length;
+        int order;
 
         public int compareTo(MergedContig o) {
-            return Double.compare(o.score, score);
+            int ret = Double.compare(o.score, score);
+            if (ret == 0) {
+                //Ties go to the earlier candidate, same as the stable sort used to
+                ret = order - o.order;
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * All the candidate merges for one starting kmer, scored on the thread
+     * pool in chunks
+     */
+    private static class MergeGroup {
+
+        final List<MergedContig> candidates;
+        final List<Future<?>> scoring = new ArrayList();
+
+        MergeGroup(List<MergedContig> candidates) {
+            this.candidates = candidates;
+        }
+
+        void await() throws InterruptedException, ExecutionException {
+            for (Future<?> f : scoring) {
+                f.get();
+            }
+        }
+    }
+    private static final int SCORING_CHUNK_SIZE = 16;
+
+    /**
+     * The left and right contigs found from one starting kmer (at one model
+     * position)
+     */
+    private static class SeedContigs {
+
+        final List<String> leftContigs = new ArrayList();
+        final List<String> rightContigs = new ArrayList();
+        final int k;
+
+        SeedContigs(int k) {
+            this.k = k;
         }
     }
 
-    private static List<MergedContig> mergeAllContigs(Map<String, Sequence> leftContigs, Map<String, Sequence> rightContigs, String kmer, ProfileHMM hmm) {
+    private static List<MergedContig> buildCandidates(Map<String, String> leftContigs, Map<String, String> rightContigs, int k, ProfileHMM hmm) {
         List<MergedContig> ret = new ArrayList();
-        int k = kmer.length();
 
-        for (Sequence leftContig : leftContigs.values()) {
-            String leftSeq = leftContig.getSeqString();
+        for (Map.Entry<String, String> leftContig : leftContigs.entrySet()) {
+            String leftSeq = leftContig.getValue();
             leftSeq = leftSeq.substring(0, leftSeq.length() - k);
 
-            for (Sequence rightContig : rightContigs.values()) {
-                String seq = leftSeq + rightContig.getSeqString();
+            for (Map.Entry<String, String> rightContig : rightContigs.entrySet()) {
+                String seq = leftSeq + rightContig.getValue();
 
                 MergedContig mergedContig = new MergedContig();
                 if (hmm.getAlphabet() == SequenceType.Protein) {
@@ -82,10 +128,10 @@ public class ContigMerger {
                 } else {
                     throw new IllegalStateException("Cannot handle hmm alpha " + hmm.getAlphabet());
                 }
-                mergedContig.score = ForwardScorer.scoreSequence(hmm, seq);
-                mergedContig.leftContig = leftContig.getSeqName();
-                mergedContig.rightContig = rightContig.getSeqName();
+                mergedContig.leftContig = leftContig.getKey();
+                mergedContig.rightContig = rightContig.getKey();
                 mergedContig.length = seq.length();
+                mergedContig.order = ret.size();
 
                 ret.add(mergedContig);
             }
@@ -94,64 +140,140 @@ public class ContigMerger {
         return ret;
     }
 
-    private static List<MergedContig> mergeContigs(Map<String, Sequence> leftContigs, Map<String, Sequence> rightContigs, String kmer, ProfileHMM hmm) {
-        List<MergedContig> finalized = new ArrayList();
-        List<MergedContig> candidates = new ArrayList();
-        int k = kmer.length();
+    private static Map<String, String> readContigs(List<String> seqids, ContigIndex index) throws IOException {
+        Map<String, String> ret = new LinkedHashMap();
+        for (String seqid : seqids) {
+            String seq = index.getSeq(seqid);
+            if (seq == null) {
+                throw new IOException("Contig " + seqid + " isn't in the contig file");
+            }
+            ret.put(seqid, seq);
+        }
 
-        Map<String, Set<MergedContig>> contigToMerges = new HashMap();
+        return ret;
+    }
 
-        for (Sequence leftContig : leftContigs.values()) {
-            String leftSeq = leftContig.getSeqString();
-            leftSeq = leftSeq.substring(0, leftSeq.length() - k);
+    private static String toModelSeq(String nuclSeq, ProfileHMM hmm) {
+        if (hmm.getAlphabet() == SequenceType.Protein) {
+            return ProteinUtils.getInstance().translateToProtein(nuclSeq, true, 11);
+        }
+        return nuclSeq;
+    }
 
-            for (Sequence rightContig : rightContigs.values()) {
-                String seq = leftSeq + rightContig.getSeqString();
+    /**
+     * The left halves can only be scored separately if they translate
+     * independently of what follows them
+     */
+    private static boolean canSplit(Map<String, String> leftContigs, int k, ProfileHMM hmm) {
+        if (hmm.getAlphabet() != SequenceType.Protein) {
+            return true;
+        }
 
-                MergedContig mergedContig = new MergedContig();
-                if (hmm.getAlphabet() == SequenceType.Protein) {
-                    mergedContig.nuclSeq = seq;
-                    seq = mergedContig.protSeq = ProteinUtils.getInstance().translateToProtein(seq, true, 11);
-                } else if (hmm.getAlphabet() == SequenceType.Nucleotide) {
-                    mergedContig.nuclSeq = seq;
-                } else {
-                    throw new IllegalStateException("Cannot handle hmm alpha " + hmm.getAlphabet());
+        for (String leftSeq : leftContigs.values()) {
+            if ((leftSeq.length() - k) % 3 != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scores the candidates from the forward values at the end of each left
+     * half and the backward values at the start of each right half, each
+     * computed once, instead of rescanning every merged contig.  Candidates
+     * must be in the order buildCandidates generates them (all the right
+     * contigs for the first left contig, then the second...)
+     *
+     * The suffix tasks are queued before the left contig tasks that wait on
+     * them, so they're always running or done by the time anything blocks
+     */
+    private static void submitSplitScoring(MergeGroup group, Map<String, String> leftContigs, Map<String, String> rightContigs, int k, ProfileHMM hmm, final SplitForwardScorer scorer, ExecutorService executor) {
+        final List<Future<SplitForwardScorer.Suffix>> suffixes = new ArrayList();
+        for (String rightSeq : rightContigs.values()) {
+            final char[] seq = toModelSeq(rightSeq, hmm).toCharArray();
+            suffixes.add(executor.submit(new Callable<SplitForwardScorer.Suffix>() {
+
+                public SplitForwardScorer.Suffix call() {
+                    return scorer.suffix(seq);
                 }
-                mergedContig.score = ForwardScorer.scoreSequence(hmm, seq);
-                mergedContig.leftContig = leftContig.getSeqName();
-                mergedContig.rightContig = rightContig.getSeqName();
-                mergedContig.length = seq.length();
+            }));
+        }
+
+        int start = 0;
+        for (String leftSeq : leftContigs.values()) {
+            final char[] seq = toModelSeq(leftSeq.substring(0, leftSeq.length() - k), hmm).toCharArray();
+            final List<MergedContig> row = group.candidates.subList(start, start + suffixes.size());
+            start += suffixes.size();
 
-                candidates.add(mergedContig);
+            group.scoring.add(executor.submit(new Callable<Object>() {
 
-                for (String seqid : new String[]{mergedContig.leftContig, mergedContig.rightContig}) {
-                    if (!contigToMerges.containsKey(seqid)) {
-                        contigToMerges.put(seqid, new HashSet());
+                public Object call() throws InterruptedException, ExecutionException {
+                    SplitForwardScorer.Prefix prefix = scorer.prefix(seq);
+                    for (int index = 0; index < row.size(); index++) {
+                        row.get(index).score = scorer.bits(prefix, suffixes.get(index).get());
                     }
+                    return null;
+                }
+            }));
+        }
+    }
+
+    /**
+     * @param splitScorer if not null merges are scored with it when possible
+     */
+    private static MergeGroup submitGroup(SeedContigs seed, ContigIndex index, final ProfileHMM hmm, SplitForwardScorer splitScorer, ExecutorService executor) throws IOException {
+        Map<String, String> leftContigs = readContigs(seed.leftContigs, index);
+        Map<String, String> rightContigs = readContigs(seed.rightContigs, index);
+        MergeGroup group = new MergeGroup(buildCandidates(leftContigs, rightContigs, seed.k, hmm));
+
+        if (splitScorer != null && canSplit(leftContigs, seed.k, hmm)) {
+            submitSplitScoring(group, leftContigs, rightContigs, seed.k, hmm, splitScorer, executor);
+            return group;
+        }
+
+        for (int start = 0; start < group.candidates.size(); start += SCORING_CHUNK_SIZE) {
+            final List<MergedContig> chunk = group.candidates.subList(start, Math.min(start + SCORING_CHUNK_SIZE, group.candidates.size()));
+            group.scoring.add(executor.submit(new Runnable() {
 
-                    contigToMerges.get(seqid).add(mergedContig);
+                public void run() {
+                    for (MergedContig mc : chunk) {
+                        mc.score = ForwardScorer.scoreSequence(hmm, (mc.protSeq != null) ? mc.protSeq : mc.nuclSeq);
+                    }
                 }
-            }
+            }));
         }
 
-        Collections.sort(candidates);
+        return group;
+    }
 
-        while (candidates.size() > 0) {
-            MergedContig mc = candidates.remove(0);
+    /**
+     * Greedily picks the best scoring merges such that each contig is used
+     * at most once
+     */
+    private static List<MergedContig> selectMerges(List<MergedContig> candidates) {
+        List<MergedContig> finalized = new ArrayList();
+        PriorityQueue<MergedContig> heap = new PriorityQueue<MergedContig>(Math.max(candidates.size(), 1));
+        Set<String> used = new HashSet();
 
-            candidates.removeAll(contigToMerges.get(mc.leftContig));
-            candidates.removeAll(contigToMerges.get(mc.rightContig));
+        heap.addAll(candidates);
 
+        MergedContig mc;
+        while ((mc = heap.poll()) != null) {
+            if (used.contains(mc.leftContig) || used.contains(mc.rightContig)) {
+                continue;
+            }
+
+            used.add(mc.leftContig);
+            used.add(mc.rightContig);
             finalized.add(mc);
         }
 
-
         return finalized;
     }
 
     public static void main(String[] args) throws IOException {
         final BufferedReader hmmgsResultReader;
-        final IndexedSeqReader nuclContigReader;
+        final ContigIndex nuclContigIndex;
         final double minBits;
         final int minProtLength;
         final Options options = new Options();
@@ -161,11 +283,15 @@ public class ContigMerger {
         final FastaWriter nuclSeqOut;
         final boolean prot;
         final boolean all;
+        final int threads;
+        final SplitForwardScorer splitScorer;
 
         options.addOption("a", "all", false, "Generate all combinations for multiple paths, instead of just the best");
         options.addOption("b", "min-bits", true, "Minimum bits score");
         options.addOption("l", "min-length", true, "Minimum length");
         options.addOption("o", "out", true, "Write output to file instead of stdout");
+        options.addOption("t", "threads", true, "Number of threads to score merges with (default = #processors)");
+        options.addOption("s", "split-scoring", false, "Score each seed's merges from forward/backward values cached at the seed instead of rescanning every merged contig (full forward scores, may differ slightly from the default scoring)");
 
         try {
             CommandLine line = new PosixParser().parse(options, args);
@@ -190,6 +316,12 @@ public class ContigMerger {
 
             all = line.hasOption("all");
 
+            if (line.hasOption("threads")) {
+                threads = Integer.valueOf(line.getOptionValue("threads"));
+            } else {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+
             args = line.getArgs();
 
             if (args.length != 3) {
@@ -197,11 +329,17 @@ public class ContigMerger {
             }
 
             hmmgsResultReader = new BufferedReader(new FileReader(new File(args[1])));
-            nuclContigReader = new IndexedSeqReader(new File(args[2]));
+            nuclContigIndex = new ContigIndex(new File(args[2]));
             hmm = HMMER3bParser.readModel(new File(args[0]));
 
             prot = (hmm.getAlphabet() == SequenceType.Protein);
 
+            if (line.hasOption("split-scoring")) {
+                splitScorer = new SplitForwardScorer(hmm);
+            } else {
+                splitScorer = null;
+            }
+
             if (prot) {
                 protSeqOut = new FastaWriter(new File("prot_merged.fasta"));
             } else {
@@ -217,19 +355,18 @@ public class ContigMerger {
         }
 
         String line;
-        SearchDirection lastDir = SearchDirection.left; //So this has an assumption built in
-        //It depends on hmmgs always outputting left fragments, then right
-        //We can't just use the kmer to figure out if we've switched to another starting point
-        //because we allow multiple starting model pos, so two different starting
-        //positions can have the same starting kmer
-
-        Map<String, Sequence> leftContigs = new HashMap();
-        Map<String, Sequence> rightContigs = new HashMap();
+        /*
+         * One pass over the results to group the contigs by the seed they
+         * came from, so the input can be in any order (ie several threads
+         * writing results as they finish).  The left search reports its
+         * starting state in the reverse model, convert it back to the forward
+         * model so both directions of a seed have the same key.
+         */
+        Map<String, SeedContigs> seeds = new LinkedHashMap();
 
         int contigsMerged = 0;
         int writtenMerges = 0;
         long startTime = System.currentTimeMillis();
-        String kmer = null;
 
         while ((line = hmmgsResultReader.readLine()) != null) {
             if (line.startsWith("#")) {
@@ -242,76 +379,60 @@ public class ContigMerger {
                 continue;
             }
             //contig_53493	nirk	1500:6:35:16409:3561/1	ADV15048	tcggcgctctacacgttcctgcagcccggg	40	210	70	left	-44.692	184	0
-            int index = 0;
-
             String seqid = lexemes[0];
-            String geneName = lexemes[1];
-            String readid = lexemes[2];
-            String refid = lexemes[3];
-            kmer = lexemes[4];
+            String kmer = lexemes[4];
             int modelStart = Integer.valueOf(lexemes[5]);
-
-            int nuclLength = Integer.valueOf(lexemes[6]);
-            int protLength = Integer.valueOf(lexemes[7]);
-
             SearchDirection dir = SearchDirection.valueOf(lexemes[8]);
 
-            if (dir != lastDir) {
-                if (dir == SearchDirection.left) {
-                    List<MergedContig> mergedContigs;
-
-                    if (all) {
-                        mergedContigs = mergeAllContigs(leftContigs, rightContigs, kmer, hmm);
-                    } else {
-                        mergedContigs = mergeContigs(leftContigs, rightContigs, kmer, hmm);
-                    }
-                    contigsMerged++;
-
-                    for (MergedContig mc : mergedContigs) {
-                        String mergedId = mc.leftContig + "_" + mc.rightContig;
-                        out.println(mergedId + "\t" + mc.length + "\t" + mc.score);
-
-                        if (mc.score > minBits && mc.length > minProtLength) {
-                            if (prot) {
-                                protSeqOut.writeSeq(mergedId, mc.protSeq);
-                            }
-                            nuclSeqOut.writeSeq(mergedId, mc.nuclSeq);
-
-                            writtenMerges++;
-                        }
-                    }
-                    leftContigs.clear();
-                    rightContigs.clear();
-                }
-
-                lastDir = dir;
+            if (dir == SearchDirection.left) {
+                modelStart = hmm.M() - modelStart - kmer.length() / ((prot) ? 3 : 1);
             }
 
-            Sequence seq = nuclContigReader.readSeq(seqid);
+            String key = lexemes[1] + "\t" + lexemes[2] + "\t" + lexemes[3] + "\t" + kmer + "\t" + modelStart;
+            SeedContigs seed = seeds.get(key);
+            if (seed == null) {
+                seed = new SeedContigs(kmer.length());
+                seeds.put(key, seed);
+            }
 
             if (dir == SearchDirection.left) {
-                leftContigs.put(seqid, seq);
+                seed.leftContigs.add(seqid);
             } else if (dir == SearchDirection.right) {
-                rightContigs.put(seqid, seq);
+                seed.rightContigs.add(seqid);
             } else {
                 throw new IOException("Cannot handle search direction " + dir);
             }
         }
+        hmmgsResultReader.close();
 
-        if (!leftContigs.isEmpty() || !rightContigs.isEmpty()) {
-            for (MergedContig mc : mergeContigs(leftContigs, rightContigs, kmer, hmm)) {
-                String mergedId = mc.leftContig + "_" + mc.rightContig;
-                out.println(mergedId + "\t" + mc.length + "\t" + mc.score);
+        /*
+         * The scoring for the next few seeds runs in the background while we
+         * wait on the oldest one to write it out
+         */
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        LinkedList<MergeGroup> pending = new LinkedList();
+        int maxPending = threads * 4;
+
+        try {
+            for (SeedContigs seed : seeds.values()) {
+                pending.add(submitGroup(seed, nuclContigIndex, hmm, splitScorer, executor));
                 contigsMerged++;
 
-                if (mc.score > minBits && mc.length > minProtLength) {
-                    if (prot) {
-                        protSeqOut.writeSeq(mergedId, mc.protSeq);
-                    }
-                    nuclSeqOut.writeSeq(mergedId, mc.nuclSeq);
-                    writtenMerges++;
+                if (pending.size() >= maxPending) {
+                    writtenMerges += writeGroup(pending.removeFirst(), all, minBits, minProtLength, prot, out, protSeqOut, nuclSeqOut);
                 }
             }
+
+            while (!pending.isEmpty()) {
+                writtenMerges += writeGroup(pending.removeFirst(), all, minBits, minProtLength, prot, out, protSeqOut, nuclSeqOut);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while merging contigs");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to score merged contigs: " + e.getCause());
+        } finally {
+            executor.shutdownNow();
+            nuclContigIndex.close();
         }
 
         out.close();
@@ -322,4 +443,36 @@ public class ContigMerger {
 
         System.err.println("Read in " + contigsMerged + " contigs, wrote out " + writtenMerges + " merged contigs in " + ((double) (System.currentTimeMillis() - startTime) / 1000) + "s");
     }
+
+    /**
+     * Waits for the group to be scored, picks the merges and writes them out
+     *
+     * @return number of merges passing the filters
+     */
+    private static int writeGroup(MergeGroup group, boolean all, double minBits, int minProtLength, boolean prot, PrintStream out, FastaWriter protSeqOut, FastaWriter nuclSeqOut) throws IOException, InterruptedException, ExecutionException {
+        long waitStart = System.currentTimeMillis();
+        int written = 0;
+        group.await();
+
+        List<MergedContig> mergedContigs = (all) ? group.candidates : selectMerges(group.candidates);
+        if (GraphEvents.isEnabled()) {
+            GraphEvents.emit(GraphEvents.CONTIG_MERGE, group.candidates.size(), mergedContigs.size(), System.currentTimeMillis() - waitStart);
+        }
+
+        for (MergedContig mc : mergedContigs) {
+            String mergedId = mc.leftContig + "_" + mc.rightContig;
+            out.println(mergedId + "\t" + mc.length + "\t" + mc.score);
+
+            if (mc.score > minBits && mc.length > minProtLength) {
+                if (prot) {
+                    protSeqOut.writeSeq(mergedId, mc.protSeq);
+                }
+                nuclSeqOut.writeSeq(mergedId, mc.nuclSeq);
+
+                written++;
+            }
+        }
+
+        return written;
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Timestamped events from the search, bloom filter and merge code so long
+ * runs can be lined up against gc logs and profiler recordings.
+ *
+ * Nothing is recorded unless a sink is set, either with setSink or by
+ * starting the jvm with -Dhmmgs.events=&lt;file&gt; which writes tab
+ * delimited lines of
+ *
+ * wall clock ms, System.nanoTime(), thread name, event type, event fields...
+ *
+ * Callers should check isEnabled() before building the event so disabled
+ * events don't allocate anything.
+ *
+ * @author fishjord
+ */
+public class GraphEvents {
+
+    public static interface EventSink {
+
+        public void event(String type, Object... fields);
+
+        public void close();
+    }
+
+    public static class TSVEventSink implements EventSink {
+
+        private final PrintStream out;
+
+        public TSVEventSink(File f) throws IOException {
+            out = new PrintStream(new FileOutputStream(f));
+            out.println("#time_ms\tnano_time\tthread\tevent\tfields...");
+        }
+
+        public synchronized void event(String type, Object... fields) {
+            StringBuilder line = new StringBuilder();
+            line.append(System.currentTimeMillis()).append("\t").append(System.nanoTime()).append("\t").append(Thread.currentThread().getName()).append("\t").append(type);
+            for (Object field : fields) {
+                line.append("\t").append(field);
+            }
+            out.println(line);
+        }
+
+        public synchronized void close() {
+            out.close();
+        }
+    }
+    public static final String EVENTS_PROPERTY = "hmmgs.events";
+    public static final String SEARCH_START = "search_start";
+    public static final String SEARCH_END = "search_end";
+    public static final String KPATH_ITERATION = "kpath_iteration";
+    public static final String MEMORY_RECLAIM = "memory_reclaim";
+    public static final String FILTER_LOAD = "filter_load";
+    public static final String FILTER_BUILD_PROGRESS = "filter_build_progress";
+    public static final String CONTIG_MERGE = "contig_merge";
+    private static volatile EventSink sink = null;
+
+    static {
+        String eventFile = System.getProperty(EVENTS_PROPERTY);
+        if (eventFile != null) {
+            try {
+                setSink(new TSVEventSink(new File(eventFile)));
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+
+                    @Override
+                    public void run() {
+                        setSink(null);
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Failed to open event file " + eventFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sink != null;
+    }
+
+    /**
+     * Replaces the current sink (closing it), null turns events off
+     */
+    public static synchronized void setSink(EventSink newSink) {
+        EventSink old = sink;
+        sink = newSink;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    public static void emit(String type, Object... fields) {
+        EventSink s = sink;
+        if (s != null) {
+            s.event(type, fields);
+        }
+    }
+}
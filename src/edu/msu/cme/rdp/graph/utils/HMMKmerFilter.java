@@ -22,9 +22,27 @@ import edu.msu.cme.rdp.readseq.readers.SeqReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Finds the reads with a frame covered (more than 90%) by a hit to the
+ * model, and prints the hits with the frame's end kmers.
+ *
+ * Reads are translated and searched in batches, each worker thread with its
+ * own HMMER3, and the hits are printed in input order.
  *
  * @author fishjord
  */
@@ -62,46 +80,168 @@ public class HMMKmerFilter {
         }
     }
 
-    public static void main(String[] args) throws Exception {
-        if(args.length != 3) {
-            System.err.println("HMMKmerFilter <hmm_file> <query_file> <k>");
-            System.exit(1);
+    private static final int BATCH_SIZE = 1024;
+    private static final double MIN_COVERAGE = .9;
+    private final int k;
+    //One HMMER3 per worker, taken for a whole batch
+    private final BlockingQueue<HMMER3> hmmers;
+    private final int threads;
+
+    public HMMKmerFilter(String hmmFile, int k, int threads) {
+        this.k = k;
+        this.threads = threads;
+
+        hmmers = new ArrayBlockingQueue<HMMER3>(threads);
+        for (int index = 0; index < threads; index++) {
+            hmmers.add(new HMMER3(hmmFile));
         }
+    }
 
-        HMMER3 hmmer = new HMMER3(args[0]);
-        SeqReader reader = new SequenceReader(new File(args[1]));
-        int k = Integer.valueOf(args[2]);
+    /**
+     * Hits can't run through a stop codon, so a frame can only reach the
+     * coverage cutoff if its longest stop free stretch can
+     */
+    private static boolean canReachCoverage(String protSeq) {
+        int longest = 0;
+        int run = 0;
+        for (int index = 0; index < protSeq.length(); index++) {
+            if (protSeq.charAt(index) == '*') {
+                run = 0;
+            } else if (++run > longest) {
+                longest = run;
+            }
+        }
+
+        return longest - 1 > MIN_COVERAGE * protSeq.length();
+    }
+
+    private void filterSeq(Sequence seq, HMMER3 hmmer, List<String> out) {
+        for (Sequence framedSeq : ProteinUtils.getInstance().allFrames(seq)) {
+            String seqString = framedSeq.getSeqString();
+            if (seqString.length() < k) {
+                continue;
+            }
+
+            String protSeq = ProteinUtils.getInstance().translateToProtein(seqString, true, 11);
+            if (!canReachCoverage(protSeq)) {
+                continue;
+            }
+
+            HMMER3Hit[] hits = hmmer.findHits(protSeq);
+            if (hits.length > 0) {
+                String leftKmer = seqString.substring(0, k);
+                String rightKmer = seqString.substring(seqString.length() - k);
+                for (HMMER3Hit hit : hits) {
+                    double covered = (hit.getSeqEnd() - hit.getSeqStart()) / (double) (protSeq.length());
+                    if (covered > MIN_COVERAGE) {
+                        out.add(
+                                framedSeq.getSeqName().replace("_", "\t") + "\t"
+                                + hit.getModelName() + "\t"
+                                + hit.getBits() + "\t"
+                                + hit.getHmmStart() + "\t"
+                                + hit.getHmmEnd() + "\t"
+                                + hit.getSeqStart() + "\t"
+                                + hit.getSeqEnd() + "\t"
+                                + leftKmer + "\t"
+                                + rightKmer + "\t"
+                                + framedSeq.getSeqString());
+                    }
+                }
+            }
+        }
+    }
+
+    private Future<List<String>> submit(final List<Sequence> batch, ExecutorService executor) {
+        return executor.submit(new Callable<List<String>>() {
+
+            public List<String> call() throws InterruptedException {
+                List<String> ret = new ArrayList();
+                HMMER3 hmmer = hmmers.take();
+                try {
+                    for (Sequence seq : batch) {
+                        filterSeq(seq, hmmer, ret);
+                    }
+                } finally {
+                    hmmers.add(hmmer);
+                }
 
-        Sequence seq;
-        while((seq = reader.readNextSequence()) != null) {
-            for(Sequence framedSeq : ProteinUtils.getInstance().allFrames(seq)) {
-                String seqString = framedSeq.getSeqString();
-                String protSeq = ProteinUtils.getInstance().translateToProtein(seqString, true, 11);
-
-                HMMER3Hit[] hits = hmmer.findHits(protSeq);
-                if(hits.length > 0) {
-                    String leftKmer = seqString.substring(0, k);
-                    String rightKmer = seqString.substring(seqString.length() - k);
-                    for(HMMER3Hit hit : hits) {
-                        double covered = hit.getSeqEnd() - hit.getSeqStart() / (double)(protSeq.length());
-                        if(covered > .9) {
-                            System.out.println(
-                                    framedSeq.getSeqName().replace("_", "\t") + "\t" +
-                                    hit.getModelName() + "\t" +
-                                    hit.getBits() + "\t" +
-                                    hit.getHmmStart() + "\t" +
-                                    hit.getHmmEnd() + "\t" +
-                                    hit.getSeqStart() + "\t" +
-                                    hit.getSeqEnd() + "\t" +
-                                    leftKmer + "\t" +
-                                    rightKmer + "\t" +
-                                    framedSeq.getSeqString());
-                        }
+                return ret;
+            }
+        });
+    }
+
+    /**
+     * Translates and scores the reads in batches on the worker threads,
+     * output lines are written in input order
+     *
+     * @return number of sequences read
+     */
+    public int filter(SeqReader reader, PrintStream out) throws IOException, InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<List<String>>> pending = new LinkedList();
+        int processed = 0;
+
+        try {
+            List<Sequence> batch = new ArrayList(BATCH_SIZE);
+            Sequence seq;
+
+            while ((seq = reader.readNextSequence()) != null) {
+                batch.add(seq);
+                processed++;
+
+                if (batch.size() == BATCH_SIZE) {
+                    pending.add(submit(batch, executor));
+                    batch = new ArrayList(BATCH_SIZE);
+
+                    if (pending.size() > threads * 2) {
+                        write(pending.removeFirst(), out);
                     }
                 }
             }
+
+            if (!batch.isEmpty()) {
+                pending.add(submit(batch, executor));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.removeFirst(), out);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return processed;
+    }
+
+    private static void write(Future<List<String>> result, PrintStream out) throws InterruptedException, ExecutionException {
+        for (String line : result.get()) {
+            out.println(line);
         }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("HMMKmerFilter <hmm_file> <query_file> <k> [#threads]");
+            System.exit(1);
+        }
+
+        int k = Integer.valueOf(args[2]);
+        int threads;
+        if (args.length == 4) {
+            threads = Integer.valueOf(args[3]);
+        } else {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        HMMKmerFilter filter = new HMMKmerFilter(args[0], k, threads);
+        SeqReader reader = new SequenceReader(new File(args[1]));
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out));
+
+        long startTime = System.currentTimeMillis();
+        int processed = filter.filter(reader, out);
 
         reader.close();
+        out.flush();
+
+        System.err.println("Processed " + processed + " sequences in " + (System.currentTimeMillis() - startTime) + " ms");
     }
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.utils;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import edu.msu.cme.rdp.kmer.io.KmerStart;
+import edu.msu.cme.rdp.readseq.utils.ProteinUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Binary seed file, the deduplicated (kmer, model position) starting points
+ * for each gene along with how many times each was seen in the references.
+ *
+ * Layout (big endian, DataOutputStream):
+ *
+ * header: int MAGIC, int k, boolean prot, int translation table
+ * then per gene: UTF gene name, int seed count, and per seed long kmer hi,
+ * long kmer lo, int model position, int count
+ *
+ * Model positions are stored as they would be passed to KmerStart, so seeds
+ * read back behave like the text starts KmerStartsFromKnown writes.
+ *
+ * @author fishjord
+ */
+public class SeedFile {
+
+    public static final int MAGIC = 0x58534431;
+
+    /**
+     * Distinct (kmer, model position) seeds for one gene with their counts,
+     * in primitive arrays
+     */
+    public static class SeedSet {
+
+        private static final float MAX_LOAD = .5f;
+        private long[] his;
+        private long[] los;
+        private int[] positions;
+        //Times the seed was added, 0 for an empty slot
+        private int[] counts;
+        private int mask;
+        private int size = 0;
+
+        public SeedSet() {
+            allocate(1 << 10);
+        }
+
+        private void allocate(int cap) {
+            his = new long[cap];
+            los = new long[cap];
+            positions = new int[cap];
+            counts = new int[cap];
+            mask = cap - 1;
+        }
+
+        private int findSlot(long hi, long lo, int pos) {
+            int slot = (PackedKmer.hashCode(hi, lo) * 31 + pos) & mask;
+            while (counts[slot] != 0 && (his[slot] != hi || los[slot] != lo || positions[slot] != pos)) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        public void add(PackedKmer kmer, int modelPosition) {
+            int slot = findSlot(kmer.getHi(), kmer.getLo(), modelPosition);
+            if (counts[slot] == 0) {
+                his[slot] = kmer.getHi();
+                los[slot] = kmer.getLo();
+                positions[slot] = modelPosition;
+                size++;
+            }
+            counts[slot]++;
+
+            if (size > counts.length * MAX_LOAD) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            long[] oldHis = his;
+            long[] oldLos = los;
+            int[] oldPositions = positions;
+            int[] oldCounts = counts;
+
+            allocate(oldCounts.length << 1);
+            for (int slot = 0; slot < oldCounts.length; slot++) {
+                if (oldCounts[slot] != 0) {
+                    int newSlot = findSlot(oldHis[slot], oldLos[slot], oldPositions[slot]);
+                    his[newSlot] = oldHis[slot];
+                    los[newSlot] = oldLos[slot];
+                    positions[newSlot] = oldPositions[slot];
+                    counts[newSlot] = oldCounts[slot];
+                }
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * One seed read back from a file
+     */
+    public static class Seed {
+
+        private final String geneName;
+        private final PackedKmer kmer;
+        private final int modelPosition;
+        private final int count;
+
+        Seed(String geneName, PackedKmer kmer, int modelPosition, int count) {
+            this.geneName = geneName;
+            this.kmer = kmer;
+            this.modelPosition = modelPosition;
+            this.count = count;
+        }
+
+        public String getGeneName() {
+            return geneName;
+        }
+
+        public PackedKmer getKmer() {
+            return kmer;
+        }
+
+        public int getModelPosition() {
+            return modelPosition;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    public static class Writer {
+
+        private final DataOutputStream out;
+
+        public Writer(OutputStream os, int k, boolean prot, int translTable) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(MAGIC);
+            out.writeInt(k);
+            out.writeBoolean(prot);
+            out.writeInt(translTable);
+        }
+
+        /**
+         * Writes the gene's seeds, ordered by model position then kmer
+         */
+        public void write(String geneName, SeedSet seeds) throws IOException {
+            Integer[] order = new Integer[seeds.size];
+            int index = 0;
+            for (int slot = 0; slot < seeds.counts.length; slot++) {
+                if (seeds.counts[slot] != 0) {
+                    order[index++] = slot;
+                }
+            }
+
+            final SeedSet s = seeds;
+            Arrays.sort(order, new Comparator<Integer>() {
+
+                public int compare(Integer o1, Integer o2) {
+                    if (s.positions[o1] != s.positions[o2]) {
+                        return (s.positions[o1] < s.positions[o2]) ? -1 : 1;
+                    }
+                    return PackedKmer.compare(s.his[o1], s.los[o1], s.his[o2], s.los[o2]);
+                }
+            });
+
+            out.writeUTF(geneName);
+            out.writeInt(seeds.size);
+            for (int slot : order) {
+                out.writeLong(seeds.his[slot]);
+                out.writeLong(seeds.los[slot]);
+                out.writeInt(seeds.positions[slot]);
+                out.writeInt(seeds.counts[slot]);
+            }
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static class Reader {
+
+        private final DataInputStream in;
+        private final int k;
+        private final boolean prot;
+        private final int translTable;
+        private String geneName;
+        private int remaining = 0;
+
+        public Reader(File f) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException(f + " is not a seed file");
+            }
+            k = in.readInt();
+            prot = in.readBoolean();
+            translTable = in.readInt();
+        }
+
+        /**
+         * @return the next seed or null at the end of the file
+         */
+        public Seed readNext() throws IOException {
+            while (remaining == 0) {
+                try {
+                    geneName = in.readUTF();
+                } catch (EOFException e) {
+                    return null;
+                }
+                remaining = in.readInt();
+            }
+
+            remaining--;
+            PackedKmer kmer = new PackedKmer(k).set(in.readLong(), in.readLong());
+            int modelPosition = in.readInt();
+            int count = in.readInt();
+
+            return new Seed(geneName, kmer, modelPosition, count);
+        }
+
+        /**
+         * @return the next seed as a KmerStart, the gene name stands in for
+         * the query and reference ids
+         */
+        public KmerStart readNextStart() throws IOException {
+            Seed seed = readNext();
+            if (seed == null) {
+                return null;
+            }
+
+            String kmer = seed.kmer.toString();
+            return new KmerStart(seed.geneName, seed.geneName, seed.geneName, kmer, 1, seed.modelPosition, prot,
+                    (prot ? ProteinUtils.getInstance().translateToProtein(kmer, true, translTable) : null));
+        }
+
+        public int getK() {
+            return k;
+        }
+
+        public boolean isProt() {
+            return prot;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * @return true if the file starts with the seed file magic number
+     */
+    public static boolean isSeedFile(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -16,104 +16,223 @@
  */
 package edu.msu.cme.rdp.graph.visual;
 
+import edu.msu.cme.rdp.graph.abundance.KmerScanner;
 import edu.msu.cme.rdp.graph.filter.BloomFilter;
-import edu.msu.cme.rdp.graph.filter.CodonWalker;
-import edu.msu.cme.rdp.graph.filter.InvalidDNABaseException;
-import edu.msu.cme.rdp.kmer.Kmer;
-import edu.msu.cme.rdp.kmer.set.NuclKmerGenerator;
-import edu.msu.cme.rdp.kmer.trie.KmerGenerator;
+import edu.msu.cme.rdp.graph.search.PackedKmer;
 import edu.msu.cme.rdp.readseq.SequenceFormat;
 import edu.msu.cme.rdp.readseq.readers.SeqReader;
 import edu.msu.cme.rdp.readseq.readers.Sequence;
 import edu.msu.cme.rdp.readseq.readers.SequenceReader;
 import edu.msu.cme.rdp.readseq.utils.SeqUtils;
 import java.io.*;
+import java.util.Arrays;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
 
 /**
+ * Pulls the part of the de Bruijn graph within radius bases of a set of seed
+ * kmers out of a bloom filter, walking right from each seed and right from
+ * its reverse complement (left from the seed).
+ *
+ * The walk is breadth first from all the seeds at once and each strand of a
+ * kmer is expanded only once, at the smallest depth it's reached, so a kmer
+ * that shows up more than once (within a seed's neighborhood or between
+ * seeds) doesn't get walked again.  Kmers are kept packed (k &lt;= 64) in a
+ * KmerSubgraph, the frontier is a flat array of packed kmers and their
+ * hashes.
  *
  * @author Jordan Fish <fishjord at msu.edu>
  */
 public class ExtractGraph {
 
+    //Frontier entry: kmer hi, lo, reverse complement hi, lo, forward hash, reverse complement hash
+    private static final int STRIDE = 6;
     private final BloomFilter bloom;
     private final int radius;
-    private final Graph graph;
+    private final int k;
+    private final KmerSubgraph graph;
+    private final BloomFilter.GraphState state;
+    private final KmerScanner scanner;
+    private long[] frontier = new long[STRIDE * 64];
+    private int frontierSize = 0;
     private int kmersProcessed = 0;
+    private int kmersMissing = 0;
 
     public ExtractGraph(BloomFilter bloom, int radius) {
         this.bloom = bloom;
         this.radius = radius;
-        graph = new Graph();
+        this.k = bloom.getKmerSize();
+        if (k > PackedKmer.MAX_K) {
+            throw new IllegalArgumentException("k must be <= " + PackedKmer.MAX_K);
+        }
+
+        graph = new KmerSubgraph(k);
+        state = bloom.new GraphState();
+        scanner = new KmerScanner(k);
     }
 
     /**
-     * I'm deliberately processing kmers multiple times if they show up multiple
-     * times because it's hard to know if we've already processed this kmer at
-     * this depth, one option to speed this up would be to keep track of the
-     * depth and kmer and not process duplicates, we'll see how slow this is
+     * Adds the seed to the walk, seeds that aren't in the bloom filter are
+     * skipped
      *
-     * @param kmer
+     * @return false if the kmer isn't a valid nucleotide kmer of length k
      */
-    public void processKmer(String kmerStr) {
-        processKmer(kmerStr.toCharArray());
-    }
+    public boolean addSeed(String kmer) {
+        if (kmer.length() != k || !scanner.reset(kmer).next()) {
+            return false;
+        }
+        addSeed(scanner);
 
-    public void processKmer(char[] kmerStr) {
-        Kmer kmer = new Kmer(kmerStr);
-        CodonWalker walker;
+        return true;
+    }
 
-        walker = bloom.new LeftCodonFacade(kmerStr);
-        processKmer(walker, kmer, radius, false);
+    /**
+     * Adds every kmer in the sequence as a seed
+     */
+    public void addSeeds(String seq) {
+        scanner.reset(seq);
+        while (scanner.next()) {
+            addSeed(scanner);
+        }
+    }
 
-        walker = bloom.new RightCodonFacade(kmerStr);
-        processKmer(walker, kmer, radius, true);
+    private void addSeed(KmerScanner scanner) {
+        PackedKmer fwd = scanner.getForward();
+        PackedKmer rc = scanner.getReverseComplement();
 
+        state.setState(fwd.toString().toCharArray());
+        long fwdHash = state.getFwdHash();
+        long rcHash = state.getRcHash();
         kmersProcessed++;
-    }
 
-    private void processKmer(CodonWalker walker, Kmer kmer, int depth, boolean fwd) {
-        if (depth <= 0) {
+        if (!bloom.hasKmer(fwdHash, rcHash)) {
+            kmersMissing++;
             return;
         }
 
-        Byte b = walker.getNextNucl();
-        if (b == null) {
-            return;
+        int id = scanner.isForwardCanonical() ? graph.add(fwd.getHi(), fwd.getLo()) : graph.add(rc.getHi(), rc.getLo());
+        if (radius > 0) {
+            int strand = scanner.isForwardCanonical() ? 0 : 1;
+            if (graph.visit(id, strand)) {
+                push(fwd.getHi(), fwd.getLo(), rc.getHi(), rc.getLo(), fwdHash, rcHash);
+            }
+            if (graph.visit(id, 1 - strand)) {
+                push(rc.getHi(), rc.getLo(), fwd.getHi(), fwd.getLo(), rcHash, fwdHash);
+            }
         }
+    }
 
-        Kmer next;
-        do {
+    private void push(long hi, long lo, long rcHi, long rcLo, long fwdHash, long rcHash) {
+        if (frontierSize + STRIDE > frontier.length) {
+            frontier = Arrays.copyOf(frontier, frontier.length * 2);
+        }
+        frontier[frontierSize++] = hi;
+        frontier[frontierSize++] = lo;
+        frontier[frontierSize++] = rcHi;
+        frontier[frontierSize++] = rcLo;
+        frontier[frontierSize++] = fwdHash;
+        frontier[frontierSize++] = rcHash;
+    }
 
-            if (fwd) {
-                next = kmer.shiftLeft(b);
-            } else {
-                next = kmer.shiftRight(b);
-            }
+    /**
+     * Walks out from the seeds added so far to radius, the frontier is left
+     * empty so more seeds can be added and walked after
+     */
+    public void walk() {
+        PackedKmer kmer = new PackedKmer(k);
+        PackedKmer next = new PackedKmer(k);
+        PackedKmer nextRc = new PackedKmer(k);
+        long[] current = new long[frontier.length];
+
+        for (int depth = 0; depth < radius && frontierSize > 0; depth++) {
+            long[] tmp = current;
+            current = frontier;
+            frontier = tmp;
+            int currentSize = frontierSize;
+            frontierSize = 0;
+            boolean expandNext = depth + 1 < radius;
+
+            for (int index = 0; index < currentSize; index += STRIDE) {
+                long hi = current[index], lo = current[index + 1];
+                long rcHi = current[index + 2], rcLo = current[index + 3];
+                long fwdHash = current[index + 4], rcHash = current[index + 5];
+                byte out = kmer.set(hi, lo).get(0);
 
-            graph.connect(kmer, next);
+                for (byte b = 0; b < 4; b++) {
+                    long nextFwdHash = bloom.successorFwdHash(fwdHash, out, b);
+                    long nextRcHash = bloom.successorRcHash(rcHash, out, b);
+                    if (!bloom.hasKmer(nextFwdHash, nextRcHash)) {
+                        continue;
+                    }
 
-            processKmer(walker, next, depth - 1, fwd);
+                    int id = graph.connect(hi, lo, rcHi, rcLo, b);
+                    if (!expandNext) {
+                        continue;
+                    }
 
-        } while ((b = walker.getSibNucl()) != null);
+                    next.set(hi, lo).shiftLeft(b);
+                    nextRc.set(rcHi, rcLo).shiftRight((byte) (3 - b));
+                    if (graph.visit(id, KmerSubgraph.strand(next.getHi(), next.getLo(), nextRc.getHi(), nextRc.getLo()))) {
+                        push(next.getHi(), next.getLo(), nextRc.getHi(), nextRc.getLo(), nextFwdHash, nextRcHash);
+                    }
+                }
+            }
+        }
+        frontierSize = 0;
     }
 
-    public Graph getGraph() {
+    public KmerSubgraph getGraph() {
         return graph;
     }
 
+    public int getKmersProcessed() {
+        return kmersProcessed;
+    }
+
+    /**
+     * @return number of seeds that weren't in the bloom filter
+     */
+    public int getKmersMissing() {
+        return kmersMissing;
+    }
+
     public static void main(String[] args) throws Exception {
-        if (args.length != 3 && args.length != 4) {
-            System.err.println("USAGE: ExtractGraph <bloom_filter> <kmer_or_seqfile> <radius> [diam]");
-            System.exit(1);
-        }
+        final String usage = "ExtractGraph [options] <bloom_filter> <kmer_or_seqfile> <radius>";
+        Options options = new Options();
+        options.addOption("g", "gfa", true, "Write the graph as GFA to this file");
+        options.addOption("d", "dot", true, "Write the graph for GraphViz to this file (default: stdout if no -g)");
 
-        File bloomInFile = new File(args[0]);
-        File inputKmerFile = new File(args[1]);
-        int radius = Integer.valueOf(args[2]);
-        int diam = 0;
+        File bloomInFile;
+        File inputKmerFile;
+        int radius;
+        File gfaFile = null;
+        File dotFile = null;
 
-        if(args.length == 4) {
-            diam = Integer.valueOf(args[2]);
+        try {
+            CommandLine line = new PosixParser().parse(options, args);
+            if (line.hasOption("gfa")) {
+                gfaFile = new File(line.getOptionValue("gfa"));
+            }
+            if (line.hasOption("dot")) {
+                dotFile = new File(line.getOptionValue("dot"));
+            }
+
+            args = line.getArgs();
+            if (args.length != 3) {
+                throw new Exception("Unexpected number of arguments");
+            }
+
+            bloomInFile = new File(args[0]);
+            inputKmerFile = new File(args[1]);
+            radius = Integer.valueOf(args[2]);
+        } catch (Exception e) {
+            new HelpFormatter().printHelp(usage, options);
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
         }
         long startTime = System.currentTimeMillis();
 
@@ -133,38 +252,41 @@ public class ExtractGraph {
             String kmer;
 
             while ((kmer = reader.readLine()) != null) {
-                if (kmer.length() != k) {
-                    System.err.println(kmer + " length doesn't match bloomfilter k=" + k);
-                    continue;
+                if (!graphExtractor.addSeed(kmer)) {
+                    System.err.println(kmer + " isn't a valid kmer for bloomfilter k=" + k);
                 }
-                graphExtractor.processKmer(kmer);
             }
+            reader.close();
         } else {
             SeqReader reader = new SequenceReader(inputKmerFile);
             Sequence seq;
-            NuclKmerGenerator kmerGen;
-
-            while((seq = reader.readNextSequence()) != null) {
 
-                for(char[] kmer : KmerGenerator.getKmers(seq.getSeqString(), k)) {
-                    try {
-                        graphExtractor.processKmer(kmer);
-                    } catch(InvalidDNABaseException e) {
-                    }
-                }
+            while ((seq = reader.readNextSequence()) != null) {
+                graphExtractor.addSeeds(seq.getSeqString());
             }
-
+            reader.close();
         }
+        graphExtractor.walk();
 
-	System.err.println("Graph loaded from " + args[0] + " in " + (System.currentTimeMillis() - startTime) / 1000.0f + "s");
-	System.err.println("Vertices: " + graphExtractor.getGraph().getNumVertices());
-	System.err.println("Edges: " + graphExtractor.getGraph().getNumEdges());
+        KmerSubgraph graph = graphExtractor.getGraph();
+        System.err.println("Graph loaded from " + args[0] + " in " + (System.currentTimeMillis() - startTime) / 1000.0f + "s");
+        System.err.println("Seed kmers: " + graphExtractor.getKmersProcessed() + " (" + graphExtractor.getKmersMissing() + " not in the bloom filter)");
+        System.err.println("Vertices: " + graph.size());
+        System.err.println("Edges: " + graph.getNumEdges());
 
-	int componentCount = 1;
-	for(Graph comp : graphExtractor.getGraph().getComponents(diam)) {
-	    comp.writeDot(new File("component_" + componentCount + ".gv"));
-	    System.err.println("\tWriting out component " + componentCount + " vertex count=" + comp.getNumVertices() + " edge count=" + comp.getNumEdges());
-	    componentCount++;
-	}
+        if (gfaFile != null) {
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(gfaFile)));
+            graph.writeGfa(out);
+            out.close();
+        }
+
+        if (dotFile != null) {
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(dotFile)));
+            graph.writeDot(out);
+            out.close();
+        } else if (gfaFile == null) {
+            graph.writeDot(System.out);
+            System.out.flush();
+        }
     }
 }
@@ -66,7 +66,7 @@ public class Graph implements Serializable {
 
     public void connectAll(AStarNode node) {
 	while(node != null && node.discoveredFrom != null) {
-	    connect(node.kmer, node.discoveredFrom.kmer);
+	    connect(node.getKmer(), node.discoveredFrom.getKmer());
 	    node = node.discoveredFrom;
 	}
     }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.visual;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * A piece of the de Bruijn graph (k &lt;= 64) held in primitive arrays.
+ *
+ * Nodes are canonical packed kmers (the smaller of a kmer and its reverse
+ * complement) numbered 0..size()-1 in an open addressing table.  A kmer is
+ * on strand 0 if it is its node's canonical kmer, strand 1 if it is the
+ * reverse complement.  Each node has one byte of edges: the low four bits
+ * are the bases that can follow the canonical kmer, the high four the ones
+ * that can follow its reverse complement.  Every edge is stored from both
+ * ends (a kmer followed by b is the same as rc(kmer + b) minus its first
+ * base followed by the complement of the kmer's first base), so a node's
+ * neighbors on either side can be read off its own byte.
+ *
+ * Palindromic kmers (possible when k is even) only use strand 0.
+ *
+ * Not thread safe.
+ *
+ * @author fishjord
+ */
+public class KmerSubgraph {
+
+    private static final float MAX_LOAD = .5f;
+    private final int k;
+    //Table slot -> node id, -1 for an empty slot
+    private int[] slots;
+    private int mask;
+    //Node id -> canonical packed kmer, edges and strands visited
+    private long[] his;
+    private long[] los;
+    private byte[] edges;
+    private byte[] visited;
+    private int size = 0;
+    private final PackedKmer scratch;
+    private final PackedKmer rcScratch;
+
+    public KmerSubgraph(int k) {
+        if (k > PackedKmer.MAX_K) {
+            throw new IllegalArgumentException("k must be <= " + PackedKmer.MAX_K);
+        }
+        this.k = k;
+        this.scratch = new PackedKmer(k);
+        this.rcScratch = new PackedKmer(k);
+
+        allocate(1 << 10);
+        his = new long[512];
+        los = new long[512];
+        edges = new byte[512];
+        visited = new byte[512];
+    }
+
+    private void allocate(int cap) {
+        slots = new int[cap];
+        Arrays.fill(slots, -1);
+        mask = cap - 1;
+    }
+
+    private int findSlot(long hi, long lo) {
+        int slot = PackedKmer.hashCode(hi, lo) & mask;
+        int id;
+        while ((id = slots[slot]) != -1 && (his[id] != hi || los[id] != lo)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * @return the node id of the canonical kmer, or -1
+     */
+    public int find(long hi, long lo) {
+        return slots[findSlot(hi, lo)];
+    }
+
+    /**
+     * @return the node id of the canonical kmer, adding it if it's new
+     */
+    public int add(long hi, long lo) {
+        int slot = findSlot(hi, lo);
+        int id = slots[slot];
+        if (id != -1) {
+            return id;
+        }
+
+        id = size++;
+        slots[slot] = id;
+        if (id == his.length) {
+            his = Arrays.copyOf(his, id * 2);
+            los = Arrays.copyOf(los, id * 2);
+            edges = Arrays.copyOf(edges, id * 2);
+            visited = Arrays.copyOf(visited, id * 2);
+        }
+        his[id] = hi;
+        los[id] = lo;
+
+        if (size > slots.length * MAX_LOAD) {
+            allocate(slots.length << 1);
+            for (int index = 0; index < size; index++) {
+                slots[findSlot(his[index], los[index])] = index;
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * @return 0 if the forward kmer is canonical, 1 if its reverse complement
+     * is
+     */
+    public static int strand(long hi, long lo, long rcHi, long rcLo) {
+        return (PackedKmer.compare(hi, lo, rcHi, rcLo) <= 0) ? 0 : 1;
+    }
+
+    /**
+     * Adds the edge from the kmer (with its reverse complement) to the kmer
+     * made by appending b, adding either node if needed
+     *
+     * @return the id of the node b leads to
+     */
+    public int connect(long hi, long lo, long rcHi, long rcLo, byte b) {
+        int fromStrand = strand(hi, lo, rcHi, rcLo);
+        int from = (fromStrand == 0) ? add(hi, lo) : add(rcHi, rcLo);
+        byte first = scratch.set(hi, lo).get(0);
+
+        scratch.shiftLeft(b);
+        rcScratch.set(rcHi, rcLo).shiftRight((byte) (3 - b));
+        int toStrand = strand(scratch.getHi(), scratch.getLo(), rcScratch.getHi(), rcScratch.getLo());
+        int to = (toStrand == 0) ? add(scratch.getHi(), scratch.getLo()) : add(rcScratch.getHi(), rcScratch.getLo());
+
+        edges[from] |= 1 << (b + 4 * edgeStrand(from, fromStrand));
+        //The same edge walked from the other end, rc(next) followed by the complement of the first base
+        edges[to] |= 1 << ((3 - first) + 4 * edgeStrand(to, 1 - toStrand));
+
+        return to;
+    }
+
+    private boolean isPalindrome(int id) {
+        rcScratch.setReverseComplement(his[id], los[id]);
+        return rcScratch.getHi() == his[id] && rcScratch.getLo() == los[id];
+    }
+
+    private int edgeStrand(int id, int strand) {
+        return (strand == 1 && isPalindrome(id)) ? 0 : strand;
+    }
+
+    /**
+     * Marks the node's strand as visited
+     *
+     * @return false if it already was
+     */
+    public boolean visit(int id, int strand) {
+        int bit = 1 << edgeStrand(id, strand);
+        if ((visited[id] & bit) != 0) {
+            return false;
+        }
+        visited[id] |= bit;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public PackedKmer getKmer(int id, PackedKmer dest) {
+        return dest.set(his[id], los[id]);
+    }
+
+    /**
+     * @return the bases that can follow the node's kmer on strand, one bit
+     * per base
+     */
+    public int getNextBases(int id, int strand) {
+        return (edges[id] >>> (4 * strand)) & 0xf;
+    }
+
+    /**
+     * @return number of distinct edges, an edge and its reverse complement
+     * count once
+     */
+    public long getNumEdges() {
+        long ret = 0;
+        for (int id = 0; id < size; id++) {
+            for (int strand = 0; strand < 2; strand++) {
+                int bases = getNextBases(id, strand);
+                for (byte b = 0; b < 4; b++) {
+                    if ((bases & (1 << b)) != 0 && isWrittenFrom(id, strand, b, follow(id, strand, b))) {
+                        ret++;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Finds where the edge from the node's strand along b leads
+     *
+     * @return the node id times 2 plus the strand the kmer is on there
+     */
+    private long follow(int id, int strand, byte b) {
+        if (strand == 0) {
+            scratch.set(his[id], los[id]);
+            rcScratch.setReverseComplement(his[id], los[id]);
+        } else {
+            scratch.setReverseComplement(his[id], los[id]);
+            rcScratch.set(his[id], los[id]);
+        }
+
+        scratch.shiftLeft(b);
+        rcScratch.shiftRight((byte) (3 - b));
+        int toStrand = strand(scratch.getHi(), scratch.getLo(), rcScratch.getHi(), rcScratch.getLo());
+        int to = (toStrand == 0) ? find(scratch.getHi(), scratch.getLo()) : find(rcScratch.getHi(), rcScratch.getLo());
+
+        return 2L * to + toStrand;
+    }
+
+    /**
+     * An edge and its reverse complement are the same edge, it is written
+     * from whichever end gives the smaller (node, strand, base)
+     */
+    private boolean isWrittenFrom(int id, int strand, byte b, long to) {
+        int toId = (int) (to >>> 1);
+        int toStrand = edgeStrand(toId, 1 - (int) (to & 1));
+        byte first = (strand == 0) ? scratch.set(his[id], los[id]).get(0) : scratch.setReverseComplement(his[id], los[id]).get(0);
+        byte back = (byte) (3 - first);
+
+        if (toId != id) {
+            return id < toId;
+        } else if (toStrand != strand) {
+            return strand < toStrand;
+        }
+        return b <= back;
+    }
+
+    /**
+     * Writes the graph as GFA 1, a segment per node (named by node id + 1)
+     * and a link per edge overlapping by k - 1
+     */
+    public void writeGfa(PrintStream out) {
+        PackedKmer kmer = new PackedKmer(k);
+        out.println("H\tVN:Z:1.0");
+        for (int id = 0; id < size; id++) {
+            out.println("S\t" + (id + 1) + "\t" + getKmer(id, kmer));
+        }
+
+        for (int id = 0; id < size; id++) {
+            for (int strand = 0; strand < 2; strand++) {
+                int bases = getNextBases(id, strand);
+                for (byte b = 0; b < 4; b++) {
+                    if ((bases & (1 << b)) == 0) {
+                        continue;
+                    }
+
+                    long to = follow(id, strand, b);
+                    if (isWrittenFrom(id, strand, b, to)) {
+                        out.println("L\t" + (id + 1) + "\t" + ((strand == 0) ? "+" : "-") + "\t" + ((to >>> 1) + 1) + "\t" + (((to & 1) == 0) ? "+" : "-") + "\t" + (k - 1) + "M");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the graph for GraphViz, undirected, nodes named by their
+     * canonical kmer and labeled with their id
+     */
+    public void writeDot(PrintStream out) {
+        PackedKmer kmer = new PackedKmer(k);
+        PackedKmer other = new PackedKmer(k);
+        out.println("graph sg {");
+        for (int id = 0; id < size; id++) {
+            out.println("\t" + getKmer(id, kmer) + "[label=\"" + id + "\"];");
+        }
+
+        for (int id = 0; id < size; id++) {
+            getKmer(id, kmer);
+            for (int strand = 0; strand < 2; strand++) {
+                int bases = getNextBases(id, strand);
+                for (byte b = 0; b < 4; b++) {
+                    if ((bases & (1 << b)) == 0) {
+                        continue;
+                    }
+
+                    long to = follow(id, strand, b);
+                    if (isWrittenFrom(id, strand, b, to)) {
+                        out.println("\t" + kmer + " -- " + getKmer((int) (to >>> 1), other) + ";");
+                    }
+                }
+            }
+        }
+        out.println("}");
+    }
+}
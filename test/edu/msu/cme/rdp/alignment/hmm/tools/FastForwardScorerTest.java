@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.alignment.hmm.tools;
+
+import edu.msu.cme.rdp.alignment.hmm.HMMER3bParser;
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.alignment.hmm.scoring.ForwardScorer;
+import edu.msu.cme.rdp.alignment.hmm.scoring.HMMScorer;
+import java.io.File;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * FastForwardScorer has to give the same scores as ForwardScorer before it
+ * can replace it anywhere scores are reported
+ *
+ * @author fishjord
+ */
+public class FastForwardScorerTest {
+
+    private static final String residues = "acdefghiklmnpqrstvwy";
+    //Floats and the logsum table, a few thousandths of a bit
+    private static final double tolerance = .01;
+
+    private static ProfileHMM readModel() throws Exception {
+        return HMMER3bParser.readModel(new File(FastForwardScorerTest.class.getResource("fftest.hmm").toURI()));
+    }
+
+    @Test
+    public void testMatchesForwardScorer() throws Exception {
+        ProfileHMM hmm = readModel();
+        FastForwardScorer fast = new FastForwardScorer(new FastForwardScorer.Profile(hmm));
+        Random rand = new Random(1);
+
+        for (int trial = 0; trial < 200; trial++) {
+            StringBuilder seq = new StringBuilder();
+            int length = 1 + rand.nextInt(60);
+            for (int index = 0; index < length; index++) {
+                seq.append(residues.charAt(rand.nextInt(residues.length())));
+            }
+
+            HMMScorer slow = new ForwardScorer(hmm, -1);
+            fast.reset();
+            for (int index = 0; index < seq.length(); index++) {
+                slow.consume(seq.charAt(index));
+                fast.consume(seq.charAt(index));
+                assertEquals(seq.substring(0, index + 1), slow.getScore(), fast.getScore(), tolerance);
+            }
+
+            assertEquals(seq.toString(), slow.getMaxScore(), fast.getMaxScore(), tolerance);
+            assertEquals(seq.toString(), ForwardScorer.scoreSequence(hmm, seq.toString()), fast.scoreSequence(seq.toString()), tolerance);
+        }
+    }
+
+    /**
+     * Random sequences mostly score below the null model, score ones that
+     * look like the model too
+     */
+    @Test
+    public void testMatchesForwardScorerOnHits() throws Exception {
+        ProfileHMM hmm = readModel();
+        FastForwardScorer fast = new FastForwardScorer(new FastForwardScorer.Profile(hmm));
+        Random rand = new Random(2);
+
+        for (int trial = 0; trial < 50; trial++) {
+            StringBuilder seq = new StringBuilder();
+            for (int k = 1; k <= hmm.M(); k++) {
+                char best = residues.charAt(0);
+                for (char r : residues.toCharArray()) {
+                    if (hmm.msc(k, r) > hmm.msc(k, best)) {
+                        best = r;
+                    }
+                }
+                //Mutate some positions so the scores spread out
+                seq.append((rand.nextInt(4) == 0) ? residues.charAt(rand.nextInt(residues.length())) : best);
+            }
+
+            HMMScorer slow = new ForwardScorer(hmm, -1);
+            for (char c : seq.toString().toCharArray()) {
+                slow.consume(c);
+            }
+
+            double score = fast.scoreSequence(seq.toString());
+            assertEquals(seq.toString(), slow.getScore(), score, tolerance);
+            assertEquals(seq.toString(), slow.getMaxScore(), fast.getMaxScore(), tolerance);
+            assertEquals(seq.toString(), ForwardScorer.scoreSequence(hmm, seq.toString()), score, tolerance);
+        }
+    }
+}
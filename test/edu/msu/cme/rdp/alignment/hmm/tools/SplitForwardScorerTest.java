@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.alignment.hmm.tools;
+
+import edu.msu.cme.rdp.alignment.hmm.ProfileHMM;
+import edu.msu.cme.rdp.alignment.hmm.TSC;
+import edu.msu.cme.rdp.alignment.hmm.XSC;
+import edu.msu.cme.rdp.alignment.hmm.XSTATES;
+import edu.msu.cme.rdp.readseq.SequenceType;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class SplitForwardScorerTest {
+
+    /**
+     * Scores that vary with the node, residue and transition so a join at
+     * the wrong node or state shows up in the score
+     */
+    private static class MockProfileHMM extends ProfileHMM {
+
+        private final int m;
+
+        public MockProfileHMM(int m) {
+            this.m = m;
+        }
+
+        @Override
+        public int K() {
+            return 20;
+        }
+
+        @Override
+        public int M() {
+            return m;
+        }
+
+        @Override
+        public SequenceType getAlphabet() {
+            return SequenceType.Protein;
+        }
+
+        @Override
+        public double getMaxMatchEmission(int i) {
+            return -.2;
+        }
+
+        @Override
+        public double isc(int k, char b) {
+            return -1 - .1 * ((k * b) % 3);
+        }
+
+        @Override
+        public double isc(int k, int b) {
+            return isc(k, (char) b);
+        }
+
+        @Override
+        public double msc(int k, char b) {
+            return -.2 - .3 * ((k + b) % 4);
+        }
+
+        @Override
+        public double msc(int k, int b) {
+            return msc(k, (char) b);
+        }
+
+        @Override
+        public void reconfigureLength(int L) {
+        }
+
+        @Override
+        public void rescaleMatchEmission(int k, char b, double scale) {
+        }
+
+        @Override
+        public double tsc(int k, TSC trans) {
+            return -.2 - .15 * ((k + trans.ordinal() * 3) % 4);
+        }
+
+        @Override
+        public double[] tsc(TSC trans) {
+            return null;
+        }
+
+        @Override
+        public double xsc(XSTATES xstate, XSC trans) {
+            return -.1 - .2 * (xstate.ordinal() + trans.ordinal());
+        }
+
+        @Override
+        public void xsc(XSTATES xstate, XSC trans, double val) {
+        }
+    }
+    private static final String seq = "mslrqiafygkggigkstts";
+
+    @Test
+    public void testSplitEqualsDirect() {
+        SplitForwardScorer scorer = new SplitForwardScorer(new MockProfileHMM(8));
+        char[] full = seq.toCharArray();
+        double direct = scorer.score(full);
+
+        for (int cut = 0; cut <= full.length; cut++) {
+            SplitForwardScorer.Prefix prefix = scorer.prefix(Arrays.copyOfRange(full, 0, cut));
+            SplitForwardScorer.Suffix suffix = scorer.suffix(Arrays.copyOfRange(full, cut, full.length));
+
+            assertEquals(cut, prefix.length());
+            assertEquals(full.length - cut, suffix.length());
+            assertEquals("cut at " + cut, direct, scorer.score(prefix, suffix), 1e-9);
+        }
+    }
+
+    @Test
+    public void testModelLongerThanSeq() {
+        SplitForwardScorer scorer = new SplitForwardScorer(new MockProfileHMM(30));
+        char[] full = seq.substring(0, 7).toCharArray();
+        double direct = scorer.score(full);
+
+        for (int cut = 0; cut <= full.length; cut++) {
+            SplitForwardScorer.Prefix prefix = scorer.prefix(Arrays.copyOfRange(full, 0, cut));
+            SplitForwardScorer.Suffix suffix = scorer.suffix(Arrays.copyOfRange(full, cut, full.length));
+
+            assertEquals("cut at " + cut, direct, scorer.score(prefix, suffix), 1e-9);
+        }
+    }
+
+    @Test
+    public void testPairs() {
+        SplitForwardScorer scorer = new SplitForwardScorer(new MockProfileHMM(12));
+        String[] lefts = {"mslrq", "gkgg", "m"};
+        String[] rights = {"iafygk", "stts", ""};
+
+        for (String left : lefts) {
+            SplitForwardScorer.Prefix prefix = scorer.prefix(left.toCharArray());
+            for (String right : rights) {
+                SplitForwardScorer.Suffix suffix = scorer.suffix(right.toCharArray());
+                assertEquals(left + right, scorer.score((left + right).toCharArray()), scorer.score(prefix, suffix), 1e-9);
+            }
+        }
+    }
+}
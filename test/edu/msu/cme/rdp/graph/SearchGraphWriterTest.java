@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph;
+
+import edu.msu.cme.rdp.graph.search.AStarNode;
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class SearchGraphWriterTest {
+
+    private static final String seq = "cccgggatgaaacccgggtttaaacccgggttt";
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final PrintStream out = new PrintStream(bytes);
+    //Segment name -> sequence, state and state number
+    private final Map<String, String> segments = new HashMap();
+    private final List<String> links = new ArrayList();
+
+    private static AStarNode node(AStarNode from, String kmer, int stateNo, char state) {
+        return new AStarNode(from, new PackedKmer(kmer.toCharArray()), 0, 0, stateNo, state);
+    }
+
+    private static String reverse(String s) {
+        return new StringBuilder(s).reverse().toString();
+    }
+
+    private void parse() {
+        out.flush();
+        String[] lines = bytes.toString().split("\n");
+        assertEquals("H\tVN:Z:1.0", lines[0]);
+
+        for (String line : Arrays.asList(lines).subList(1, lines.length)) {
+            String[] lexemes = line.split("\t");
+            if (lexemes[0].equals("S")) {
+                assertNull(segments.put(lexemes[1], lexemes[2] + " " + lexemes[3] + " " + lexemes[4]));
+            } else {
+                assertEquals("L", lexemes[0]);
+                links.add(segments.get(lexemes[1]).split(" ")[0] + lexemes[2] + " " + segments.get(lexemes[3]).split(" ")[0] + lexemes[4] + " " + lexemes[5]);
+            }
+        }
+    }
+
+    @Test
+    public void testProtPaths() {
+        String kmer = seq.substring(6, 18);
+        AStarNode seed = node(null, kmer, 5, 'm');
+        AStarNode a = node(seed, seq.substring(9, 21), 6, 'm');
+        AStarNode d = node(a, seq.substring(9, 21), 7, 'd');
+        AStarNode b = node(d, seq.substring(12, 24), 8, 'm');
+        //Shares seed -> a with the first path
+        AStarNode c = node(a, seq.substring(12, 21) + "ccc", 7, 'm');
+
+        SearchGraphWriter writer = new SearchGraphWriter(out, 12, true, 20);
+        writer.writePaths(Arrays.asList(b, c, b), true);
+        parse();
+
+        assertEquals(5, writer.getNodeCount());
+        assertEquals(4, writer.getLinkCount());
+        assertEquals(5, segments.size());
+        assertTrue(segments.containsValue(seq.substring(9, 21) + " ST:A:m SN:i:6"));
+        assertTrue(segments.containsValue(seq.substring(9, 21) + " ST:A:d SN:i:7"));
+
+        assertEquals(4, links.size());
+        assertTrue(links.contains(kmer + "+ " + seq.substring(9, 21) + "+ 9M"));
+        assertTrue(links.contains(seq.substring(9, 21) + "+ " + seq.substring(12, 21) + "ccc+ 9M"));
+        //A delete doesn't move the kmer
+        assertTrue(links.contains(seq.substring(9, 21) + "+ " + seq.substring(9, 21) + "+ *"));
+        assertTrue(links.contains(seq.substring(9, 21) + "+ " + seq.substring(12, 24) + "+ 9M"));
+    }
+
+    @Test
+    public void testNuclPaths() {
+        AStarNode seed = node(null, seq.substring(0, 5), 5, 'm');
+        AStarNode a = node(seed, seq.substring(1, 6), 6, 'm');
+        AStarNode b = node(a, seq.substring(2, 7), 7, 'm');
+        AStarNode c = node(a, seq.substring(2, 6) + "t", 6, 'i');
+
+        SearchGraphWriter writer = new SearchGraphWriter(out, 5, false, 20);
+        writer.writePath(b, true);
+        writer.writePath(c, true);
+        parse();
+
+        assertEquals(4, segments.size());
+        assertEquals(3, links.size());
+        assertTrue(links.contains(seq.substring(0, 5) + "+ " + seq.substring(1, 6) + "+ 4M"));
+        assertTrue(links.contains(seq.substring(1, 6) + "+ " + seq.substring(2, 6) + "t+ 4M"));
+    }
+
+    @Test
+    public void testLeftPaths() {
+        //Seed at model position 3 (0 based) covering 4 codons of a 20 state model
+        String kmer = seq.substring(6, 18);
+        AStarNode rightSeed = node(null, kmer, 3 + 4, 'm');
+        AStarNode right = node(rightSeed, seq.substring(9, 21), 8, 'm');
+
+        //The left search stores kmers backwards and numbers states from the model's end
+        AStarNode leftSeed = node(null, reverse(kmer), 20 - 3, 'm');
+        AStarNode left = node(leftSeed, reverse(seq.substring(3, 15)), 18, 'm');
+
+        SearchGraphWriter writer = new SearchGraphWriter(out, 12, true, 20);
+        writer.writePath(right, true);
+        writer.writePath(left, false);
+        parse();
+
+        //Both halves share the seed
+        assertEquals(3, segments.size());
+        assertTrue(segments.containsValue(kmer + " ST:A:m SN:i:7"));
+        assertTrue(segments.containsValue(seq.substring(3, 15) + " ST:A:m SN:i:6"));
+
+        assertEquals(2, links.size());
+        assertTrue(links.contains(seq.substring(3, 15) + "+ " + kmer + "+ 9M"));
+        assertTrue(links.contains(kmer + "+ " + seq.substring(9, 21) + "+ 9M"));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.abundance;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import edu.msu.cme.rdp.readseq.readers.Sequence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class ContigKmerIndexTest {
+
+    private static String randomSeq(Random rand, int length) {
+        StringBuilder ret = new StringBuilder();
+        for (int index = 0; index < length; index++) {
+            ret.append("acgt".charAt(rand.nextInt(4)));
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Checks every kmer's hits against the kmers found by brute force, hits
+     * are expected in contig order then position order
+     */
+    private static void checkIndex(List<Sequence> contigs, int k) {
+        Map<String, List<String>> expected = new LinkedHashMap();
+        for (int contig = 0; contig < contigs.size(); contig++) {
+            String s = contigs.get(contig).getSeqString();
+            for (int pos = 0; pos + k <= s.length(); pos++) {
+                String kmer = s.substring(pos, pos + k);
+                if (!kmer.matches("[acgt]+")) {
+                    continue;
+                }
+
+                String canonical = KmerScannerTest.canonical(kmer);
+                List<String> hits = expected.get(canonical);
+                if (hits == null) {
+                    hits = new ArrayList();
+                    expected.put(canonical, hits);
+                }
+                hits.add(contig + ":" + pos);
+            }
+        }
+
+        ContigKmerIndex index = new ContigKmerIndex(contigs, k);
+        assertEquals(k, index.getK());
+        assertEquals(expected.size(), index.size());
+        assertEquals(contigs.size(), index.getContigCount());
+
+        int totalHits = 0;
+        PackedKmer kmer = new PackedKmer(k);
+        for (Map.Entry<String, List<String>> entry : expected.entrySet()) {
+            PackedKmer canonical = new PackedKmer(entry.getKey().toCharArray());
+            int id = index.find(canonical.getHi(), canonical.getLo());
+            assertTrue(entry.getKey(), id >= 0 && id < index.size());
+            assertEquals(entry.getKey(), index.getKmer(id, kmer).toString());
+
+            List<String> hits = new ArrayList();
+            for (int hit = index.hitStart(id); hit < index.hitEnd(id); hit++) {
+                hits.add(index.getHitContig(hit) + ":" + index.getHitPosition(hit));
+            }
+            assertEquals(entry.getKey(), entry.getValue(), hits);
+            totalHits += hits.size();
+        }
+
+        //Ids are dense so the hit ranges have to tile the hit arrays
+        assertEquals(0, index.hitStart(0));
+        assertEquals(totalHits, index.hitEnd(index.size() - 1));
+    }
+
+    @Test
+    public void testHits() {
+        List<Sequence> contigs = Arrays.asList(
+                new Sequence("c1", "", "acgtacgtaaccggttacgt"),
+                new Sequence("c2", "", "ttaccggttacgnacgtacg"),
+                new Sequence("c3", "", "aac"));
+        checkIndex(contigs, 4);
+        checkIndex(contigs, 7);
+
+        ContigKmerIndex index = new ContigKmerIndex(contigs, 4);
+        assertEquals("c2", index.getSeqid(1));
+        assertEquals(20, index.getContigLength(1));
+        assertEquals(3, index.getContigLength(2));
+
+        PackedKmer absent = new PackedKmer("gggg".toCharArray());
+        assertEquals(-1, index.find(absent.getHi(), absent.getLo()));
+
+        //A read kmer from the other strand finds the same entry
+        KmerScanner scanner = new KmerScanner(4).reset("ggttaacc");
+        assertTrue(scanner.next());
+        int id = index.find(scanner);
+        assertEquals("aacc", index.getKmer(id, new PackedKmer(4)).toString());
+    }
+
+    @Test
+    public void testRehash() {
+        //Enough distinct kmers to grow the table and the kmer arrays several times
+        Random rand = new Random(1);
+        List<Sequence> contigs = new ArrayList();
+        for (int contig = 0; contig < 40; contig++) {
+            contigs.add(new Sequence("contig_" + contig, "", randomSeq(rand, 5000)));
+        }
+        //Repeats of earlier contigs, on both strands
+        contigs.add(new Sequence("repeat", "", contigs.get(0).getSeqString().substring(100, 600)));
+        contigs.add(new Sequence("rc_repeat", "", KmerScannerTest.reverseComplement(contigs.get(3).getSeqString())));
+
+        checkIndex(contigs, 21);
+        checkIndex(contigs, 40);
+    }
+
+    @Test
+    public void testStrands() {
+        List<Sequence> contigs = Arrays.asList(
+                //acgt is a palindrome, aacc only appears as aacc
+                new Sequence("c1", "", "acgt"),
+                new Sequence("c2", "", "aacc"),
+                //gggg only appears as the reverse complement of cccc
+                new Sequence("c3", "", "gggg"),
+                //ttcc here and ggaa in c5
+                new Sequence("c4", "", "ttcc"),
+                new Sequence("c5", "", "ggaa"));
+        ContigKmerIndex index = new ContigKmerIndex(contigs, 4);
+
+        assertEquals(KmerScanner.CANONICAL_STRAND, index.getStrands(find(index, "acgt")));
+        assertEquals(KmerScanner.CANONICAL_STRAND, index.getStrands(find(index, "aacc")));
+        assertEquals(KmerScanner.REVERSE_STRAND, index.getStrands(find(index, "cccc")));
+        assertEquals(KmerScanner.CANONICAL_STRAND | KmerScanner.REVERSE_STRAND, index.getStrands(find(index, "ggaa")));
+        assertEquals(-1, find(index, "tttt"));
+    }
+
+    private static int find(ContigKmerIndex index, String kmer) {
+        PackedKmer canonical = new PackedKmer(KmerScannerTest.canonical(kmer).toCharArray());
+        return index.find(canonical.getHi(), canonical.getLo());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.abundance;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class KmerScannerTest {
+
+    private static final String seq = "atgtctttgcgccagattgcgttctacggtaagggcggtatcggaaagtccaccacctcccagaacaccctggccgcgctggtcgagctggatcagaagatcctgatcgtcggctgcgatccgaaggccgactcgacccgcctgatcctgcacgccaaggcgcaggacaccgtgctg";
+
+    static String reverseComplement(String kmer) {
+        StringBuilder ret = new StringBuilder();
+        for (int index = kmer.length() - 1; index >= 0; index--) {
+            ret.append("tgca".charAt("acgt".indexOf(kmer.charAt(index))));
+        }
+        return ret.toString();
+    }
+
+    static String canonical(String kmer) {
+        String rc = reverseComplement(kmer);
+        return (kmer.compareTo(rc) <= 0) ? kmer : rc;
+    }
+
+    /**
+     * Compares every kmer the scanner finds to the substrings of s
+     */
+    private static void checkScan(String s, int k) {
+        KmerScanner scanner = new KmerScanner(k).reset(s);
+        List<Integer> expected = new ArrayList();
+        for (int pos = 0; pos + k <= s.length(); pos++) {
+            if (s.substring(pos, pos + k).matches("[acgt]+")) {
+                expected.add(pos);
+            }
+        }
+
+        List<Integer> positions = new ArrayList();
+        while (scanner.next()) {
+            int pos = scanner.getPosition();
+            String kmer = s.substring(pos, pos + k);
+            String rc = reverseComplement(kmer);
+            String msg = "k=" + k + " pos=" + pos;
+            positions.add(pos);
+
+            assertEquals(msg, kmer, scanner.getForward().toString());
+            assertEquals(msg, rc, scanner.getReverseComplement().toString());
+            assertEquals(msg, kmer.equals(rc), scanner.isPalindrome());
+            assertEquals(msg, kmer.compareTo(rc) <= 0, scanner.isForwardCanonical());
+            assertEquals(msg, (kmer.compareTo(rc) <= 0) ? KmerScanner.CANONICAL_STRAND : KmerScanner.REVERSE_STRAND, scanner.getStrand());
+
+            PackedKmer canonical = new PackedKmer(canonical(kmer).toCharArray());
+            assertEquals(msg, canonical.getHi(), scanner.getCanonicalHi());
+            assertEquals(msg, canonical.getLo(), scanner.getCanonicalLo());
+        }
+
+        assertEquals("k=" + k, expected, positions);
+    }
+
+    @Test
+    public void testScan() {
+        checkScan(seq, 10);
+        checkScan(seq, 21);
+    }
+
+    @Test
+    public void testWordBoundaries() {
+        Random rand = new Random(1);
+        StringBuilder s = new StringBuilder();
+        for (int index = 0; index < 300; index++) {
+            s.append("acgt".charAt(rand.nextInt(4)));
+        }
+
+        for (int k : new int[]{1, 31, 32, 33, 63, 64}) {
+            checkScan(s.toString(), k);
+        }
+    }
+
+    @Test
+    public void testInvalidBases() {
+        String s = "acgtnacgtacgxtacgtacnnaaccggtt";
+        checkScan(s, 4);
+        checkScan(s, 8);
+        checkScan(s + "n" + seq.substring(0, 70), 64);
+
+        //No window of 5 without an n
+        KmerScanner scanner = new KmerScanner(5).reset("acgtnacgtnacgt");
+        assertFalse(scanner.next());
+    }
+
+    @Test
+    public void testReset() {
+        KmerScanner scanner = new KmerScanner(4).reset("acgtac");
+        assertTrue(scanner.next());
+        assertTrue(scanner.next());
+
+        //Nothing carries over from the last sequence
+        scanner.reset("ggt");
+        assertFalse(scanner.next());
+
+        scanner.reset("tttt");
+        assertTrue(scanner.next());
+        assertEquals(0, scanner.getPosition());
+        assertEquals("aaaa", new PackedKmer(4).set(scanner.getCanonicalHi(), scanner.getCanonicalLo()).toString());
+        assertEquals(KmerScanner.REVERSE_STRAND, scanner.getStrand());
+
+        //acgt is its own reverse complement
+        scanner.reset("acgt");
+        assertTrue(scanner.next());
+        assertTrue(scanner.isPalindrome());
+        assertEquals(KmerScanner.CANONICAL_STRAND, scanner.getStrand());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.filter;
+
+import edu.msu.cme.rdp.graph.utils.BackTranslationIterator;
+import edu.msu.cme.rdp.readseq.utils.NuclBinMapping;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class BackTranslationWalkerTest {
+
+    //mwkhe, the anchor is mwk (fewest back translations)
+    private static final String chain = "atgtggaaacatgaa";
+    //Another back translation of khe, nothing connects it to mwk
+    private static final String island = "aagcacgag";
+
+    private static BloomFilter buildFilter() {
+        BloomFilter filter = new BloomFilter(20, 3, 9, 16);
+        BloomFilter.GraphBuilder builder = filter.new GraphBuilder();
+        builder.addString(chain.toCharArray());
+        builder.addString(island.toCharArray());
+        return filter;
+    }
+
+    private static List<char[]> protMers(String prot, int protK) {
+        List<char[]> ret = new ArrayList();
+        for (int index = 0; index + protK <= prot.length(); index++) {
+            ret.add(prot.substring(index, index + protK).toCharArray());
+        }
+        return ret;
+    }
+
+    /**
+     * Every back translation of the kmer that's in the filter
+     */
+    private static Set<String> enumerate(BloomFilter filter, char[] protMer) {
+        Set<String> ret = new HashSet();
+        enumerate(filter.new GraphState(), protMer, "", ret);
+        return ret;
+    }
+
+    private static void enumerate(BloomFilter.GraphState state, char[] protMer, String prefix, Set<String> ret) {
+        if (prefix.length() == protMer.length * 3) {
+            state.setState(prefix.toCharArray());
+            if (state.hasCurrent()) {
+                ret.add(prefix);
+            }
+            return;
+        }
+
+        for (byte[] codon : BackTranslationIterator.getCodons(protMer[prefix.length() / 3])) {
+            String next = prefix;
+            for (byte b : codon) {
+                next += NuclBinMapping.intToChar[b];
+            }
+            enumerate(state, protMer, next, ret);
+        }
+    }
+
+    @Test
+    public void testBrokenChain() {
+        BloomFilter filter = buildFilter();
+        List<char[]> protMers = protMers("mwkhe", 3);
+
+        //Walking alone only reaches the khe kmer connected to the anchor
+        List<Set<String>> walked = new BackTranslationWalker(filter, 1000, 0).walk(protMers);
+        assertTrue(walked.get(2).contains("aaacatgaa"));
+        assertFalse(walked.get(2).contains(island));
+
+        List<Set<String>> kmers = new BackTranslationWalker(filter, 1000).walk(protMers);
+        assertEquals(protMers.size(), kmers.size());
+        for (int index = 0; index < protMers.size(); index++) {
+            assertEquals(new String(protMers.get(index)), enumerate(filter, protMers.get(index)), new HashSet(kmers.get(index)));
+        }
+        assertTrue(kmers.get(2).contains(island));
+    }
+
+    @Test
+    public void testSeparateRuns() {
+        BloomFilter filter = buildFilter();
+        //khe on its own is a run of one, anchored and enumerated
+        List<char[]> protMers = new ArrayList(protMers("mwkhe", 3));
+        protMers.add(1, "khe".toCharArray());
+
+        List<Set<String>> kmers = new BackTranslationWalker(filter, 1000).walk(protMers);
+        for (int index = 0; index < protMers.size(); index++) {
+            assertEquals(new String(protMers.get(index)), enumerate(filter, protMers.get(index)), new HashSet(kmers.get(index)));
+        }
+        assertEquals(new HashSet(Arrays.asList("aaacatgaa", island)), kmers.get(1));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.filter;
+
+import edu.msu.cme.rdp.kmer.Kmer;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class CodonCacheTest {
+
+    @Test
+    public void testGetPut() {
+        CodonCache cache = new CodonCache(4);
+
+        assertEquals(CodonCache.MISSING, cache.get(1, 2));
+        cache.put(1, 2, 0);
+        assertEquals(0, cache.get(1, 2));
+        //The reverse complement (hashes swapped) has its own successors
+        assertEquals(CodonCache.MISSING, cache.get(2, 1));
+
+        cache.put(1, 2, 1L << 63);
+        assertEquals(1L << 63, cache.get(1, 2));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(.5, cache.getHitRate(), .00001);
+    }
+
+    @Test
+    public void testPushCodon() {
+        String seq = "aaacttgtcgaatggcatcggtaccgaaatttgcaaagtcg";
+        BloomFilter filter = new BloomFilter(20, 4, 15, 16);
+        filter.new GraphBuilder().addString(seq.toCharArray());
+
+        char[] start = seq.substring(0, 15).toCharArray();
+        CodonWalker walker = filter.new RightCodonFacade(start);
+        long fwdHash = walker.getFwdHash();
+        long rcHash = walker.getRcHash();
+        Kmer kmer = new Kmer(start);
+
+        Set<String> expected = new HashSet();
+        long codons = 0;
+        NextCodon codon = walker.getNextCodon();
+        while (codon != null) {
+            codons |= 1L << codon.getCodon();
+            expected.add(codon + " " + walker.getFwdHash() + " " + walker.getRcHash());
+            codon = walker.getSibCodon();
+        }
+        assertFalse(expected.isEmpty());
+
+        Set<String> actual = new HashSet();
+        walker.jumpTo(kmer, fwdHash, rcHash);
+        while (codons != 0) {
+            codon = walker.pushCodon(Long.numberOfTrailingZeros(codons));
+            codons &= codons - 1;
+            actual.add(codon + " " + walker.getFwdHash() + " " + walker.getRcHash());
+            walker.popCodon();
+
+            assertEquals(fwdHash, walker.getFwdHash());
+            assertEquals(rcHash, walker.getRcHash());
+        }
+
+        assertEquals(expected, actual);
+    }
+}
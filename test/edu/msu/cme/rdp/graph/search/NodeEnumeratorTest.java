@@ -145,22 +145,22 @@ public class NodeEnumeratorTest {
 
         curr = start;
 
-        neighbors = ne.enumerateNodes(curr, codonFacade, new HashSet());
+        neighbors = ne.enumerateNodes(curr, codonFacade, new PackedKmerSet());
         assertEquals(3, neighbors.size());
         curr = neighbors.iterator().next();
-        nc = kmerToCodon(curr.kmer);
+        nc = kmerToCodon(curr.getKmer());
         assertEquals("Expected n not " + nc.getAminoAcid(), 'n', nc.getAminoAcid());
 
-        neighbors = ne.enumerateNodes(curr, codonFacade, new HashSet());
+        neighbors = ne.enumerateNodes(curr, codonFacade, new PackedKmerSet());
         assertEquals((curr.state == 'm')? 3 : 2, neighbors.size());
         curr = neighbors.iterator().next();
-        nc = kmerToCodon(curr.kmer);
+        nc = kmerToCodon(curr.getKmer());
         assertEquals("Expected t not " + nc.getAminoAcid(), 't', nc.getAminoAcid());
 
-        neighbors = ne.enumerateNodes(curr, codonFacade, new HashSet());
+        neighbors = ne.enumerateNodes(curr, codonFacade, new PackedKmerSet());
         assertEquals((curr.state == 'm')? 3 : 2, neighbors.size());
         curr = neighbors.iterator().next();
-        nc = kmerToCodon(curr.kmer);
+        nc = kmerToCodon(curr.getKmer());
         assertEquals("Expected l not " + nc.getAminoAcid(), 'l', nc.getAminoAcid());
     }
 
@@ -199,7 +199,7 @@ public class NodeEnumeratorTest {
             PriorityQueue<AStarNode> rank = neighbors.get(neighbors.size() - 1);
             PriorityQueue<AStarNode> next = new PriorityQueue();
             for (AStarNode node : rank) {
-                next.addAll(ne.enumerateNodes(node, codonFacade, new HashSet()));
+                next.addAll(ne.enumerateNodes(node, codonFacade, new PackedKmerSet()));
             }
 
             neighbors.add(next);
@@ -245,7 +245,7 @@ public class NodeEnumeratorTest {
             PriorityQueue<AStarNode> rank = neighbors.get(neighbors.size() - 1);
             PriorityQueue<AStarNode> next = new PriorityQueue();
             for (AStarNode node : rank) {
-                next.addAll(ne.enumerateNodes(node, codonFacade, new HashSet()));
+                next.addAll(ne.enumerateNodes(node, codonFacade, new PackedKmerSet()));
             }
 
             neighbors.add(next);
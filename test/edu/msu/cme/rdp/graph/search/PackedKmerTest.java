@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import edu.msu.cme.rdp.graph.filter.PathHolder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class PackedKmerTest {
+
+    private static final String seq = "atgtctttgcgccagattgcgttctacggtaagggcggtatcggaaagtccaccacctcccagaacaccctggcc";
+
+    @Test
+    public void testShift() {
+        for (int k : new int[]{1, 10, 31, 32, 33, 45, 63, 64}) {
+            PackedKmer kmer = new PackedKmer(seq.substring(0, k).toCharArray());
+            assertEquals(seq.substring(0, k), kmer.toString());
+
+            kmer.shiftLeft((byte) 3);
+            assertEquals(seq.substring(1, k) + "t", kmer.toString());
+
+            kmer.shiftRight((byte) 2);
+            assertEquals("g" + seq.substring(1, k), kmer.toString());
+        }
+    }
+
+    @Test
+    public void testCompare() {
+        for (int k : new int[]{3, 32, 40, 64}) {
+            for (int offset = 0; offset < 10; offset++) {
+                String s1 = seq.substring(offset, offset + k);
+                String s2 = seq.substring(offset + 1, offset + 1 + k);
+                PackedKmer k1 = new PackedKmer(s1.toCharArray());
+                PackedKmer k2 = new PackedKmer(s2.toCharArray());
+
+                assertEquals(Integer.signum(s1.compareTo(s2)), PackedKmer.compare(k1.getHi(), k1.getLo(), k2.getHi(), k2.getLo()));
+            }
+        }
+    }
+
+    @Test
+    public void testPathHolderInit() {
+        for (int k : new int[]{5, 32, 33, 64}) {
+            PackedKmer kmer = new PackedKmer(seq.substring(0, k).toCharArray());
+            PathHolder path = new PathHolder();
+            path.init(kmer.getHi(), kmer.getLo(), k);
+            path.push((byte) 1);
+
+            assertEquals(seq.substring(0, k) + "c", new String(path.toCharArray()));
+        }
+    }
+
+    @Test
+    public void testSet() {
+        PackedKmerSet set = new PackedKmerSet(2);
+        for (int index = 0; index + 40 <= seq.length(); index++) {
+            assertTrue(set.add(new PackedKmer(seq.substring(index, index + 40).toCharArray())));
+        }
+        assertEquals(seq.length() - 39, set.size());
+        assertFalse(set.add(new PackedKmer(seq.substring(0, 40).toCharArray())));
+        assertTrue(set.contains(new PackedKmer(seq.substring(5, 45).toCharArray())));
+        assertFalse(set.contains(new PackedKmer(seq.substring(0, 39).concat("g").toCharArray())));
+    }
+
+    @Test
+    public void testSetReverseComplement() {
+        for (int k : new int[]{1, 10, 31, 32, 33, 45, 63, 64}) {
+            String kmer = seq.substring(3, 3 + k);
+            StringBuilder rc = new StringBuilder();
+            for (int index = k - 1; index >= 0; index--) {
+                rc.append("tgca".charAt("acgt".indexOf(kmer.charAt(index))));
+            }
+
+            PackedKmer packed = new PackedKmer(kmer.toCharArray());
+            PackedKmer dest = new PackedKmer(k).setReverseComplement(packed.getHi(), packed.getLo());
+            assertEquals(rc.toString(), dest.toString());
+            assertEquals(kmer, new PackedKmer(k).setReverseComplement(dest.getHi(), dest.getLo()).toString());
+        }
+    }
+}
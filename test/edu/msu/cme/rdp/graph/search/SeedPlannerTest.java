@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.search;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class SeedPlannerTest {
+
+    private static final String contig = "atgtctttgcgccagattgcgttctacggtaagggcggtatcggaaagtcc";
+
+    @Test
+    public void testDuplicates() {
+        SeedPlanner planner = new SeedPlanner(15);
+
+        assertTrue(planner.offer("ATGTCTTTGCGCCAG", 1));
+        assertFalse(planner.offer("atgtctttgcgccag", 1));
+        assertTrue(planner.offer("atgtctttgcgccag", 4));
+
+        assertEquals(1, planner.getDuplicates());
+        assertEquals(2, planner.getAccepted());
+    }
+
+    @Test
+    public void testCovered() {
+        SeedPlanner planner = new SeedPlanner(15);
+        planner.addContig(contig.substring(0, 20) + "n" + contig.substring(20));
+
+        assertTrue(planner.isCovered(contig.substring(0, 15)));
+        assertTrue(planner.isCovered(contig.substring(20, 35)));
+        assertFalse(planner.offer(contig.substring(1, 16), 1));
+        //Spans the n, shouldn't have been indexed
+        assertTrue(planner.offer(contig.substring(10, 25), 1));
+        assertEquals(3, planner.getCovered());
+
+        SeedPlanner noSkip = new SeedPlanner(15, false);
+        noSkip.addContig(contig);
+        assertTrue(noSkip.offer(contig.substring(0, 15), 1));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Jordan Fish <fishjord at msu.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.msu.cme.rdp.graph.visual;
+
+import edu.msu.cme.rdp.graph.search.PackedKmer;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author fishjord
+ */
+public class KmerSubgraphTest {
+
+    private static final byte A = 0, C = 1, T = 3;
+
+    private static String reverseComplement(String kmer) {
+        StringBuilder ret = new StringBuilder();
+        for (int index = kmer.length() - 1; index >= 0; index--) {
+            ret.append("tgca".charAt("acgt".indexOf(kmer.charAt(index))));
+        }
+        return ret.toString();
+    }
+
+    private static int connect(KmerSubgraph graph, String kmer, byte b) {
+        PackedKmer fwd = new PackedKmer(kmer.toCharArray());
+        PackedKmer rc = new PackedKmer(reverseComplement(kmer).toCharArray());
+        return graph.connect(fwd.getHi(), fwd.getLo(), rc.getHi(), rc.getLo(), b);
+    }
+
+    private static int find(KmerSubgraph graph, String canonical) {
+        PackedKmer kmer = new PackedKmer(canonical.toCharArray());
+        return graph.find(kmer.getHi(), kmer.getLo());
+    }
+
+    @Test
+    public void testForwardStrand() {
+        KmerSubgraph graph = new KmerSubgraph(5);
+        //aacgt is canonical (rc acgtt), so is acgta (rc tacgt)
+        int to = connect(graph, "aacgt", A);
+        int from = find(graph, "aacgt");
+
+        assertEquals(2, graph.size());
+        assertEquals(find(graph, "acgta"), to);
+        assertEquals(1 << A, graph.getNextBases(from, 0));
+        assertEquals(0, graph.getNextBases(from, 1));
+        //tacgt is followed by t to give acgtt
+        assertEquals(0, graph.getNextBases(to, 0));
+        assertEquals(1 << T, graph.getNextBases(to, 1));
+        assertEquals(1, graph.getNumEdges());
+    }
+
+    @Test
+    public void testReverseStrand() {
+        KmerSubgraph graph = new KmerSubgraph(5);
+        //gggtt is the reverse complement of aaccc, ggttc of gaacc
+        int to = connect(graph, "gggtt", C);
+        int from = find(graph, "aaccc");
+
+        assertEquals(find(graph, "gaacc"), to);
+        assertEquals(0, graph.getNextBases(from, 0));
+        assertEquals(1 << C, graph.getNextBases(from, 1));
+        //gaacc is followed by c to give aaccc
+        assertEquals(1 << C, graph.getNextBases(to, 0));
+        assertEquals(0, graph.getNextBases(to, 1));
+    }
+
+    @Test
+    public void testCanonicalDedup() {
+        KmerSubgraph graph = new KmerSubgraph(5);
+        connect(graph, "aacgt", A);
+
+        //The same edge walked from the other strand
+        connect(graph, "tacgt", T);
+        assertEquals(2, graph.size());
+        assertEquals(1, graph.getNumEdges());
+        assertEquals(1 << A, graph.getNextBases(find(graph, "aacgt"), 0));
+        assertEquals(1 << T, graph.getNextBases(find(graph, "acgta"), 1));
+
+        //Only canonical kmers are nodes
+        PackedKmer kmer = new PackedKmer("aacgt".toCharArray());
+        assertEquals(find(graph, "aacgt"), graph.add(kmer.getHi(), kmer.getLo()));
+        assertEquals(2, graph.size());
+        assertEquals(-1, find(graph, "acgtt"));
+    }
+
+    @Test
+    public void testPalindrome() {
+        KmerSubgraph graph = new KmerSubgraph(4);
+        //acgt is its own reverse complement, the edge back to cgtt (rc aacg) is on strand 0
+        int to = connect(graph, "aacg", T);
+        int from = find(graph, "aacg");
+
+        assertEquals(find(graph, "acgt"), to);
+        assertEquals(1 << T, graph.getNextBases(from, 0));
+        assertEquals(1 << T, graph.getNextBases(to, 0));
+        assertEquals(0, graph.getNextBases(to, 1));
+        assertEquals(1, graph.getNumEdges());
+
+        assertTrue(graph.visit(to, 1));
+        assertFalse(graph.visit(to, 0));
+        assertTrue(graph.visit(from, 1));
+        assertTrue(graph.visit(from, 0));
+    }
+
+    /**
+     * Builds the graph of a sequence and its reverse complement, every link
+     * in the GFA has to join two oriented kmers overlapping by k - 1 and the
+     * links have to be the sequence's k+1-mers, each exactly once
+     */
+    private static void checkGfa(String seq, int k) {
+        KmerSubgraph graph = new KmerSubgraph(k);
+        Set<String> expected = new HashSet();
+        for (String s : new String[]{seq, reverseComplement(seq)}) {
+            for (int pos = 0; pos + k < s.length(); pos++) {
+                connect(graph, s.substring(pos, pos + k), (byte) "acgt".indexOf(s.charAt(pos + k)));
+                String edge = s.substring(pos, pos + k + 1);
+                String rc = reverseComplement(edge);
+                expected.add((edge.compareTo(rc) <= 0) ? edge : rc);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        graph.writeGfa(out);
+        out.flush();
+
+        Map<String, String> segments = new HashMap();
+        Set<String> links = new HashSet();
+        int linkCount = 0;
+        for (String line : bytes.toString().split("\n")) {
+            String[] lexemes = line.split("\t");
+            if (lexemes[0].equals("S")) {
+                String kmer = lexemes[2];
+                assertTrue(kmer.compareTo(reverseComplement(kmer)) <= 0);
+                segments.put(lexemes[1], kmer);
+            } else if (lexemes[0].equals("L")) {
+                String from = segments.get(lexemes[1]);
+                String to = segments.get(lexemes[3]);
+                from = (lexemes[2].equals("+")) ? from : reverseComplement(from);
+                to = (lexemes[4].equals("+")) ? to : reverseComplement(to);
+
+                assertEquals(line, (k - 1) + "M", lexemes[5]);
+                assertEquals(line, from.substring(1), to.substring(0, k - 1));
+
+                String edge = from + to.charAt(k - 1);
+                String rc = reverseComplement(edge);
+                links.add((edge.compareTo(rc) <= 0) ? edge : rc);
+                linkCount++;
+            }
+        }
+
+        assertEquals(graph.size(), segments.size());
+        assertEquals(expected, links);
+        assertEquals(expected.size(), linkCount);
+        assertEquals(expected.size(), graph.getNumEdges());
+    }
+
+    @Test
+    public void testGfa() {
+        checkGfa("aacgtaggacgtt", 4);
+        checkGfa("aacgtaggacgtt", 5);
+
+        Random rand = new Random(1);
+        StringBuilder seq = new StringBuilder();
+        for (int index = 0; index < 400; index++) {
+            seq.append("acgt".charAt(rand.nextInt(4)));
+        }
+        for (int k : new int[]{3, 4, 11, 32, 33, 64}) {
+            checkGfa(seq.toString(), k);
+        }
+    }
+}